@@ -0,0 +1,22 @@
+package diskUnitExceptions;
+
+public class CorruptBlockException extends RuntimeException {
+	/**
+	 * Exception thrown when the content of a block read from the disk
+	 * doesn't match the checksum stored for it.
+	 */
+	public CorruptBlockException() {}
+	
+	public CorruptBlockException(String arg0) {
+		super(arg0);
+	}
+
+	public CorruptBlockException(Throwable arg0) {
+		super(arg0);
+	}
+
+	public CorruptBlockException(String arg0, Throwable arg1) {
+		super(arg0, arg1);
+	}
+	
+}
@@ -0,0 +1,22 @@
+package diskUnitExceptions;
+
+public class ReadOnlyDiskException extends RuntimeException {
+	/**
+	 * Exception thrown when a block is written into a disk unit
+	 * mounted read-only, such as the snapshot of a disk.
+	 */
+	public ReadOnlyDiskException() {}
+	
+	public ReadOnlyDiskException(String arg0) {
+		super(arg0);
+	}
+
+	public ReadOnlyDiskException(Throwable arg0) {
+		super(arg0);
+	}
+
+	public ReadOnlyDiskException(String arg0, Throwable arg1) {
+		super(arg0, arg1);
+	}
+	
+}
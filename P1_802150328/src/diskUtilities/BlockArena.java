@@ -0,0 +1,155 @@
+package diskUtilities;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Block-sized frames kept outside the Java heap. The arena slices large
+ * direct ByteBuffers (segments) into frames addressed by frame index, so
+ * a big working set of blocks doesn't add to the work of the garbage
+ * collector. Segments are allocated when their first frame is needed, up
+ * to the maximum number of frames given at creation.
+ * @author jahdiel
+ *
+ */
+public class BlockArena {
+
+	// A direct buffer can't exceed Integer.MAX_VALUE bytes, so the frames are
+	// spread over segments. Frame sizes are powers of two, hence a frame never crosses one.
+	private static final int SEGMENT_SIZE = 1 << 30;
+
+	private int frameSize;         // bytes per frame (the block size of the disk)
+	private int maxFrames;         // maximum number of frames in the arena
+	private int framesPerSegment;  // frames held by each direct buffer
+	private ByteBuffer[] segments; // direct buffers; null until first used
+
+	private int[] freeFrames;      // stack of frames released for reuse
+	private int numOfFreeFrames;   // frames in the stack
+	private int nextNewFrame;      // first frame never handed out
+
+	/**
+	 * Creates an arena with room for maxFrames frames. No memory is reserved
+	 * until frames are allocated.
+	 * @param frameSize bytes per frame
+	 * @param maxFrames maximum number of frames (at least 1)
+	 */
+	public BlockArena(int frameSize, int maxFrames) {
+		if (maxFrames < 1)
+			throw new IllegalArgumentException("Arena needs room for at least one frame.");
+		this.frameSize = frameSize;
+		this.maxFrames = maxFrames;
+		framesPerSegment = Math.max(1, SEGMENT_SIZE / frameSize);
+		segments = new ByteBuffer[(maxFrames + framesPerSegment - 1) / framesPerSegment];
+		freeFrames = new int[maxFrames];
+	}
+
+	/**
+	 * Takes a free frame from the arena.
+	 * @return index of the frame, or -1 if every frame is in use.
+	 */
+	public int allocate() {
+		if (numOfFreeFrames > 0)
+			return freeFrames[--numOfFreeFrames];
+		if (nextNewFrame == maxFrames)
+			return -1;
+		int frame = nextNewFrame++;
+		int segment = frame / framesPerSegment;
+		if (segments[segment] == null) {
+			int framesInSegment = Math.min(framesPerSegment, maxFrames - segment * framesPerSegment);
+			segments[segment] = ByteBuffer.allocateDirect(framesInSegment * frameSize);
+		}
+		return frame;
+	}
+
+	/**
+	 * Gives a frame back to the arena. Its content is no longer valid.
+	 * @param frame index returned by allocate()
+	 */
+	public void free(int frame) {
+		freeFrames[numOfFreeFrames++] = frame;
+	}
+
+	/**
+	 * Marks every frame as free, keeping the segments already allocated.
+	 */
+	public void reset() {
+		numOfFreeFrames = 0;
+		nextNewFrame = 0;
+	}
+
+	/**
+	 * Returns a buffer of frameSize bytes sharing the content of a frame.
+	 * @param frame index of the frame
+	 * @return ByteBuffer over the frame
+	 */
+	public ByteBuffer frame(int frame) {
+		ByteBuffer view = segments[frame / framesPerSegment].duplicate();
+		int offset = (frame % framesPerSegment) * frameSize;
+		view.limit(offset + frameSize);
+		view.position(offset);
+		return view.slice();
+	}
+
+	/**
+	 * Copies the content of a frame into dst.
+	 * @param frame index of the frame
+	 * @param dst array of frameSize bytes
+	 */
+	void get(int frame, byte[] dst) {
+		ByteBuffer segment = segments[frame / framesPerSegment].duplicate();
+		segment.position((frame % framesPerSegment) * frameSize);
+		segment.get(dst, 0, frameSize);
+	}
+
+	/**
+	 * Copies src as the content of a frame.
+	 * @param frame index of the frame
+	 * @param src array of frameSize bytes
+	 */
+	void put(int frame, byte[] src) {
+		ByteBuffer segment = segments[frame / framesPerSegment].duplicate();
+		segment.position((frame % framesPerSegment) * frameSize);
+		segment.put(src, 0, frameSize);
+	}
+
+	/**
+	 * Returns the memory of the arena to the operating system. The arena
+	 * must not be used afterwards.
+	 */
+	public void release() {
+		for (int i=0; i < segments.length; i++) {
+			if (segments[i] != null)
+				DiskUnit.freeBuffer(segments[i]);
+			segments[i] = null;
+		}
+		reset();
+	}
+
+	public int getFrameSize() {
+		return frameSize;
+	}
+
+	public int getMaxFrames() {
+		return maxFrames;
+	}
+
+	/**
+	 * Gets the number of frames currently handed out.
+	 * @return frames in use
+	 */
+	public int getFramesInUse() {
+		return nextNewFrame - numOfFreeFrames;
+	}
+
+	/**
+	 * Gets the off-heap memory currently reserved by the arena.
+	 * @return bytes held by the allocated segments
+	 */
+	public long getReservedBytes() {
+		long bytes = 0;
+		for (ByteBuffer segment : segments)
+			if (segment != null)
+				bytes += segment.capacity();
+		return bytes;
+	}
+
+}
@@ -0,0 +1,599 @@
+package diskUtilities;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import diskUnitExceptions.InvalidBlockException;
+import diskUnitExceptions.InvalidBlockNumberException;
+
+/**
+ * Bounded cache of disk blocks placed over a DiskUnit. It keeps a copy
+ * of the most recently used blocks and, when full, evicts the least
+ * recently used one. Writes are either sent to the disk right away
+ * (WRITE_THROUGH) or kept in the cache until the block is evicted or
+ * the cache is flushed (WRITE_BACK). Repeated writes to a block then
+ * reach the disk once, and a background thread flushes the dirty blocks
+ * every flush interval or as soon as there are dirtyThreshold of them.
+ * Block 0 (the control data of the disk) is never cached.
+ * The cached blocks are kept either in the Java heap or, for large 
+ * caches, in the frames of an off-heap BlockArena.
+ * @author jahdiel
+ *
+ */
+public class BlockCache implements DiskUnitInterface {
+
+	public static final int WRITE_THROUGH = 0;
+	public static final int WRITE_BACK = 1;
+	
+	public static final long DEFAULT_FLUSH_INTERVAL = 5000;  // milliseconds between background flushes
+
+	private DiskUnit disk;     // disk unit whose blocks are cached
+	private int maxBlocks;     // maximum number of blocks kept in the cache
+	private int policy;        // WRITE_THROUGH or WRITE_BACK
+	private BlockArena arena;  // off-heap storage of the blocks; null if kept in the heap
+
+	// cached blocks, from least to most recently used
+	private LinkedHashMap<Integer, CacheEntry> blocks;
+
+	private long hits;         // reads served from the cache
+	private long misses;       // reads that went to the disk
+	private long evictions;    // blocks removed to make room for others
+	private long writeBacks;   // dirty blocks written into the disk
+	private long prefetchedBlocks;  // blocks read ahead by prefetch
+	private long prefetchHits;      // prefetched blocks that were used afterwards
+	
+	private int dirtyBlocks;       // cached blocks newer than their disk copy
+	private long flushInterval;    // milliseconds between background flushes; 0 for none
+	private int dirtyThreshold;    // dirty blocks that trigger a background flush; 0 for none
+	private long backgroundFlushes;  // flushes done by the flusher thread
+	private boolean flushRequested;  // a threshold flush is queued and not yet done
+	private boolean released;        // the cache is no longer in use
+	
+	// thread flushing the dirty blocks; started when the first block becomes dirty
+	private ScheduledExecutorService flusher;
+
+	/**
+	 * Content of a cached block: a heap array, or a frame of the arena.
+	 */
+	private static class CacheEntry {
+		private byte[] data;
+		private int frame;
+		private boolean dirty;   // true if the disk block is older than the cached content
+		private boolean prefetched;  // read ahead and not used yet
+	}
+
+	/**
+	 * Creates an empty cache over the given disk unit, keeping the blocks in the heap.
+	 * @param disk DiskUnit whose blocks are cached.
+	 * @param maxBlocks Maximum number of blocks in the cache (at least 1).
+	 * @param policy WRITE_THROUGH or WRITE_BACK
+	 */
+	public BlockCache(DiskUnit disk, int maxBlocks, int policy) {
+		this(disk, maxBlocks, policy, false);
+	}
+
+	/**
+	 * Creates an empty cache over the given disk unit.
+	 * @param disk DiskUnit whose blocks are cached.
+	 * @param maxBlocks Maximum number of blocks in the cache (at least 1).
+	 * @param policy WRITE_THROUGH or WRITE_BACK
+	 * @param offHeap true to keep the blocks in an off-heap arena of maxBlocks frames
+	 */
+	public BlockCache(DiskUnit disk, int maxBlocks, int policy, boolean offHeap) {
+		if (maxBlocks < 1)
+			throw new IllegalArgumentException("Cache needs room for at least one block.");
+		if (policy != WRITE_THROUGH && policy != WRITE_BACK)
+			throw new IllegalArgumentException("Invalid write policy: " + policy);
+		this.disk = disk;
+		this.maxBlocks = maxBlocks;
+		this.policy = policy;
+		blocks = new LinkedHashMap<>(16, 0.75f, true);
+		flushInterval = DEFAULT_FLUSH_INTERVAL;
+		dirtyThreshold = Math.max(1, maxBlocks / 2);
+		if (offHeap)
+			arena = new BlockArena(disk.getBlockSize(), maxBlocks);
+	}
+
+	@Override
+	public void write(int blockNum, VirtualDiskBlock b) throws InvalidBlockNumberException, InvalidBlockException {
+		if (blockNum < 1 || blockNum >= disk.getCapacity())
+			throw new InvalidBlockNumberException("The block number "+blockNum+" is invalid.");
+		if (!disk.isValidBlock(b))
+			throw new InvalidBlockException("Invalid block instance.");
+		try {
+			writeBlock(blockNum, b.getElements());
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	@Override
+	public void read(int blockNum, VirtualDiskBlock b) throws InvalidBlockNumberException, InvalidBlockException {
+		if (blockNum < 0 || blockNum >= disk.getCapacity())
+			throw new InvalidBlockNumberException("The block number "+blockNum+" is invalid.");
+		if (!disk.isValidBlock(b))
+			throw new InvalidBlockException("Invalid block instance.");
+		try {
+			readBlock(blockNum, b.getElements());
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	@Override
+	public void writeBlocks(int[] blockNums, VirtualDiskBlock[] src) throws InvalidBlockNumberException, InvalidBlockException {
+		disk.checkBatch(blockNums, src, 1);
+		byte[][] data = new byte[src.length][];
+		for (int i=0; i < src.length; i++)
+			data[i] = src[i].getElements();
+		try {
+			writeBlocks(blockNums, data);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	@Override
+	public void readBlocks(int[] blockNums, VirtualDiskBlock[] dst) throws InvalidBlockNumberException, InvalidBlockException {
+		disk.checkBatch(blockNums, dst, 0);
+		byte[][] data = new byte[dst.length][];
+		for (int i=0; i < dst.length; i++)
+			data[i] = dst[i].getElements();
+		try {
+			readBlocks(blockNums, data);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Copies the content of a block into dst, from the cache if present.
+	 * The block number is assumed valid.
+	 * @param blockNum number of the block to read
+	 * @param dst array of blockSize bytes
+	 * @throws IOException if the disk file can't be accessed
+	 */
+	void readBlock(int blockNum, byte[] dst) throws IOException {
+		if (blockNum == 0) {
+			disk.readBlock(blockNum, dst);
+			return;
+		}
+		CacheEntry entry = blocks.get(blockNum);
+		if (entry != null) {
+			hit(entry);
+			load(entry, dst);
+		} else {
+			misses++;
+			disk.readBlock(blockNum, dst);
+			store(insert(blockNum), dst);
+		}
+	}
+
+	/**
+	 * Copies src as the new content of a block, writing it into the disk
+	 * as established by the write policy. The block number is assumed valid.
+	 * @param blockNum number of the block to write
+	 * @param src array of blockSize bytes
+	 * @throws IOException if the disk file can't be accessed
+	 */
+	void writeBlock(int blockNum, byte[] src) throws IOException {
+		CacheEntry entry = blocks.get(blockNum);
+		if (entry == null)
+			entry = insert(blockNum);
+		store(entry, src);
+		if (policy == WRITE_THROUGH)
+			disk.writeBlock(blockNum, src);
+		else
+			markDirty(entry);
+	}
+
+	/**
+	 * Copies the content of several blocks into the given arrays. Cached blocks
+	 * are copied from memory and the rest are read from the disk in a single 
+	 * batch. The block numbers are assumed valid.
+	 * @param blockNums numbers of the blocks to read
+	 * @param dst one array of blockSize bytes per block number
+	 * @throws IOException if the disk file can't be accessed
+	 */
+	void readBlocks(int[] blockNums, byte[][] dst) throws IOException {
+		int[] missNums = new int[blockNums.length];
+		byte[][] missData = new byte[blockNums.length][];
+		int numOfMisses = 0;
+		for (int i=0; i < blockNums.length; i++) {
+			CacheEntry entry = (blockNums[i] == 0 ? null : blocks.get(blockNums[i]));
+			if (entry != null) {
+				hit(entry);
+				load(entry, dst[i]);
+			} else {
+				misses++;
+				missNums[numOfMisses] = blockNums[i];
+				missData[numOfMisses] = dst[i];
+				numOfMisses++;
+			}
+		}
+		if (numOfMisses == 0)
+			return;
+		disk.readBlocks(Arrays.copyOf(missNums, numOfMisses), Arrays.copyOf(missData, numOfMisses));
+		for (int i=0; i < numOfMisses; i++) {
+			if (missNums[i] == 0 || blocks.containsKey(missNums[i]))
+				continue;
+			store(insert(missNums[i]), missData[i]);
+		}
+	}
+
+	/**
+	 * Copies the given arrays as the new content of several blocks, writing
+	 * them into the disk in a single batch if the policy is WRITE_THROUGH.
+	 * The block numbers are assumed valid.
+	 * @param blockNums numbers of the blocks to write
+	 * @param src one array of blockSize bytes per block number
+	 * @throws IOException if the disk file can't be accessed
+	 */
+	void writeBlocks(int[] blockNums, byte[][] src) throws IOException {
+		for (int i=0; i < blockNums.length; i++) {
+			CacheEntry entry = blocks.get(blockNums[i]);
+			if (entry == null)
+				entry = insert(blockNums[i]);
+			store(entry, src[i]);
+			if (policy == WRITE_BACK)
+				markDirty(entry);
+		}
+		if (policy == WRITE_THROUGH)
+			disk.writeBlocks(blockNums, src);
+	}
+
+	/**
+	 * Adds a block to the cache, evicting the least recently used
+	 * blocks if the cache is full. The content of the new entry is 
+	 * set afterwards with store().
+	 * @param blockNum number of the block
+	 * @return the entry of the block
+	 * @throws IOException if an evicted dirty block can't be written
+	 */
+	private CacheEntry insert(int blockNum) throws IOException {
+		Iterator<Map.Entry<Integer, CacheEntry>> lru = blocks.entrySet().iterator();
+		while (blocks.size() >= maxBlocks) {
+			Map.Entry<Integer, CacheEntry> eldest = lru.next();
+			CacheEntry evicted = eldest.getValue();
+			if (evicted.dirty) {
+				disk.writeBlock(eldest.getKey(), contentOf(evicted));
+				writeBacks++;
+				dirtyBlocks--;
+			}
+			if (arena != null)
+				arena.free(evicted.frame);
+			lru.remove();
+			evictions++;
+		}
+		CacheEntry entry = new CacheEntry();
+		if (arena != null)
+			entry.frame = arena.allocate();  // never -1: the arena has a frame per cached block
+		else
+			entry.data = new byte[disk.getBlockSize()];
+		blocks.put(blockNum, entry);
+		return entry;
+	}
+	
+	/**
+	 * Counts a read served from the cache.
+	 */
+	private void hit(CacheEntry entry) {
+		hits++;
+		if (entry.prefetched) {
+			prefetchHits++;
+			entry.prefetched = false;
+		}
+	}
+	
+	/**
+	 * Reads into the cache, in a single batch, the blocks from first to end - 1 
+	 * that are not cached yet, so later reads of them are hits. At most half 
+	 * the cache is filled by one call. Block 0 is skipped.
+	 * @param first number of the first block of the range
+	 * @param end number of the block right after the range
+	 * @return number of blocks read from the disk
+	 * @throws IOException if the disk file can't be read
+	 */
+	int prefetch(int first, int end) throws IOException {
+		int limit = Math.max(1, maxBlocks / 2);
+		int[] blockNums = new int[Math.min(end - first, limit)];
+		int numOfBlocks = 0;
+		for (int blockNum=first; blockNum < end && numOfBlocks < blockNums.length; blockNum++)
+			if (blockNum != 0 && !blocks.containsKey(blockNum))
+				blockNums[numOfBlocks++] = blockNum;
+		if (numOfBlocks == 0)
+			return 0;
+		
+		blockNums = Arrays.copyOf(blockNums, numOfBlocks);
+		byte[][] data = new byte[numOfBlocks][disk.getBlockSize()];
+		disk.readBlocks(blockNums, data);
+		for (int i=0; i < numOfBlocks; i++) {
+			CacheEntry entry = insert(blockNums[i]);
+			store(entry, data[i]);
+			entry.prefetched = true;
+		}
+		prefetchedBlocks += numOfBlocks;
+		return numOfBlocks;
+	}
+	
+	/**
+	 * Copies the cached content of a block into dst.
+	 */
+	private void load(CacheEntry entry, byte[] dst) {
+		if (arena != null)
+			arena.get(entry.frame, dst);
+		else
+			System.arraycopy(entry.data, 0, dst, 0, entry.data.length);
+	}
+	
+	/**
+	 * Copies src as the cached content of a block.
+	 */
+	private void store(CacheEntry entry, byte[] src) {
+		if (arena != null)
+			arena.put(entry.frame, src);
+		else
+			System.arraycopy(src, 0, entry.data, 0, entry.data.length);
+	}
+	
+	/**
+	 * Gets the cached content of a block as an array, copying it out 
+	 * of the arena if the cache is off-heap.
+	 */
+	private byte[] contentOf(CacheEntry entry) {
+		if (arena == null)
+			return entry.data;
+		byte[] data = new byte[disk.getBlockSize()];
+		arena.get(entry.frame, data);
+		return data;
+	}
+	
+	/**
+	 * Returns a read-only VirtualDiskBlock sharing the cached content of a block,
+	 * reading the block into the cache first if needed. The view is valid until
+	 * the block leaves the cache. The block number is assumed valid and not 0.
+	 * @param blockNum number of the block
+	 * @return read-only view of the block
+	 * @throws IOException if the block can't be read from the disk
+	 */
+	VirtualDiskBlock view(int blockNum) throws IOException {
+		CacheEntry entry = blocks.get(blockNum);
+		if (entry != null) {
+			hit(entry);
+		} else {
+			misses++;
+			byte[] data = new byte[disk.getBlockSize()];
+			disk.readBlock(blockNum, data);
+			entry = insert(blockNum);
+			store(entry, data);
+		}
+		ByteBuffer content = (arena != null ? arena.frame(entry.frame) : ByteBuffer.wrap(entry.data));
+		return new VirtualDiskBlock(content.asReadOnlyBuffer());
+	}
+
+	/**
+	 * Marks a cached block as newer than its disk copy, and queues a 
+	 * background flush if the dirty threshold is reached.
+	 */
+	private void markDirty(CacheEntry entry) {
+		if (entry.dirty)
+			return;   // repeated writes to the block are merged
+		entry.dirty = true;
+		dirtyBlocks++;
+		ScheduledExecutorService flusher = flusher();
+		if (dirtyThreshold > 0 && dirtyBlocks >= dirtyThreshold && !flushRequested) {
+			flushRequested = true;
+			flusher.execute(this::backgroundFlush);
+		}
+	}
+	
+	/**
+	 * Gets the flusher thread, starting it if needed.
+	 */
+	private ScheduledExecutorService flusher() {
+		if (flusher == null) {
+			flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread t = new Thread(r, "BlockCache flusher");
+				t.setDaemon(true);
+				return t;
+			});
+			if (flushInterval > 0)
+				flusher.scheduleWithFixedDelay(this::backgroundFlush, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+		}
+		return flusher;
+	}
+	
+	/**
+	 * Flush done by the flusher thread. The disk unit is locked meanwhile,
+	 * so no block is read or written during the flush.
+	 */
+	private void backgroundFlush() {
+		synchronized (disk) {
+			flushRequested = false;
+			if (released || dirtyBlocks == 0)
+				return;
+			flush();
+			backgroundFlushes++;
+		}
+	}
+	
+	/**
+	 * Changes when the flusher thread writes the dirty blocks into the disk.
+	 * Only used with the WRITE_BACK policy.
+	 * @param flushInterval milliseconds between flushes; 0 for no periodic flush
+	 * @param dirtyThreshold number of dirty blocks that triggers a flush; 0 for none
+	 */
+	public void setFlushPolicy(long flushInterval, int dirtyThreshold) {
+		if (flushInterval < 0 || dirtyThreshold < 0)
+			throw new IllegalArgumentException("Flush interval and threshold can't be negative.");
+		synchronized (disk) {
+			this.flushInterval = flushInterval;
+			this.dirtyThreshold = dirtyThreshold;
+			if (flusher != null) {   // restarted with the new interval on the next dirty block
+				flusher.shutdown();
+				flusher = null;
+				flushRequested = false;
+			}
+		}
+	}
+	
+	/**
+	 * Writes into the disk, in a single batch sorted by block number, every 
+	 * dirty block in the cache.
+	 */
+	public void flush() {
+		if (dirtyBlocks == 0)
+			return;
+		int[] blockNums = new int[dirtyBlocks];
+		CacheEntry[] entries = new CacheEntry[dirtyBlocks];
+		byte[][] data = new byte[dirtyBlocks][];
+		int i = 0;
+		for (Map.Entry<Integer, CacheEntry> e : blocks.entrySet()) {
+			if (e.getValue().dirty) {
+				blockNums[i] = e.getKey();
+				entries[i] = e.getValue();
+				data[i] = contentOf(entries[i]);
+				i++;
+			}
+		}
+		try {
+			disk.writeBlocks(blockNums, data);
+			for (CacheEntry entry : entries)
+				entry.dirty = false;
+			writeBacks += blockNums.length;
+			dirtyBlocks = 0;
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	@Override
+	public int getCapacity() {
+		return disk.getCapacity();
+	}
+
+	@Override
+	public int getBlockSize() {
+		return disk.getBlockSize();
+	}
+
+	/**
+	 * Discards every block in the cache, including the dirty ones. 
+	 * Used when the content of the disk is replaced as a whole.
+	 */
+	void invalidate() {
+		blocks.clear();
+		dirtyBlocks = 0;
+		if (arena != null)
+			arena.reset();
+	}
+	
+	/**
+	 * Empties the cache and returns its off-heap memory, if any. Used when
+	 * the cache is no longer needed; dirty blocks must be flushed first.
+	 */
+	void release() {
+		released = true;
+		if (flusher != null)
+			flusher.shutdown();
+		blocks.clear();
+		dirtyBlocks = 0;
+		if (arena != null)
+			arena.release();
+	}
+
+	/**
+	 * Formats the underlying disk. The cache is emptied first, since
+	 * its content would no longer match the disk.
+	 */
+	@Override
+	public void lowLevelFormat() {
+		invalidate();
+		disk.lowLevelFormat();
+	}
+
+	/**
+	 * Flushes the cache and turns off the underlying disk unit.
+	 */
+	@Override
+	public void shutdown() {
+		flush();
+		disk.shutdown();
+	}
+
+	public int getMaxBlocks() {
+		return maxBlocks;
+	}
+
+	public int getPolicy() {
+		return policy;
+	}
+
+	/**
+	 * Gets the off-heap arena holding the cached blocks.
+	 * @return the BlockArena, or null if the blocks are kept in the heap.
+	 */
+	public BlockArena getArena() {
+		return arena;
+	}
+
+	/**
+	 * Gets the number of blocks currently in the cache.
+	 * @return number of cached blocks
+	 */
+	public int size() {
+		return blocks.size();
+	}
+
+	public long getHits() {
+		return hits;
+	}
+
+	public long getMisses() {
+		return misses;
+	}
+
+	public long getEvictions() {
+		return evictions;
+	}
+
+	public long getWriteBacks() {
+		return writeBacks;
+	}
+
+	/**
+	 * Gets the number of cached blocks not yet written into the disk.
+	 * @return number of dirty blocks
+	 */
+	public int getDirtyBlocks() {
+		return dirtyBlocks;
+	}
+
+	public long getFlushInterval() {
+		return flushInterval;
+	}
+
+	public int getDirtyThreshold() {
+		return dirtyThreshold;
+	}
+
+	public long getPrefetchedBlocks() {
+		return prefetchedBlocks;
+	}
+
+	public long getPrefetchHits() {
+		return prefetchHits;
+	}
+
+	public long getBackgroundFlushes() {
+		return backgroundFlushes;
+	}
+
+}
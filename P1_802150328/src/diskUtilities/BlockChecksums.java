@@ -0,0 +1,240 @@
+package diskUtilities;
+
+import diskUnitExceptions.CorruptBlockException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+/**
+ * Table with a checksum of every block of a disk unit. The checksum of a
+ * block is computed when the block is written into the disk file and verified
+ * when it is read back, so a block changed or damaged outside the disk unit
+ * is detected before its content is used. The table is kept in memory while
+ * the disk is mounted and stored in a file next to the disk file
+ * (DiskUnits/name.crc, see TableFile): its header holds the algorithm and
+ * the capacity, followed by 4 bytes per block. A table left behind by a disk
+ * that wasn't unmounted is rebuilt instead of loaded.
+ * CRC32C is used when the Java runtime provides it (Java 9 and later), and
+ * CRC32 otherwise; both are computed with the checksum instructions of the
+ * processor where available, so verifying a block costs much less than reading it.
+ * @author jahdiel
+ *
+ */
+public class BlockChecksums {
+
+	// What is done when a block read doesn't match its checksum. The policy is stored in block 0.
+	public static final int OFF = 0;   // no checksums are kept
+	public static final int WARN = 1;  // the mismatch is reported and the block is used anyway
+	public static final int FAIL = 2;  // the read fails with CorruptBlockException
+
+	private static final int CRC32C_ALGORITHM = 1;
+	private static final int CRC32_ALGORITHM = 2;
+	private static final int REBUILD_BATCH = 256;     // blocks read at once to build the table
+
+	private static final Class<? extends Checksum> ALGORITHM = algorithm();
+
+	private DiskUnit disk;
+	private String name;         // name of the disk unit, for the messages
+	private int policy;          // WARN or FAIL
+	private int[] sums;          // checksum of each block
+	private TableFile file;      // algorithm and capacity, followed by the checksums
+
+	// one instance per thread, as the blocks of the stripes are moved in parallel
+	private ThreadLocal<Checksum> checksum = ThreadLocal.withInitial(BlockChecksums::newChecksum);
+
+	private AtomicLong verified = new AtomicLong();      // blocks verified
+	private AtomicLong verifyNanos = new AtomicLong();   // time spent verifying
+	private AtomicLong updated = new AtomicLong();       // checksums computed for written blocks
+	private AtomicLong updateNanos = new AtomicLong();   // time spent computing them
+	private AtomicLong mismatches = new AtomicLong();    // blocks that didn't match their checksum
+
+	/**
+	 * Opens the checksum table of a disk unit. The table is empty until
+	 * it is loaded or rebuilt.
+	 * @param disk the disk unit
+	 * @param name the name of the disk unit
+	 * @param policy WARN or FAIL
+	 * @throws IOException if the file of the table can't be opened
+	 */
+	BlockChecksums(DiskUnit disk, String name, int policy) throws IOException {
+		this.disk = disk;
+		this.name = name;
+		this.policy = policy;
+		sums = new int[disk.getCapacity()];
+		file = new TableFile(DiskUnit.checksumFile(name), 2, 4, sums.length);
+	}
+
+	/**
+	 * Finds the best checksum algorithm of the Java runtime. CRC32C is looked
+	 * up by name, as it isn't part of the Java 8 library.
+	 */
+	@SuppressWarnings("unchecked")
+	private static Class<? extends Checksum> algorithm() {
+		try {
+			return (Class<? extends Checksum>) Class.forName("java.util.zip.CRC32C");
+		} catch (ClassNotFoundException e) {
+			return CRC32.class;
+		}
+	}
+
+	private static Checksum newChecksum() {
+		try {
+			return ALGORITHM.getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException e) {
+			return new CRC32();
+		}
+	}
+
+	private static int algorithmId() {
+		return ALGORITHM == CRC32.class ? CRC32_ALGORITHM : CRC32C_ALGORITHM;
+	}
+
+	/**
+	 * Gets the name of the checksum algorithm in use.
+	 * @return "CRC32C" or "CRC32"
+	 */
+	public static String getAlgorithm() {
+		return ALGORITHM.getSimpleName();
+	}
+
+	/**
+	 * Computes the checksum of the content of a block.
+	 */
+	private int checksumOf(byte[] data) {
+		Checksum crc = checksum.get();
+		crc.reset();
+		crc.update(data, 0, data.length);
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * Reads the table from its file.
+	 * @return false if the file is missing, incomplete, was built with
+	 *  another algorithm or capacity, or wasn't stored after its last changes;
+	 *  the table must be rebuilt then.
+	 * @throws IOException if the file can't be read
+	 */
+	boolean load() throws IOException {
+		ByteBuffer table = file.load(algorithmId(), sums.length);
+		if (table == null)
+			return false;
+		table.asIntBuffer().get(sums);
+		return true;
+	}
+
+	/**
+	 * Computes the checksum of every block from the content of the disk file,
+	 * and stores the whole table. The blocks of the disk are assumed undamaged,
+	 * and the block cache must hold no dirty blocks.
+	 * @throws IOException if the disk file or the table can't be accessed
+	 */
+	void rebuild() throws IOException {
+		int capacity = sums.length;
+		int blockSize = disk.getBlockSize();
+		byte[][] batch = new byte[Math.min(REBUILD_BATCH, capacity)][blockSize];
+		for (int first=0; first < capacity; first += batch.length) {
+			int count = Math.min(batch.length, capacity - first);
+			int[] blockNums = new int[count];
+			for (int i=0; i < count; i++)
+				blockNums[i] = first + i;
+			disk.readBlocks(blockNums, count == batch.length ? batch : Arrays.copyOf(batch, count));
+			for (int i=0; i < count; i++)
+				sums[first + i] = checksumOf(batch[i]);
+		}
+		file.create(algorithmId(), capacity);
+		file.markDirty(0, capacity - 1);
+		store();
+	}
+
+	/**
+	 * Verifies the content of a block just read from the disk file.
+	 * @param blockNum number of the block
+	 * @param data content of the block
+	 * @throws CorruptBlockException if the content doesn't match the checksum
+	 *  of the block and the policy is FAIL.
+	 */
+	void verify(int blockNum, byte[] data) throws CorruptBlockException {
+		long start = System.nanoTime();
+		int sum = checksumOf(data);
+		verifyNanos.addAndGet(System.nanoTime() - start);
+		verified.incrementAndGet();
+		if (sum == sums[blockNum])
+			return;
+		mismatches.incrementAndGet();
+		String message = "Checksum mismatch in block "+blockNum+" of disk "+name+".";
+		if (policy == FAIL)
+			throw new CorruptBlockException(message);
+		System.err.println(message);
+	}
+
+	/**
+	 * Computes the checksum of a block being written into the disk file.
+	 * @param blockNum number of the block
+	 * @param data new content of the block
+	 */
+	void update(int blockNum, byte[] data) {
+		long start = System.nanoTime();
+		sums[blockNum] = checksumOf(data);
+		updateNanos.addAndGet(System.nanoTime() - start);
+		updated.incrementAndGet();
+		file.markDirty(blockNum, blockNum);
+	}
+
+	/**
+	 * Writes into the file of the table the checksums changed since it was
+	 * last stored.
+	 * @throws IOException if the file can't be written
+	 */
+	void store() throws IOException {
+		file.store((dst, from, to) -> dst.asIntBuffer().put(sums, from, to - from + 1));
+	}
+
+	/**
+	 * Forces the file of the table into the storage device.
+	 * @throws IOException if the file can't be forced
+	 */
+	void force() throws IOException {
+		file.force();
+	}
+
+	/**
+	 * Closes the file of the table. The table must not be used afterwards.
+	 * @throws IOException if the file can't be closed
+	 */
+	void close() throws IOException {
+		file.close();
+	}
+
+	public int getPolicy() {
+		return policy;
+	}
+
+	void setPolicy(int policy) {
+		this.policy = policy;
+	}
+
+	public long getVerified() {
+		return verified.get();
+	}
+
+	public long getVerifyNanos() {
+		return verifyNanos.get();
+	}
+
+	public long getUpdated() {
+		return updated.get();
+	}
+
+	public long getUpdateNanos() {
+		return updateNanos.get();
+	}
+
+	public long getMismatches() {
+		return mismatches.get();
+	}
+
+}
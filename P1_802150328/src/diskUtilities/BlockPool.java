@@ -0,0 +1,119 @@
+package diskUtilities;
+
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Pool of reusable VirtualDiskBlock instances of the block size of a disk unit.
+ * Blocks are taken with acquire() and given back with release() once they
+ * are no longer needed, so commands don't allocate a new block for every
+ * disk block they visit.
+ * When the system property "diskunit.debug" is true, the pool records where
+ * each block was acquired and reports the blocks never released (leaks).
+ * @author jahdiel
+ *
+ */
+public class BlockPool {
+
+	public static final int DEFAULT_MAX_IDLE = 256;  // blocks kept for reuse by default
+
+	private static final boolean DEBUG = Boolean.getBoolean("diskunit.debug");
+
+	private int blockSize;    // size of the blocks in the pool
+	private int maxIdle;      // maximum number of released blocks kept for reuse
+	private ArrayDeque<VirtualDiskBlock> idle;   // released blocks ready for reuse
+	private int inUse;        // number of blocks acquired and not yet released
+	private long allocations; // number of blocks created by the pool
+
+	// where each block in use was acquired (only in debug mode)
+	private IdentityHashMap<VirtualDiskBlock, Throwable> acquiredAt;
+
+	/**
+	 * Creates an empty pool.
+	 * @param blockSize size of the blocks in the pool
+	 * @param maxIdle maximum number of released blocks kept for reuse
+	 */
+	public BlockPool(int blockSize, int maxIdle) {
+		this.blockSize = blockSize;
+		this.maxIdle = maxIdle;
+		idle = new ArrayDeque<>();
+		if (DEBUG)
+			acquiredAt = new IdentityHashMap<>();
+	}
+
+	/**
+	 * Takes a block from the pool; a new one is created if the pool is empty.
+	 * Every byte of the block returned is zero.
+	 * @return block of blockSize bytes
+	 */
+	public synchronized VirtualDiskBlock acquire() {
+		VirtualDiskBlock vdb = idle.poll();
+		if (vdb == null) {
+			vdb = new VirtualDiskBlock(blockSize);
+			allocations++;
+		} else {
+			vdb.clear();
+		}
+		inUse++;
+		if (DEBUG)
+			acquiredAt.put(vdb, new Throwable("Block acquired here"));
+		return vdb;
+	}
+
+	/**
+	 * Gives a block back to the pool. The block must not be used afterwards.
+	 * @param vdb block previously returned by acquire()
+	 */
+	public synchronized void release(VirtualDiskBlock vdb) {
+		if (vdb == null || vdb.getCapacity() != blockSize)
+			return;
+		if (DEBUG && acquiredAt.remove(vdb) == null) {
+			new Throwable("Block released twice or not acquired from this pool").printStackTrace();
+			return;
+		}
+		inUse--;
+		if (idle.size() < maxIdle)
+			idle.push(vdb);
+	}
+
+	/**
+	 * Gives back to the pool every block in the list.
+	 * @param blocks blocks previously returned by acquire()
+	 */
+	public void releaseAll(Iterable<VirtualDiskBlock> blocks) {
+		for (VirtualDiskBlock vdb : blocks)
+			release(vdb);
+	}
+
+	/**
+	 * Reports the blocks acquired and not released. In debug mode, the place
+	 * where each of them was acquired is printed.
+	 * @return number of blocks not released
+	 */
+	public synchronized int checkLeaks() {
+		if (DEBUG && !acquiredAt.isEmpty()) {
+			System.err.println(acquiredAt.size()+" block(s) were not released to the pool:");
+			for (Map.Entry<VirtualDiskBlock, Throwable> e : acquiredAt.entrySet())
+				e.getValue().printStackTrace();
+		}
+		return inUse;
+	}
+
+	/**
+	 * Gets the number of blocks acquired and not yet released.
+	 * @return number of blocks in use
+	 */
+	public synchronized int getInUse() {
+		return inUse;
+	}
+
+	/**
+	 * Gets the number of blocks created by the pool since it was created.
+	 * @return number of blocks allocated
+	 */
+	public synchronized long getAllocations() {
+		return allocations;
+	}
+
+}
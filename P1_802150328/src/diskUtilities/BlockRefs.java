@@ -0,0 +1,364 @@
+package diskUtilities;
+
+import diskUnitExceptions.CorruptBlockException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * Reference counts of the blocks of a disk unit, for blocks shared by several
+ * files. As each block of a file holds the number of the next one, a block can
+ * only be shared together with the rest of its chain: the files sharing it
+ * have the same content from that block to their end. A block is referenced by
+ * the i-node of a file (the first block) or by the blocks before it in the
+ * chains it belongs to; it is freed when its last reference goes away.
+ * A count of 0 or 1 means a single reference, so blocks written before the
+ * table existed need no entry.
+ * With deduplication, the content of each block written is hashed and kept in
+ * an index, so a new block identical to one already stored (number of the next
+ * block included) is replaced by a reference to it.
+ * The table is kept in memory while the disk is mounted and stored in a file
+ * next to the disk file (DiskUnits/name.refs, see TableFile): its header
+ * holds the capacity, followed by the count (4 bytes) and the hash (8 bytes)
+ * of each block. The references of a disk that wasn't unmounted are counted
+ * again instead of loaded.
+ * @author jahdiel
+ *
+ */
+public class BlockRefs {
+
+	// How the blocks of the files are shared. The mode is stored in block 0.
+	public static final int NONE = 0;     // no table; every block belongs to a single file
+	public static final int COUNTED = 1;  // reference counts are kept for the blocks already shared
+	public static final int DEDUP = 2;    // new blocks identical to stored ones are shared too
+
+	private static final int ENTRY_SIZE = 12;   // count and hash of a block
+
+	private DiskUnit disk;
+	private int mode;             // COUNTED or DEDUP
+	private int[] counts;         // references to each block
+	private long[] hashes;        // hash of the content of each indexed block; 0 if not indexed
+	private HashMap<Long, Integer> index = new HashMap<>();  // hash of the content -> block number
+	private TableFile file;        // capacity, followed by the entries
+
+	private long sharedWrites;    // blocks not written because an identical one was stored
+	private long newBlocks;       // blocks written through the table
+
+	/**
+	 * Opens the reference count table of a disk unit. The table is empty
+	 * until it is loaded, reset or counted.
+	 * @param disk the disk unit
+	 * @param name the name of the disk unit
+	 * @param mode COUNTED or DEDUP
+	 * @throws IOException if the file of the table can't be opened
+	 */
+	BlockRefs(DiskUnit disk, String name, int mode) throws IOException {
+		this.disk = disk;
+		this.mode = mode;
+		counts = new int[disk.getCapacity()];
+		hashes = new long[disk.getCapacity()];
+		file = new TableFile(DiskUnit.refsFile(name), 1, ENTRY_SIZE, counts.length);
+	}
+
+	/**
+	 * Copies the content of a block into a new array.
+	 */
+	private static byte[] contentOf(VirtualDiskBlock vdb) {
+		byte[] data = new byte[vdb.getCapacity()];
+		vdb.get(0, data, 0, data.length);
+		return data;
+	}
+
+	/**
+	 * Computes the hash of the content of a block (64-bit FNV-1a).
+	 * @param data content of the block
+	 * @return hash of the content, never 0.
+	 */
+	static long hash(byte[] data) {
+		long h = 0xcbf29ce484222325L;
+		for (byte b : data) {
+			h ^= (b & 0xFF);
+			h *= 0x100000001b3L;
+		}
+		return h == 0 ? 1 : h;
+	}
+
+	/**
+	 * Reads the table from its file.
+	 * @return false if the file is missing, incomplete, of another capacity,
+	 *  or wasn't stored after its last changes; the references must be 
+	 *  counted again then.
+	 * @throws IOException if the file can't be read
+	 */
+	boolean load() throws IOException {
+		ByteBuffer table = file.load(counts.length);
+		if (table == null)
+			return false;
+		for (int b=0; b < counts.length; b++) {
+			counts[b] = table.getInt();
+			hashes[b] = table.getLong();
+			if (hashes[b] != 0)
+				index.put(hashes[b], b);
+		}
+		return true;
+	}
+
+	/**
+	 * Counts again the references to every block, following the chains of
+	 * the directories and files from the root directory (i-node 0). With
+	 * deduplication, the blocks of the data files are indexed too, so new
+	 * files can share them. Every block of the disk is read once at most.
+	 * The references are counted apart and the whole table is stored, so
+	 * a block that can't be read leaves the table as it was.
+	 * @throws IOException if the file of the table can't be written
+	 * @throws CorruptBlockException if a block doesn't match its checksum
+	 *  and the checksum policy is FAIL.
+	 */
+	void recount() throws IOException, CorruptBlockException {
+		int[] oldCounts = counts;
+		long[] oldHashes = hashes;
+		HashMap<Long, Integer> oldIndex = index;
+		counts = new int[oldCounts.length];
+		hashes = new long[oldHashes.length];
+		index = new HashMap<>();
+		try {
+			ArrayList<Integer> directories = new ArrayList<>();
+			ArrayList<Integer> files = new ArrayList<>();
+			findFiles(0, new HashSet<Integer>(), directories, files);
+			for (int firstBlock : directories)
+				countChain(firstBlock, false);
+			for (int firstBlock : files)
+				countChain(firstBlock, true);
+		} catch (RuntimeException e) {
+			counts = oldCounts;
+			hashes = oldHashes;
+			index = oldIndex;
+			throw e;
+		}
+		file.create(counts.length);
+		file.markDirty(0, counts.length - 1);
+		store();
+	}
+
+	/**
+	 * Finds the first blocks of a directory and of the files and directories
+	 * inside it. The files whose blocks aren't linked are left out.
+	 * @param iNodeRef i-node of the directory
+	 * @param visited i-nodes of the directories already walked
+	 * @param directories receives the first block of each directory
+	 * @param files receives the first block of each file
+	 */
+	private void findFiles(int iNodeRef, HashSet<Integer> visited, ArrayList<Integer> directories, ArrayList<Integer> files) {
+		if (!visited.add(iNodeRef))
+			return;
+		int firstBlock = INodeManager.getDataBlockFromINode(disk, iNodeRef);
+		directories.add(firstBlock);
+		int filesPerBlock = (disk.getBlockSize() - 4) / 24;
+		for (int blockNum : FileManager.allFileBlockNums(disk, firstBlock)) {
+			VirtualDiskBlock vdb = DiskUtils.copyBlockToVDB(disk, blockNum);
+			for (int i=1; i <= filesPerBlock; i++) {
+				int fileINode = DiskUtils.getIntFromBlock(vdb, (i*24)-4); // i-node index inside the directory, after the filename
+				if (fileINode == 0)
+					break;
+				if (fileINode < 0 || fileINode >= disk.getiNodeNum())
+					continue;
+				byte type = INodeManager.getTypeFromINode(disk, fileINode);
+				if (type == INodeManager.DIRECTORY)
+					findFiles(fileINode, visited, directories, files);
+				else if (type == INodeManager.EXTENT_FILE || type == INodeManager.INDEXED_FILE)
+					continue;   // its blocks are never shared, and hold no chain
+				else if (INodeManager.getDataBlockFromINode(disk, fileINode) != 0)
+					files.add(INodeManager.getDataBlockFromINode(disk, fileINode));
+			}
+			disk.getBlockPool().release(vdb);
+		}
+	}
+
+	/**
+	 * Counts a reference to the first block of a chain, and the references
+	 * between the blocks of the chain that weren't counted before.
+	 * @param blockNum first block of the chain
+	 * @param indexed true to index the content of the blocks
+	 */
+	private void countChain(int blockNum, boolean indexed) {
+		VirtualDiskBlock vdb = disk.getBlockPool().acquire();
+		while (blockNum > 0 && blockNum < counts.length) {
+			boolean counted = (counts[blockNum] > 0);
+			counts[blockNum]++;
+			if (counted)
+				break;   // the rest of the chain is shared with a chain already counted
+			disk.read(blockNum, vdb);
+			if (indexed && mode == DEDUP) {
+				hashes[blockNum] = hash(contentOf(vdb));
+				index.put(hashes[blockNum], blockNum);
+			}
+			blockNum = DiskUtils.getIntFromBlock(vdb, disk.getBlockSize()-4);
+		}
+		disk.getBlockPool().release(vdb);
+	}
+
+	/**
+	 * Looks for a stored block with the given content. Only used with deduplication.
+	 * @param block content of a block, number of the next block included
+	 * @return number of the block with the same content, or 0 if there is none.
+	 */
+	int find(VirtualDiskBlock block) {
+		if (mode != DEDUP)
+			return 0;
+		byte[] data = contentOf(block);
+		Integer candidate = index.get(hash(data));
+		if (candidate == null)
+			return 0;
+		VirtualDiskBlock vdb = disk.getBlockPool().acquire();
+		disk.read(candidate, vdb);
+		boolean same = Arrays.equals(contentOf(vdb), data);  // the hashes of different blocks may be equal
+		disk.getBlockPool().release(vdb);
+		return same ? candidate : 0;
+	}
+
+	/**
+	 * Records a block just taken from the free blocks to store new content,
+	 * with a single reference.
+	 * @param blockNum number of the block
+	 * @param block content of the block, number of the next block included
+	 */
+	void register(int blockNum, VirtualDiskBlock block) {
+		counts[blockNum] = 1;
+		if (mode == DEDUP) {
+			hashes[blockNum] = hash(contentOf(block));
+			index.put(hashes[blockNum], blockNum);
+		}
+		newBlocks++;
+		file.markDirty(blockNum, blockNum);
+	}
+
+	/**
+	 * Adds a reference to a block.
+	 * @param blockNum number of the block
+	 */
+	void retain(int blockNum) {
+		counts[blockNum] = Math.max(counts[blockNum], 1) + 1;
+		file.markDirty(blockNum, blockNum);
+	}
+
+	/**
+	 * Removes a reference to a block.
+	 * @param blockNum number of the block
+	 * @return true if it was the last reference, so the block must be freed.
+	 */
+	boolean release(int blockNum) {
+		file.markDirty(blockNum, blockNum);
+		if (counts[blockNum] > 1) {
+			counts[blockNum]--;
+			return false;
+		}
+		counts[blockNum] = 0;
+		if (hashes[blockNum] != 0) {
+			index.remove(hashes[blockNum], blockNum);
+			hashes[blockNum] = 0;
+		}
+		return true;
+	}
+
+	/**
+	 * Counts blocks that didn't need to be written, as identical ones were stored.
+	 * @param blocks number of blocks shared
+	 */
+	void countSharedWrites(int blocks) {
+		sharedWrites += blocks;
+	}
+
+	/**
+	 * Writes into the file of the table the entries changed since it was
+	 * last stored.
+	 * @throws IOException if the file can't be written
+	 */
+	void store() throws IOException {
+		file.store((dst, from, to) -> {
+			for (int b=from; b <= to; b++)
+				dst.putInt(counts[b]).putLong(hashes[b]);
+		});
+	}
+
+	/**
+	 * Forces the file of the table into the storage device.
+	 * @throws IOException if the file can't be forced
+	 */
+	void force() throws IOException {
+		file.force();
+	}
+
+	/**
+	 * Closes the file of the table. The table must not be used afterwards.
+	 * @throws IOException if the file can't be closed
+	 */
+	void close() throws IOException {
+		file.close();
+	}
+
+	public int getMode() {
+		return mode;
+	}
+
+	void setMode(int mode) {
+		this.mode = mode;
+	}
+
+	/**
+	 * Gets the number of references to a block.
+	 * @param blockNum number of the block
+	 * @return references; 1 for the blocks without an entry
+	 */
+	public int getRefs(int blockNum) {
+		return Math.max(counts[blockNum], 1);
+	}
+
+	/**
+	 * Gets the number of blocks referenced more than once: the first block
+	 * of each chain shared by several files.
+	 * @return blocks shared
+	 */
+	public int getSharedBlocks() {
+		int shared = 0;
+		for (int count : counts)
+			if (count > 1)
+				shared++;
+		return shared;
+	}
+
+	/**
+	 * Counts the blocks that the files would use in addition if no block was 
+	 * shared. Only the first block of a shared chain is referenced more than 
+	 * once, so the chains of every file are walked.
+	 * @return blocks saved by sharing
+	 */
+	public long countSavedBlocks() {
+		ArrayList<Integer> files = new ArrayList<>();
+		findFiles(0, new HashSet<Integer>(), new ArrayList<Integer>(), files);
+		long fileBlocks = 0;
+		HashSet<Integer> used = new HashSet<>();
+		for (int firstBlock : files) {
+			ArrayList<Integer> blockNums = FileManager.allFileBlockNums(disk, firstBlock);
+			fileBlocks += blockNums.size();
+			used.addAll(blockNums);
+		}
+		return fileBlocks - used.size();
+	}
+
+	public int getIndexedBlocks() {
+		return index.size();
+	}
+
+	public long getSharedWrites() {
+		return sharedWrites;
+	}
+
+	public long getNewBlocks() {
+		return newBlocks;
+	}
+
+}
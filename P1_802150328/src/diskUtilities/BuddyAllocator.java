@@ -0,0 +1,181 @@
+package diskUtilities;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Buddy system over the blocks of a disk unit, used by the FreeBlockMap of the
+ * disks created with FreeBlockManager.BUDDY. The capacity of a disk is a power
+ * of two, so the whole disk is a run of order log2(capacity), and a run of
+ * order k (2^k blocks starting at a multiple of 2^k) splits in two runs of
+ * order k-1, its buddies. The free blocks are kept as the largest such runs
+ * they fill: a file is given a single run of contiguous blocks whenever a
+ * free run is large enough, the part of it the file doesn't need being freed
+ * again, and a freed block is merged with its buddy while the buddy is free.
+ * The runs are built from the free blocks of the FreeBlockMap, so nothing
+ * about them is stored in the disk.
+ * @author jahdiel
+ *
+ */
+public class BuddyAllocator {
+
+	private int maxOrder;       // order of the run holding the whole disk
+	private BitSet[] heads;     // bit i of heads[k] set if blocks i*2^k to (i+1)*2^k - 1 are a free run
+	private int[] counts;       // free runs of each order
+	private int[] searchFrom;   // no free run of each order starts below it (bit of heads[k])
+
+	private long splits;        // runs split in two
+	private long merges;        // runs merged with their buddy
+
+	/**
+	 * Builds the free runs of a disk unit from its free blocks.
+	 * @param capacity blocks of the disk, a power of two
+	 * @param free bit b set if block b is free
+	 */
+	BuddyAllocator(int capacity, BitSet free) {
+		maxOrder = Integer.numberOfTrailingZeros(capacity);
+		heads = new BitSet[maxOrder + 1];
+		counts = new int[maxOrder + 1];
+		searchFrom = new int[maxOrder + 1];
+		for (int k=0; k <= maxOrder; k++)
+			heads[k] = new BitSet(capacity >> k);
+		// Each free block starts the largest run that fits in the free blocks from it on
+		int bn = free.nextSetBit(0);
+		while (bn >= 0 && bn < capacity) {
+			int end = Math.min(free.nextClearBit(bn), capacity);
+			while (bn < end) {
+				int order = Math.min(alignment(bn), floorLog2(end - bn));
+				addRun(bn >> order, order);
+				bn += 1 << order;
+			}
+			bn = (end < capacity ? free.nextSetBit(end) : -1);
+		}
+	}
+
+	/**
+	 * Takes free blocks, as few runs as possible. The smallest free run
+	 * of 2^k blocks or more, for the least k, is taken and split as needed,
+	 * and the blocks it has beyond count are freed again. If no run is that
+	 * large, the largest runs are taken, one at a time, until there are
+	 * enough blocks; runs taken next to each other are then read in sequence,
+	 * as the blocks are given in increasing order. The caller makes sure count 
+	 * blocks are free.
+	 * @param count number of blocks needed
+	 * @return numbers of the blocks taken, in increasing order
+	 */
+	int[] allocate(int count) {
+		int[] blockNums = new int[count];
+		int taken = 0;
+		int runs = 0;
+		for (; taken < count; runs++) {
+			int order = ceilLog2(count - taken);
+			int from = order;
+			while (from <= maxOrder && counts[from] == 0)
+				from++;
+			if (from > maxOrder) {   // no run is large enough, so the largest one is taken
+				from = order - 1;
+				while (counts[from] == 0)
+					from--;
+				order = from;
+			}
+			int index = takeRun(from);
+			for (; from > order; from--) {   // keep the lower half, free the upper one
+				index <<= 1;
+				addRun(index + 1, from - 1);
+				splits++;
+			}
+			int start = index << order;
+			int end = start + (1 << order);
+			int length = Math.min(1 << order, count - taken);
+			for (int i=0; i < length; i++)
+				blockNums[taken++] = start + i;
+			for (int bn = start + length; bn < end; ) {   // the blocks not needed
+				int tailOrder = Math.min(alignment(bn), floorLog2(end - bn));
+				freeRun(bn >> tailOrder, tailOrder);
+				bn += 1 << tailOrder;
+			}
+		}
+		if (runs > 1)
+			Arrays.sort(blockNums);
+		return blockNums;
+	}
+
+	/**
+	 * Frees a block, merging it with its buddies while they are free.
+	 * @param bn number of the block
+	 */
+	void release(int bn) {
+		freeRun(bn, 0);
+	}
+
+	/**
+	 * Frees a run, merged with its buddy while the buddy is free.
+	 * @param index position of the run among those of its order
+	 * @param order order of the run
+	 */
+	private void freeRun(int index, int order) {
+		while (order < maxOrder && heads[order].get(index ^ 1)) {
+			heads[order].clear(index ^ 1);
+			counts[order]--;
+			index >>= 1;
+			order++;
+			merges++;
+		}
+		addRun(index, order);
+	}
+
+	private void addRun(int index, int order) {
+		heads[order].set(index);
+		counts[order]++;
+		searchFrom[order] = Math.min(searchFrom[order], index);
+	}
+
+	/**
+	 * Takes the lowest free run of an order; there must be one.
+	 * @return position of the run among those of its order
+	 */
+	private int takeRun(int order) {
+		int index = heads[order].nextSetBit(searchFrom[order]);
+		heads[order].clear(index);
+		counts[order]--;
+		searchFrom[order] = index + 1;
+		return index;
+	}
+
+	/**
+	 * Gets the largest order of the runs that may start at a block.
+	 */
+	private int alignment(int bn) {
+		return (bn == 0 ? maxOrder : Math.min(maxOrder, Integer.numberOfTrailingZeros(bn)));
+	}
+
+	private static int floorLog2(int n) {
+		return 31 - Integer.numberOfLeadingZeros(n);
+	}
+
+	private static int ceilLog2(int n) {
+		return (n <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(n - 1));
+	}
+
+	/**
+	 * Gets the number of free runs of an order.
+	 * @param order order of the runs, from 0 to getMaxOrder()
+	 * @return free runs of 2^order blocks
+	 */
+	public int getFreeRuns(int order) {
+		return counts[order];
+	}
+
+	public int getMaxOrder() {
+		return maxOrder;
+	}
+
+	public long getSplits() {
+		return splits;
+	}
+
+	public long getMerges() {
+		return merges;
+	}
+
+}
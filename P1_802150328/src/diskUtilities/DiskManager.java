@@ -8,6 +8,7 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
 
+import diskUnitExceptions.CorruptBlockException;
 import diskUnitExceptions.ExistingDiskException;
 import diskUnitExceptions.FullDiskException;
 import diskUnitExceptions.InvalidParameterException;
@@ -19,8 +20,6 @@ public class DiskManager {
 	 * @author Jahdiel Alvarez
 	 */
 	
-	public static final int I_NODE_SIZE = 9; // Bytes per i-node
-	
 	public static ArrayList<String> diskUnitNames = new ArrayList<>(); // Stores in memory the name of the disk units created.
 	public static String mountedDiskName = null;   // Name of the DiskUnit which is mounted.
 	public static DiskUnit mountedDiskUnit = null; // DiskUnit instance object of the mounted disk.
@@ -35,17 +34,84 @@ public class DiskManager {
 	 */
 	public static void createDiskUnit(String name, int capacity, int blockSize) 
 			throws ExistingDiskException, InvalidParameterException {
+		createDiskUnit(name, capacity, blockSize, 1);
+	}
+	/**
+	 * Creates a new disk unit whose blocks are striped over several files:
+	 * block b is kept in the file of stripe b % stripes.
+	 * It also separates disks blocks for the i-nodes.
+	 * @param name Name of the disk unit.
+	 * @param capacity amount of disk blocks in the disk unit
+	 * @param blockSize bytes per each disk block
+	 * @param stripes number of files holding the blocks (1 to DiskUnit.MAX_STRIPES)
+	 */
+	public static void createDiskUnit(String name, int capacity, int blockSize, int stripes) 
+			throws ExistingDiskException, InvalidParameterException {
+		createDiskUnit(name, capacity, blockSize, stripes, false);
+	}
+	/**
+	 * Creates a new disk unit which may be thin provisioned: its i-node table
+	 * and free blocks are not written, so it takes almost no space on the host
+	 * until its blocks are used.
+	 * @param name Name of the disk unit.
+	 * @param capacity amount of disk blocks in the disk unit
+	 * @param blockSize bytes per each disk block
+	 * @param stripes number of files holding the blocks (1 to DiskUnit.MAX_STRIPES)
+	 * @param thin true if the disk is thin provisioned
+	 */
+	public static void createDiskUnit(String name, int capacity, int blockSize, int stripes, boolean thin) 
+			throws ExistingDiskException, InvalidParameterException {
+		createDiskUnit(name, capacity, blockSize, stripes, thin, INodeManager.CHAINED_FORMAT);
+	}
+	/**
+	 * Creates a new disk unit with the given format of i-nodes. The data files
+	 * of a disk with indexed i-nodes are reached from direct and indirect 
+	 * pointers in their i-node instead of linking their blocks.
+	 * @param name Name of the disk unit.
+	 * @param capacity amount of disk blocks in the disk unit
+	 * @param blockSize bytes per each disk block
+	 * @param stripes number of files holding the blocks (1 to DiskUnit.MAX_STRIPES)
+	 * @param thin true if the disk is thin provisioned
+	 * @param iNodeFormat INodeManager.CHAINED_FORMAT or INodeManager.INDEXED_FORMAT
+	 */
+	public static void createDiskUnit(String name, int capacity, int blockSize, int stripes, boolean thin, int iNodeFormat) 
+			throws ExistingDiskException, InvalidParameterException {
+		createDiskUnit(name, capacity, blockSize, stripes, thin, iNodeFormat, FreeBlockManager.FIRST_FIT);
+	}
+	/**
+	 * Creates a new disk unit with the given allocator of its free blocks. 
+	 * The buddy allocator gives the blocks of a file in runs of contiguous 
+	 * blocks whenever it can, so large files are read in sequence.
+	 * @param name Name of the disk unit.
+	 * @param capacity amount of disk blocks in the disk unit
+	 * @param blockSize bytes per each disk block
+	 * @param stripes number of files holding the blocks (1 to DiskUnit.MAX_STRIPES)
+	 * @param thin true if the disk is thin provisioned
+	 * @param iNodeFormat INodeManager.CHAINED_FORMAT or INodeManager.INDEXED_FORMAT
+	 * @param allocator FreeBlockManager.FIRST_FIT or FreeBlockManager.BUDDY
+	 */
+	public static void createDiskUnit(String name, int capacity, int blockSize, int stripes, boolean thin, int iNodeFormat, 
+			int allocator) throws ExistingDiskException, InvalidParameterException {
 		
 		//TODO: create DiskNames text file if doesn't exist
 		
 		// Verifying DiskUnit folder exists and add Unit to DiskNames text file
 		DirectoryManager.createDiskDirectory();	
 		try {
-			DiskUnit.createDiskUnit(name, capacity, blockSize);
+			DiskUnit.createDiskUnit(name, capacity, blockSize, stripes, thin, iNodeFormat, allocator);
 			DirectoryManager.addUnitToDiskNames(name);
 		} catch (ExistingDiskException e) {
 			throw new ExistingDiskException();
 		}
+		initializeFileSystem(name, blockSize);
+	}
+	/**
+	 * Creates the root directory and the free block structure of a disk unit
+	 * whose control data and i-nodes were just written.
+	 * @param name Name of the disk unit.
+	 * @param blockSize bytes per each disk block
+	 */
+	private static void initializeFileSystem(String name, int blockSize) {
 		// Mount the disk unit in order to create its root directory.
 		DiskUnit d = DiskUnit.mount(name);
 		
@@ -57,6 +123,44 @@ public class DiskManager {
 		
 		d.shutdown(); // Shutdown the disk
 	}
+	/**
+	 * Erases the content of a disk unit: every block is filled with zeroes and
+	 * the disk is left with an empty root directory, as when it was created.
+	 * The progress and the throughput of the format are shown while it runs.
+	 * @param name Name of the disk unit to format.
+	 */
+	public static void formatDisk(String name) {
+		if (name.equals(mountedDiskName)) {
+			System.out.println("Cannot format a mounted disk. Unmount DiskUnit "+name+" first.");
+			return;
+		}
+		if (DiskSnapshot.readName(name) != null) {
+			System.out.println("Cannot format "+name+" while it has snapshot "+DiskSnapshot.readName(name)+". Roll it back or delete it first.");
+			return;
+		}
+		FormatListener progressPrinter = new FormatListener() {
+			private int lastPercent = -1;
+			public void formatProgress(long bytesFormatted, long totalBytes, long elapsedNanos) {
+				int percent = (int) (totalBytes == 0 ? 100 : 100 * bytesFormatted / totalBytes);
+				if (percent / 10 == lastPercent / 10 && percent != 100)
+					return;   // show the progress every 10%
+				lastPercent = percent;
+				double seconds = Math.max(elapsedNanos, 1) / 1e9;
+				System.out.printf("Formatting %s: %3d%%  %.1f MB in %.3f s (%.1f MB/s)\n", name, percent,
+						bytesFormatted / 1048576.0, seconds, bytesFormatted / 1048576.0 / seconds);
+			}
+		};
+		try {
+			DiskUnit.formatDiskUnit(name, progressPrinter);
+			DiskUnit d = DiskUnit.mount(name);
+			int blockSize = d.getBlockSize();
+			d.shutdown();
+			initializeFileSystem(name, blockSize);
+			System.out.println(name+" has been formatted.");
+		} catch (NonExistingDiskException e) {
+			System.out.println(e.getMessage());
+		}
+	}
 	/**
 	 * Initializes the free block structure. In the beginning all data blocks
 	 * are part of the structure.
@@ -74,21 +178,15 @@ public class DiskManager {
 	 */
 	private static void setRootDirectory(DiskUnit d, int blockSize) {
 		// Set the root directory
-		VirtualDiskBlock root = new VirtualDiskBlock(blockSize);
+		VirtualDiskBlock root = d.getBlockPool().acquire();
 		int rootDataBlock = d.getFirstDataBlock()-1; // index of the root block number
 		DiskUtils.copyIntToBlock(root, blockSize-4, 0);
 		d.write(rootDataBlock, root);
+		d.getBlockPool().release(root);
 
-		// Set i-node 0 to reference root
-		int rootINodePos = 1;   // Index of the root directory i-node 
-		// Copy the first i-node block into the Virtual Disk Block
-		VirtualDiskBlock firstBlockRef = DiskUtils.copyBlockToVDB(d, rootINodePos);  
-		// Write in the i-node 0 the reference to the root directory in the data blocks
-		// and set i-node type to directory
-		DiskUtils.copyIntToBlock(firstBlockRef, 0, rootDataBlock);
-		firstBlockRef.setElement(I_NODE_SIZE-1, (byte) 1);
-		// Write into the disk the virtual disk block with updated reference to the root directory data block
-		d.write(rootINodePos, firstBlockRef);
+		// Set i-node 0 to reference root, as a directory, in the i-node format of the disk
+		INodeManager.setDataBlockToINode(d, 0, rootDataBlock);
+		INodeManager.setTypeIntoINode(d, 0, INodeManager.DIRECTORY);
 	}
 	
 	/**
@@ -104,6 +202,13 @@ public class DiskManager {
 		}
 		System.out.println(name+" has been removed.");
 		unitToDelete.delete();
+		for (int i=1; DiskUnit.stripeFile(name, i).exists(); i++)
+			DiskUnit.stripeFile(name, i).delete();
+		DiskUnit.checksumFile(name).delete();
+		DiskUnit.refsFile(name).delete();
+		DiskUnit.snapshotFile(name).delete();
+		new File(DiskUnit.checksumFile(name).getPath() + ".snap").delete();
+		new File(DiskUnit.refsFile(name).getPath() + ".snap").delete();
 		DirectoryManager.removeUnitFromDiskNames(name);
 		
 	}
@@ -131,6 +236,21 @@ public class DiskManager {
 				System.out.printf("%-22s%-22d%-22d%-22s\n",s,capacity,blockSize,"yes");
 			else
 				System.out.printf("%-22s%-22d%-22d\n",s,capacity,blockSize);
+			if (d.getStripes() > 1) {
+				StringBuilder layout = new StringBuilder("  striped over "+d.getStripes()+" files: "+s);
+				for (int i=1; i < d.getStripes(); i++)
+					layout.append(", "+DiskUnit.stripeFile(s, i).getName());
+				System.out.println(layout);
+			}
+			if (d.isThin())
+				System.out.println("  thin provisioned, "+(capacity - d.getFirstUnusedBlock())+" blocks never used");
+			if (d.getINodeFormat() == INodeManager.INDEXED_FORMAT)
+				System.out.println("  indexed i-nodes, files of up to "+IndexedFileManager.getMaxBlocks(d)+" blocks");
+			if (d.getAllocator() == FreeBlockManager.BUDDY)
+				System.out.println("  buddy allocator");
+			if (DiskSnapshot.readName(s) != null)
+				System.out.println("  snapshot "+DiskSnapshot.readName(s)+(mountedDiskName != null && 
+						mountedDiskName.equals(DiskSnapshot.readName(s)) ? " (mounted read-only)" : ""));
 			
 			d.shutdown();
 		}
@@ -146,18 +266,73 @@ public class DiskManager {
 	 * @param name Name of the disk unit to mount.
 	 */
 	public static void mountDisk(String name) {
+		mountDisk(name, DiskUnit.DEFAULT_IO);
+	}
+	/**
+	 * Mounts the specified disk unit using the I/O mode given by its name:
+	 * "channel" to move each block in a single FileChannel call (the default), 
+	 * "raf" to move the blocks byte by byte through the RandomAccessFile, or 
+	 * "mmap" to map the disk file into memory.
+	 * @param name Name of the disk unit to mount.
+	 * @param mode Name of the I/O mode.
+	 */
+	public static void mountDisk(String name, String mode) {
+		if (mode.equals("channel"))
+			mountDisk(name, DiskUnit.CHANNEL_IO);
+		else if (mode.equals("raf"))
+			mountDisk(name, DiskUnit.RAF_IO);
+		else if (mode.equals("mmap"))
+			mountDisk(name, DiskUnit.MMAP_IO);
+		else
+			System.out.println("Invalid I/O mode: "+mode+". Valid modes are channel, raf and mmap.");
+	}
+	/**
+	 * Mounts the specified disk unit using the given I/O mode.
+	 * @param name Name of the disk unit to mount.
+	 * @param ioMode DiskUnit I/O mode (RAF_IO, MMAP_IO or CHANNEL_IO)
+	 */
+	public static void mountDisk(String name, int ioMode) {
+		mountDisk(name, ioMode, DiskUnit.STORED_DURABILITY);
+	}
+	/**
+	 * Mounts the specified disk unit with the durability policy given by its name,
+	 * which is stored in the disk for the next mounts too (see durabilityOf).
+	 * @param name Name of the disk unit to mount.
+	 * @param policy Name of the durability policy.
+	 */
+	public static void mountDiskDurable(String name, String policy) {
+		int durability = durabilityOf(policy);
+		if (durability == DiskUnit.STORED_DURABILITY)
+			System.out.println("Invalid durability policy: "+policy+". Valid policies are none, unmount, command and write.");
+		else
+			mountDisk(name, DiskUnit.DEFAULT_IO, durability);
+	}
+	/**
+	 * Mounts the specified disk unit using the given I/O mode and durability policy.
+	 * @param name Name of the disk unit to mount.
+	 * @param ioMode DiskUnit I/O mode (RAF_IO, MMAP_IO or CHANNEL_IO)
+	 * @param durability DiskUnit durability policy, or DiskUnit.STORED_DURABILITY
+	 */
+	public static void mountDisk(String name, int ioMode, int durability) {
 		
 		if (mountedDiskName != null) {
 			System.out.println("There is already a mounted disk. Unmount DiskUnit "+mountedDiskName+" first.");
 			return;
 		}
 		try {
-			DiskUnit d = DiskUnit.mount(name);
+			DiskUnit d = DiskUnit.mount(name, ioMode, durability);
 			mountedDiskName = name;
 			mountedDiskUnit = d;
 			System.out.println(name+" mounted successfully.");
 		} catch (NonExistingDiskException e) {
-			System.out.println(e.getMessage());
+			String diskName = snapshotDisk(name);
+			if (diskName == null) {
+				System.out.println(e.getMessage());
+				return;
+			}
+			mountedDiskUnit = DiskUnit.mountSnapshot(diskName, ioMode);
+			mountedDiskName = name;
+			System.out.println(name+" (snapshot of "+diskName+") mounted read-only.");
 		}
 		
 	}
@@ -176,10 +351,143 @@ public class DiskManager {
 		}
 		System.out.println(mountedDiskName+" unmounted successfully.");
 		mountedDiskUnit.shutdown();
+		if (mountedDiskUnit.getForceCount() > 0)
+			System.out.printf("Disk file forced %d times in %.3f ms (%s durability).\n", mountedDiskUnit.getForceCount(),
+					mountedDiskUnit.getForceNanos() / 1e6, durabilityName(mountedDiskUnit.getDurability()));
 		mountedDiskName = null;
 		mountedDiskUnit = null;
 
 	}
+	/**
+	 * Finds the disk unit that has a snapshot with the given name.
+	 * @param snapshotName Name of the snapshot.
+	 * @return Name of the disk unit, or null if no disk has such snapshot.
+	 */
+	private static String snapshotDisk(String snapshotName) {
+		for (String diskName : diskUnitNames)
+			if (snapshotName.equals(DiskSnapshot.readName(diskName)))
+				return diskName;
+		return null;
+	}
+	/**
+	 * Determines if a disk unit, or its snapshot, is mounted.
+	 * @param name Name of the disk unit.
+	 * @return Returns true if the disk or its snapshot is the mounted disk.
+	 */
+	private static boolean isMounted(String name) {
+		return isDiskMounted() && mountedDiskUnit.getName().equals(name);
+	}
+	/**
+	 * Takes a snapshot of a disk unit, which can be mounted read-only by its 
+	 * name, and to which the disk can be rolled back. Taking it costs about
+	 * as much as writing the control data of the disk, not its blocks. The
+	 * disk may be mounted.
+	 * @param name Name of the disk unit.
+	 * @param snapshotName Name of the snapshot.
+	 */
+	public static void createSnapshot(String name, String snapshotName) {
+		if (!diskUnitNames.contains(name)) {
+			System.out.println(name+" does not exist.");
+			return;
+		}
+		if (diskUnitNames.contains(snapshotName) || snapshotDisk(snapshotName) != null) {
+			System.out.println("The name "+snapshotName+" is already in use.");
+			return;
+		}
+		if (snapshotName.length() > DiskSnapshot.NAME_LENGTH) {
+			System.out.println("Invalid name: a snapshot name has "+DiskSnapshot.NAME_LENGTH+" characters at most.");
+			return;
+		}
+		if (DiskSnapshot.readName(name) != null) {
+			System.out.println(name+" already has snapshot "+DiskSnapshot.readName(name)+".");
+			return;
+		}
+		if (isMounted(name) && mountedDiskUnit.isReadOnly()) {
+			System.out.println("Cannot take a snapshot of "+name+" while its snapshot is mounted.");
+			return;
+		}
+		long start = System.nanoTime();
+		try {
+			if (isMounted(name)) {
+				mountedDiskUnit.createSnapshot(snapshotName);
+			} else {
+				DiskUnit d = DiskUnit.mount(name);
+				try {
+					d.createSnapshot(snapshotName);
+				} finally {
+					d.shutdown();
+				}
+			}
+		} catch (CorruptBlockException e) {
+			System.out.println(e.getMessage()+" The snapshot was not taken.");
+			return;
+		}
+		System.out.printf("Snapshot %s of %s taken in %.3f ms.\n", snapshotName, name, (System.nanoTime() - start) / 1e6);
+	}
+	/**
+	 * Rolls a disk unit back to its snapshot, discarding every change made 
+	 * since the snapshot was taken. The snapshot is deleted. The disk must 
+	 * not be mounted.
+	 * @param name Name of the disk unit.
+	 */
+	public static void rollbackSnapshot(String name) {
+		if (isMounted(name)) {
+			System.out.println("Cannot roll back a mounted disk. Unmount "+mountedDiskName+" first.");
+			return;
+		}
+		try {
+			String snapshotName = DiskUnit.rollbackSnapshot(name);
+			System.out.println(name+" rolled back to snapshot "+snapshotName+".");
+		} catch (NonExistingDiskException e) {
+			System.out.println(e.getMessage());
+		}
+	}
+	/**
+	 * Deletes the snapshot of a disk unit, keeping the changes made since it
+	 * was taken. The disk may be mounted, but not its snapshot.
+	 * @param name Name of the disk unit.
+	 */
+	public static void deleteSnapshot(String name) {
+		String snapshotName = DiskSnapshot.readName(name);
+		if (snapshotName == null) {
+			System.out.println(name+" has no snapshot.");
+			return;
+		}
+		if (isMounted(name) && mountedDiskUnit.isReadOnly()) {
+			System.out.println("Cannot delete snapshot "+snapshotName+" while it is mounted.");
+			return;
+		}
+		long start = System.nanoTime();
+		int blocks;
+		try {
+			if (isMounted(name)) {
+				blocks = mountedDiskUnit.deleteSnapshot();
+			} else {
+				DiskUnit d = DiskUnit.mount(name);
+				try {
+					blocks = d.deleteSnapshot();
+				} finally {
+					d.shutdown();
+				}
+			}
+		} catch (CorruptBlockException e) {
+			System.out.println(e.getMessage()+" The snapshot was not deleted.");
+			return;
+		}
+		System.out.printf("Snapshot %s of %s deleted: %d blocks copied back in %.3f ms.\n", snapshotName, name, 
+				blocks, (System.nanoTime() - start) / 1e6);
+	}
+	/**
+	 * Determines if the mounted disk unit can be changed, showing a message if not.
+	 * @param action What can't be done, for the message.
+	 * @return Returns true if the mounted disk is not read-only.
+	 */
+	private static boolean isWritable(String action) {
+		if (!mountedDiskUnit.isReadOnly())
+			return true;
+		System.out.println("Cannot "+action+". "+mountedDiskName+" is a read-only snapshot.");
+		return false;
+	}
 	/**
 	 * Determines if the is a mounted disk.
 	 * @return Returns true if disk is mounted.
@@ -195,14 +503,42 @@ public class DiskManager {
 	 * @param newFile Name of the new file
 	 */
 	public static void loadFile(String extFile, String newFile) {
+		loadFile(extFile, newFile, false);
+	}
+	/**
+	 * Attempts to read a new file into the current directory in the current 
+	 * working disk unit, compressing it if requested. Wrapper to the FileManager 
+	 * loadFile method.
+	 * @param extFile Name of the file to read
+	 * @param newFile Name of the new file
+	 * @param compress true to store the file compressed
+	 */
+	public static void loadFile(String extFile, String newFile, boolean compress) {
+		loadFile(extFile, newFile, compress ? INodeManager.COMPRESSED_FILE : INodeManager.DATA_FILE);
+	}
+	/**
+	 * Attempts to read a new file into the current directory in the current 
+	 * working disk unit, in the layout given by its type. Wrapper to the 
+	 * FileManager loadFile method.
+	 * @param extFile Name of the file to read
+	 * @param newFile Name of the new file
+	 * @param type DATA_FILE, COMPRESSED_FILE or EXTENT_FILE (see INodeManager)
+	 */
+	public static void loadFile(String extFile, String newFile, byte type) {
 		if (!isDiskMounted()) {
 			System.out.println("Cannot load file. No disk is mounted.");
 			return;
 		}
+		if (!isWritable("load file"))
+			return;
 		try {
-			FileManager.loadFile(extFile, newFile);
+			FileManager.loadFile(extFile, newFile, type);
 		} catch (FullDiskException e) {
 			return;
+		} catch (CorruptBlockException e) {
+			System.out.println(e.getMessage()+" The file was not loaded.");
+		} finally {
+			mountedDiskUnit.sync();
 		}
 	}
 	/**
@@ -217,7 +553,11 @@ public class DiskManager {
 			System.out.println("Cannot list directory. No disk is mounted.");
 			return;
 		}
-		FileManager.listDir();
+		try {
+			FileManager.listDir();
+		} catch (CorruptBlockException e) {
+			System.out.println(e.getMessage());
+		}
 	}
 	/**
 	 * Displays the contents of a file in the current directory.
@@ -228,7 +568,45 @@ public class DiskManager {
 			System.out.println("Cannot display file. No disk is mounted.");
 			return;
 		}
-		FileManager.catFile(file);
+		try {
+			FileManager.catFile(file);
+		} catch (CorruptBlockException e) {
+			System.out.println(e.getMessage());
+		}
+	}
+	/**
+	 * Displays part of the contents of a file in the current directory.
+	 * Wrapper to the FileManager catRange method.
+	 * @param file Name of file to be displayed.
+	 * @param offset Position of the first byte to display.
+	 * @param length Number of bytes to display.
+	 */
+	public static void catRange(String file, int offset, int length) {
+		if (!isDiskMounted()) {
+			System.out.println("Cannot display file. No disk is mounted.");
+			return;
+		}
+		try {
+			FileManager.catRange(file, offset, length);
+		} catch (CorruptBlockException e) {
+			System.out.println(e.getMessage());
+		}
+	}
+	/**
+	 * Shows how fragmented a file in the current directory is and how fast
+	 * it is read in sequence. Wrapper to the FileManager readBenchmark method.
+	 * @param file Name of file to be read.
+	 */
+	public static void readBenchmark(String file) {
+		if (!isDiskMounted()) {
+			System.out.println("Cannot read file. No disk is mounted.");
+			return;
+		}
+		try {
+			FileManager.readBenchmark(file);
+		} catch (CorruptBlockException e) {
+			System.out.println(e.getMessage());
+		}
 	}
 	/**
 	 * Copies one internal file to another internal file. It works similar to the 
@@ -238,19 +616,317 @@ public class DiskManager {
 	 * @param file Internal file to copy content into
 	 */
 	public static void copyFile(String inputFile, String file) {
+		copyFile(inputFile, file, false);
+	}
+	/**
+	 * Copies one internal file to another internal file, sharing its blocks
+	 * copy-on-write if requested. Wrapper to the FileManager copyFile method.
+	 * @param inputFile Internal file to copy from
+	 * @param file Internal file to copy content into
+	 * @param reflink true to share the blocks instead of copying them
+	 */
+	public static void copyFile(String inputFile, String file, boolean reflink) {
 		if (!isDiskMounted()) {
 			System.out.println("Cannot copy file. No disk is mounted.");
 			return;
 		}
+		if (!isWritable("copy file"))
+			return;
 		try {
-			FileManager.copyFile(inputFile, file);
+			FileManager.copyFile(inputFile, file, reflink);
 		} catch (FullDiskException e) {
 			return;
+		} catch (CorruptBlockException e) {
+			System.out.println(e.getMessage()+" The file was not copied.");
+		} finally {
+			mountedDiskUnit.sync();
 		}
 	
 	}
-	
-	
-
+	/**
+	 * Replaces the block cache of the mounted disk unit.
+	 * @param maxBlocks Maximum number of blocks in the cache; 0 to disable it.
+	 * @param policy Name of the write policy: "writethrough" or "writeback".
+	 */
+	public static void setCache(int maxBlocks, String policy) {
+		setCache(maxBlocks, policy, false);
+	}
+	/**
+	 * Replaces the block cache of the mounted disk unit.
+	 * @param maxBlocks Maximum number of blocks in the cache; 0 to disable it.
+	 * @param policy Name of the write policy: "writethrough" or "writeback".
+	 * @param offHeap true to keep the cached blocks outside the Java heap.
+	 */
+	public static void setCache(int maxBlocks, String policy, boolean offHeap) {
+		if (!isDiskMounted()) {
+			System.out.println("Cannot configure cache. No disk is mounted.");
+			return;
+		}
+		if (maxBlocks < 0) {
+			System.out.println("Invalid number: Cache size needs to be greater than or equal to 0.");
+			return;
+		}
+		if (policy.equals("writethrough"))
+			mountedDiskUnit.setCache(maxBlocks, BlockCache.WRITE_THROUGH, offHeap);
+		else if (policy.equals("writeback"))
+			mountedDiskUnit.setCache(maxBlocks, BlockCache.WRITE_BACK, offHeap);
+		else {
+			System.out.println("Invalid write policy: "+policy+". Valid policies are writethrough and writeback.");
+			return;
+		}
+		if (maxBlocks == 0)
+			System.out.println("Cache disabled for "+mountedDiskName+".");
+		else
+			System.out.println("Cache of "+maxBlocks+" blocks ("+policy+(offHeap ? ", off-heap" : "")+") set for "+mountedDiskName+".");
+	}
+	/**
+	 * Changes the durability policy of the mounted disk unit. The policy
+	 * is stored in the disk, so it is kept by the next mounts.
+	 * @param policy Name of the durability policy (see durabilityOf).
+	 */
+	public static void setDurability(String policy) {
+		if (!isDiskMounted()) {
+			System.out.println("Cannot set durability. No disk is mounted.");
+			return;
+		}
+		int durability = durabilityOf(policy);
+		if (durability == DiskUnit.STORED_DURABILITY) {
+			System.out.println("Invalid durability policy: "+policy+". Valid policies are none, unmount, command and write.");
+			return;
+		}
+		mountedDiskUnit.setDurability(durability);
+		System.out.println("Durability of "+mountedDiskName+" set to "+policy+".");
+	}
+	/**
+	 * Gets the durability policy with the given name: "none" (the file is never 
+	 * forced), "unmount" (forced when unmounted), "command" (forced after each 
+	 * command that changes the disk) or "write" (forced after every write).
+	 * @param policy Name of the policy.
+	 * @return DiskUnit durability policy, or DiskUnit.STORED_DURABILITY if the name is not valid.
+	 */
+	private static int durabilityOf(String policy) {
+		switch (policy) {
+		case "none": return DiskUnit.DURABILITY_NONE;
+		case "unmount": return DiskUnit.DURABILITY_UNMOUNT;
+		case "command": return DiskUnit.DURABILITY_COMMAND;
+		case "write": return DiskUnit.DURABILITY_WRITE;
+		default: return DiskUnit.STORED_DURABILITY;
+		}
+	}
+	/**
+	 * Gets the name of a durability policy.
+	 * @param durability DiskUnit durability policy
+	 * @return Name of the policy, as accepted by durabilityOf.
+	 */
+	private static String durabilityName(int durability) {
+		String[] names = {"none", "unmount", "command", "write"};
+		return names[durability];
+	}
+	/**
+	 * Turns on or off the block checksums of the mounted disk unit, or changes 
+	 * what is done when a block doesn't match its checksum: "warn" reports the
+	 * block and uses it anyway, "fail" stops the command. The policy is stored
+	 * in the disk, so it is kept by the next mounts.
+	 * @param policy Name of the policy: "off", "warn" or "fail".
+	 */
+	public static void setChecksums(String policy) {
+		if (!isDiskMounted()) {
+			System.out.println("Cannot configure checksums. No disk is mounted.");
+			return;
+		}
+		if (!isWritable("configure checksums"))
+			return;
+		int checksumPolicy;
+		switch (policy) {
+		case "off": checksumPolicy = BlockChecksums.OFF; break;
+		case "warn": checksumPolicy = BlockChecksums.WARN; break;
+		case "fail": checksumPolicy = BlockChecksums.FAIL; break;
+		default:
+			System.out.println("Invalid checksum policy: "+policy+". Valid policies are off, warn and fail.");
+			return;
+		}
+		boolean computed = (mountedDiskUnit.getChecksums() == null && checksumPolicy != BlockChecksums.OFF);
+		long start = System.nanoTime();
+		mountedDiskUnit.setChecksumPolicy(checksumPolicy);
+		mountedDiskUnit.sync();
+		if (computed)
+			System.out.printf("%s checksums of %d blocks computed in %.3f ms.\n", BlockChecksums.getAlgorithm(),
+					mountedDiskUnit.getCapacity(), (System.nanoTime() - start) / 1e6);
+		System.out.println("Checksums of "+mountedDiskName+" set to "+policy+".");
+	}
+	/**
+	 * Turns on or off the deduplication of the blocks of the files loaded or 
+	 * copied into the mounted disk unit. With deduplication on, a file whose
+	 * final blocks are identical to blocks already stored shares them instead
+	 * of taking new ones, and the blocks of the existing files are indexed when
+	 * it is turned on. Turning it off keeps the reference counts of the blocks 
+	 * already shared. The setting is stored in the disk.
+	 * @param setting "on" or "off"
+	 */
+	public static void setDedup(String setting) {
+		if (!isDiskMounted()) {
+			System.out.println("Cannot configure deduplication. No disk is mounted.");
+			return;
+		}
+		if (!isWritable("configure deduplication"))
+			return;
+		if (!setting.equals("on") && !setting.equals("off")) {
+			System.out.println("Invalid setting: "+setting+". Valid settings are on and off.");
+			return;
+		}
+		BlockRefs refs = mountedDiskUnit.getRefs();
+		long start = System.nanoTime();
+		try {
+			if (setting.equals("on")) {
+				boolean indexed = (refs == null || refs.getMode() != BlockRefs.DEDUP);
+				mountedDiskUnit.setSharing(BlockRefs.DEDUP);
+				if (indexed)
+					System.out.printf("%d blocks indexed in %.3f ms.\n", mountedDiskUnit.getRefs().getIndexedBlocks(), 
+							(System.nanoTime() - start) / 1e6);
+			} else if (refs != null && refs.getSharedBlocks() > 0) {
+				mountedDiskUnit.setSharing(BlockRefs.COUNTED);   // the blocks already shared stay counted
+			} else {
+				mountedDiskUnit.setSharing(BlockRefs.NONE);
+			}
+		} catch (CorruptBlockException e) {
+			System.out.println(e.getMessage()+" Deduplication of "+mountedDiskName+" was not changed.");
+			return;
+		}
+		mountedDiskUnit.sync();
+		System.out.println("Deduplication of "+mountedDiskName+" set to "+setting+".");
+	}
+	/**
+	 * Changes the number of blocks prefetched when the mounted disk unit
+	 * reads a file or directory block after block.
+	 * @param readAhead Blocks to read ahead; 0 to disable readahead.
+	 */
+	public static void setReadAhead(int readAhead) {
+		if (!isDiskMounted()) {
+			System.out.println("Cannot configure readahead. No disk is mounted.");
+			return;
+		}
+		if (readAhead < 0) {
+			System.out.println("Invalid number: Readahead needs to be greater than or equal to 0.");
+			return;
+		}
+		mountedDiskUnit.setReadAhead(readAhead);
+		if (mountedDiskUnit.getCache() == null)
+			System.out.println("Readahead set to "+readAhead+" blocks; it works when the cache is enabled.");
+		else
+			System.out.println("Readahead of "+mountedDiskName+" set to "+readAhead+" blocks.");
+	}
+	/**
+	 * Changes when the dirty blocks of the write-back cache of the mounted
+	 * disk unit are flushed by the background flusher.
+	 * @param flushInterval Milliseconds between flushes; 0 for no periodic flush.
+	 * @param dirtyThreshold Number of dirty blocks that triggers a flush; 0 for none.
+	 */
+	public static void setFlushPolicy(int flushInterval, int dirtyThreshold) {
+		if (!isDiskMounted()) {
+			System.out.println("Cannot configure flushing. No disk is mounted.");
+			return;
+		}
+		BlockCache cache = mountedDiskUnit.getCache();
+		if (cache == null || cache.getPolicy() != BlockCache.WRITE_BACK) {
+			System.out.println("The cache of "+mountedDiskName+" is not writeback.");
+			return;
+		}
+		if (flushInterval < 0 || dirtyThreshold < 0) {
+			System.out.println("Invalid number: Interval and threshold need to be greater than or equal to 0.");
+			return;
+		}
+		cache.setFlushPolicy(flushInterval, dirtyThreshold);
+		System.out.println("Flushing of "+mountedDiskName+" set to every "+flushInterval+" ms or "+dirtyThreshold+" dirty blocks.");
+	}
+	/**
+	 * Writes into the mounted disk unit every block and control data
+	 * kept in memory.
+	 */
+	public static void syncDisk() {
+		if (!isDiskMounted()) {
+			System.out.println("Cannot sync. No disk is mounted.");
+			return;
+		}
+		BlockCache cache = mountedDiskUnit.getCache();
+		int dirtyBlocks = (cache == null ? 0 : cache.getDirtyBlocks());
+		mountedDiskUnit.sync();
+		mountedDiskUnit.force();  // an explicit sync always reaches the storage device
+		System.out.println(mountedDiskName+" synchronized: "+dirtyBlocks+" dirty blocks written.");
+	}
+	/**
+	 * Shows the statistics of the mounted disk unit: the state of its block
+	 * cache and its hit, miss and eviction counters.
+	 */
+	public static void showDiskStats() {
+		if (!isDiskMounted()) {
+			System.out.println("Cannot show statistics. No disk is mounted.");
+			return;
+		}
+		BlockCache cache = mountedDiskUnit.getCache();
+		System.out.println("Statistics of "+mountedDiskName+":");
+		System.out.printf("  Durability: %s  Forces: %d  Time forcing: %.3f ms\n", durabilityName(mountedDiskUnit.getDurability()),
+				mountedDiskUnit.getForceCount(), mountedDiskUnit.getForceNanos() / 1e6);
+		if (mountedDiskUnit.getStripes() > 1)
+			System.out.println("  Striped over "+mountedDiskUnit.getStripes()+" files");
+		if (mountedDiskUnit.isThin())
+			System.out.println("  Thin provisioned  First unused block: "+mountedDiskUnit.getFirstUnusedBlock());
+		if (mountedDiskUnit.getINodeFormat() == INodeManager.INDEXED_FORMAT)
+			System.out.printf("  Indexed i-nodes: %d of %d bytes  Pointers: %d direct, single and double indirect\n", 
+					mountedDiskUnit.getiNodeNum(), mountedDiskUnit.getINodeSize(), INodeManager.DIRECT_POINTERS);
+		FreeBlockMap freeBlocks = mountedDiskUnit.getFreeBlockMap();
+		if (freeBlocks != null) {
+			System.out.printf("  Free blocks: %d  Taken: %d  Freed: %d  Free list blocks written: %d\n", freeBlocks.getFreeBlocks(),
+					freeBlocks.getAllocated(), freeBlocks.getFreed(), freeBlocks.getNodesWritten());
+			System.out.printf("  Free runs: %d  Longest: %d blocks\n", freeBlocks.getFreeRuns(), freeBlocks.getLargestFreeRun());
+		}
+		BuddyAllocator buddy = (freeBlocks == null ? null : freeBlocks.getBuddy());
+		if (buddy != null) {
+			StringBuilder runs = new StringBuilder();
+			for (int k=buddy.getMaxOrder(); k >= 0; k--)
+				if (buddy.getFreeRuns(k) > 0)
+					runs.append("  "+(1 << k)+": "+buddy.getFreeRuns(k));
+			System.out.printf("  Buddy allocator  Splits: %d  Merges: %d\n", buddy.getSplits(), buddy.getMerges());
+			System.out.println("  Free runs by size:"+(runs.length() == 0 ? "  none" : runs));
+		}
+		BlockChecksums checksums = mountedDiskUnit.getChecksums();
+		if (checksums != null) {
+			System.out.printf("  Checksums: %s, %s on mismatch  Mismatches: %d\n", BlockChecksums.getAlgorithm(),
+					checksums.getPolicy() == BlockChecksums.FAIL ? "fail" : "warn", checksums.getMismatches());
+			System.out.printf("  Verified: %d blocks in %.3f ms  Computed: %d blocks in %.3f ms\n", checksums.getVerified(),
+					checksums.getVerifyNanos() / 1e6, checksums.getUpdated(), checksums.getUpdateNanos() / 1e6);
+		}
+		if (mountedDiskUnit.isReadOnly())
+			System.out.println("  Read-only snapshot of "+mountedDiskUnit.getName());
+		DiskSnapshot snapshot = mountedDiskUnit.getSnapshot();
+		if (snapshot != null)
+			System.out.println("  Snapshot: "+snapshot.getName()+"  Blocks written since: "+snapshot.getRemappedCount());
+		BlockRefs refs = mountedDiskUnit.getRefs();
+		if (refs != null) {
+			System.out.printf("  Deduplication: %s  Shared chains: %d  Blocks saved: %d\n", 
+					refs.getMode() == BlockRefs.DEDUP ? "on" : "off", refs.getSharedBlocks(), refs.countSavedBlocks());
+			System.out.printf("  Indexed: %d blocks  Written: %d blocks  Shared instead: %d\n", refs.getIndexedBlocks(), 
+					refs.getNewBlocks(), refs.getSharedWrites());
+		}
+		if (cache == null) {
+			System.out.println("  Cache: disabled");
+		} else {
+			long reads = cache.getHits() + cache.getMisses();
+			System.out.printf("  Cache: %d/%d blocks, %s\n", cache.size(), cache.getMaxBlocks(),
+					cache.getPolicy() == BlockCache.WRITE_BACK ? "writeback" : "writethrough");
+			System.out.printf("  Hits: %d  Misses: %d  Hit ratio: %.2f%%\n", cache.getHits(), cache.getMisses(),
+					reads == 0 ? 0.0 : 100.0 * cache.getHits() / reads);
+			System.out.printf("  Evictions: %d  Write-backs: %d\n", cache.getEvictions(), cache.getWriteBacks());
+			System.out.printf("  Readahead: %d blocks  Prefetched: %d  Used: %d\n", mountedDiskUnit.getReadAhead(),
+					cache.getPrefetchedBlocks(), cache.getPrefetchHits());
+			if (cache.getPolicy() == BlockCache.WRITE_BACK)
+				System.out.printf("  Dirty blocks: %d  Background flushes: %d (every %d ms or %d dirty blocks)\n", 
+						cache.getDirtyBlocks(), cache.getBackgroundFlushes(), cache.getFlushInterval(), cache.getDirtyThreshold());
+			BlockArena arena = cache.getArena();
+			if (arena != null)
+				System.out.printf("  Off-heap arena: %d/%d frames in use, %d KB reserved\n", arena.getFramesInUse(), 
+						arena.getMaxFrames(), arena.getReservedBytes() / 1024);
+		}
+		System.out.println();
+	}
 	
 }
@@ -0,0 +1,255 @@
+package diskUtilities;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Point-in-time snapshot of a disk unit. Once the snapshot is taken the disk
+ * files are frozen: every block written afterwards is redirected to a slot of
+ * the snapshot file (DiskUnits/name.snap), and a remap table tells the slot
+ * holding the current content of each block. Blocks not written since the
+ * snapshot are still read from the disk files, so taking a snapshot costs the
+ * table, not a copy of the blocks. Rolling back to the snapshot discards the
+ * slots; deleting the snapshot copies them back into the disk files.
+ * The file starts with the name of the snapshot (20 bytes), the capacity, the
+ * block size and the number of slots, followed by the remap table (4 bytes per
+ * block: the slot plus one, or 0 if the block wasn't written) and the slots.
+ * @author jahdiel
+ *
+ */
+public class DiskSnapshot {
+
+	public static final int NAME_LENGTH = 20;   // bytes of the name, as the names of the files
+	private static final int HEADER_SIZE = 32;  // name, capacity, block size and slots
+
+	private String name;         // name of the snapshot
+	private int blockSize;
+	private int[] remap;         // slot + 1 of each block; 0 if the block is in the disk files
+	private int slots;           // slots in use
+	private RandomAccessFile file;
+	private FileChannel channel;
+	private int dirtyFrom = Integer.MAX_VALUE;  // range of the table changed since it was stored
+	private int dirtyTo = -1;
+	private boolean slotsDirty;  // true if slots changed since the header was stored
+
+	private DiskSnapshot(String diskName, String name, int capacity, int blockSize) throws IOException {
+		this.name = name;
+		this.blockSize = blockSize;
+		remap = new int[capacity];
+		file = new RandomAccessFile(DiskUnit.snapshotFile(diskName), "rw");
+		channel = file.getChannel();
+	}
+
+	/**
+	 * Creates the snapshot file of a disk unit, with an empty remap table.
+	 * @param diskName name of the disk unit
+	 * @param name name of the snapshot
+	 * @param capacity number of blocks of the disk
+	 * @param blockSize size of each block of the disk
+	 * @return the new snapshot
+	 * @throws IOException if the file can't be written
+	 */
+	static DiskSnapshot create(String diskName, String name, int capacity, int blockSize) throws IOException {
+		DiskSnapshot snapshot = new DiskSnapshot(diskName, name, capacity, blockSize);
+		snapshot.file.setLength(0);
+		snapshot.file.writeBytes(String.format("%-"+NAME_LENGTH+"s", name));
+		snapshot.file.writeInt(capacity);
+		snapshot.file.writeInt(blockSize);
+		snapshot.file.writeInt(0);
+		snapshot.file.setLength(HEADER_SIZE + 4L * capacity);  // the table starts filled with zeroes
+		return snapshot;
+	}
+
+	/**
+	 * Opens the snapshot file of a disk unit.
+	 * @param diskName name of the disk unit
+	 * @param capacity number of blocks of the disk
+	 * @param blockSize size of each block of the disk
+	 * @return the snapshot, with the remap table stored in the file
+	 * @throws IOException if the file can't be read or doesn't belong to the disk
+	 */
+	static DiskSnapshot open(String diskName, int capacity, int blockSize) throws IOException {
+		DiskSnapshot snapshot = new DiskSnapshot(diskName, readName(diskName), capacity, blockSize);
+		ByteBuffer table = ByteBuffer.allocate(HEADER_SIZE + 4 * capacity);
+		while (table.hasRemaining())
+			if (snapshot.channel.read(table, table.position()) < 0)
+				break;
+		table.flip();
+		table.position(NAME_LENGTH);
+		if (table.remaining() != 4 + 4 + 4 + 4 * capacity || table.getInt() != capacity || table.getInt() != blockSize) {
+			snapshot.close();
+			throw new IOException("The snapshot file of disk "+diskName+" is damaged.");
+		}
+		snapshot.slots = table.getInt();
+		table.asIntBuffer().get(snapshot.remap);
+		return snapshot;
+	}
+
+	/**
+	 * Gets the name of the snapshot of a disk unit.
+	 * @param diskName name of the disk unit
+	 * @return name of the snapshot, or null if the disk has none.
+	 */
+	public static String readName(String diskName) {
+		File snapshotFile = DiskUnit.snapshotFile(diskName);
+		if (!snapshotFile.exists())
+			return null;
+		try (RandomAccessFile raf = new RandomAccessFile(snapshotFile, "r")) {
+			byte[] name = new byte[NAME_LENGTH];
+			raf.readFully(name);
+			return new String(name, "US-ASCII").trim();
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Keeps a copy of a table of the disk (checksums or block references) as
+	 * it is when the snapshot is taken, in the same file with .snap appended.
+	 * @param table file of the table; it may not exist
+	 * @throws IOException if the copy can't be written
+	 */
+	static void saveTable(File table) throws IOException {
+		File copy = new File(table.getPath() + ".snap");
+		if (table.exists())
+			Files.copy(table.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		else
+			copy.delete();
+	}
+
+	/**
+	 * Puts back the copy of a table kept by saveTable, or deletes the table
+	 * if it didn't exist when the snapshot was taken.
+	 * @param table file of the table
+	 * @throws IOException if the copy can't be moved
+	 */
+	static void restoreTable(File table) throws IOException {
+		File copy = new File(table.getPath() + ".snap");
+		if (copy.exists())
+			Files.move(copy.toPath(), table.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		else
+			table.delete();
+	}
+
+	/**
+	 * Deletes the copy of a table kept by saveTable.
+	 * @param table file of the table
+	 */
+	static void discardTable(File table) {
+		new File(table.getPath() + ".snap").delete();
+	}
+
+	private long slotOffset(int slot) {
+		return HEADER_SIZE + 4L * remap.length + (long) slot * blockSize;
+	}
+
+	/**
+	 * Reads a block written since the snapshot was taken.
+	 * @param blockNum number of the block
+	 * @param dst array of blockSize bytes
+	 * @return false if the block wasn't written since the snapshot, so it
+	 *  must be read from the disk files.
+	 * @throws IOException if the snapshot file can't be read
+	 */
+	boolean read(int blockNum, byte[] dst) throws IOException {
+		int slot = remap[blockNum] - 1;
+		if (slot < 0)
+			return false;
+		ByteBuffer buffer = ByteBuffer.wrap(dst, 0, blockSize);
+		long pos = slotOffset(slot);
+		while (buffer.hasRemaining())
+			if (channel.read(buffer, pos + buffer.position()) < 0)
+				throw new IOException("The snapshot file is missing block "+blockNum+".");
+		return true;
+	}
+
+	/**
+	 * Writes a block into its slot, taking a new slot the first time the
+	 * block is written since the snapshot.
+	 * @param blockNum number of the block
+	 * @param src array of blockSize bytes
+	 * @throws IOException if the snapshot file can't be written
+	 */
+	synchronized void write(int blockNum, byte[] src) throws IOException {
+		if (remap[blockNum] == 0) {
+			remap[blockNum] = ++slots;
+			slotsDirty = true;
+			dirtyFrom = Math.min(dirtyFrom, blockNum);
+			dirtyTo = Math.max(dirtyTo, blockNum);
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(src, 0, blockSize);
+		long pos = slotOffset(remap[blockNum] - 1);
+		while (buffer.hasRemaining())
+			channel.write(buffer, pos + buffer.position());
+	}
+
+	/**
+	 * Gets the blocks written since the snapshot was taken.
+	 * @return block numbers, in increasing order
+	 */
+	int[] getRemappedBlocks() {
+		int[] blockNums = new int[slots];
+		int count = 0;
+		for (int b=0; b < remap.length; b++)
+			if (remap[b] != 0)
+				blockNums[count++] = b;
+		return blockNums;
+	}
+
+	/**
+	 * Writes into the snapshot file the part of the remap table changed
+	 * since it was last stored.
+	 * @throws IOException if the file can't be written
+	 */
+	synchronized void store() throws IOException {
+		if (slotsDirty) {
+			ByteBuffer header = ByteBuffer.allocate(4).putInt(0, slots);
+			while (header.hasRemaining())
+				channel.write(header, NAME_LENGTH + 8 + header.position());
+			slotsDirty = false;
+		}
+		if (dirtyTo < dirtyFrom)
+			return;
+		ByteBuffer changed = ByteBuffer.allocate(4 * (dirtyTo - dirtyFrom + 1));
+		changed.asIntBuffer().put(remap, dirtyFrom, dirtyTo - dirtyFrom + 1);
+		long pos = HEADER_SIZE + 4L * dirtyFrom;
+		while (changed.hasRemaining())
+			channel.write(changed, pos + changed.position());
+		dirtyFrom = Integer.MAX_VALUE;
+		dirtyTo = -1;
+	}
+
+	/**
+	 * Forces the snapshot file into the storage device.
+	 * @throws IOException if the file can't be forced
+	 */
+	void force() throws IOException {
+		channel.force(false);
+	}
+
+	/**
+	 * Closes the snapshot file. The snapshot must not be used afterwards.
+	 * @throws IOException if the file can't be closed
+	 */
+	void close() throws IOException {
+		file.close();
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Gets the number of blocks written since the snapshot was taken.
+	 * @return blocks kept in the snapshot file
+	 */
+	public int getRemappedCount() {
+		return slots;
+	}
+
+}
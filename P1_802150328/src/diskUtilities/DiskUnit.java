@@ -2,6 +2,19 @@ package diskUtilities;
 import diskUnitExceptions.*;
 
 import java.io.*;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 
 
@@ -9,19 +22,86 @@ public class DiskUnit implements DiskUnitInterface{
 
 	private static final int DEFAULT_CAPACITY = 1024;  // default number of blocks 	
 	private static final int DEFAULT_BLOCK_SIZE = 256; // default number of bytes per block
-	private static final int I_NODE_SIZE = 9;          // default number of bytes per i-node
 	
+	public static final int RAF_IO = 0;     // blocks are moved byte by byte through the RandomAccessFile
+	public static final int MMAP_IO = 1;    // blocks are copied from/to a memory mapping of the disk file
+	public static final int CHANNEL_IO = 2; // each block is moved in one positional FileChannel call
+	public static final int DEFAULT_IO = CHANNEL_IO;
+	
+	// A single mapping can't exceed Integer.MAX_VALUE bytes, so large disks are mapped
+	// in segments. Block sizes are powers of two, hence a block never crosses a segment.
+	private static final int MAP_SEGMENT_SIZE = 1 << 30;
+	
+	public static final int DEFAULT_CACHE_BLOCKS = 64;  // blocks cached when a disk is mounted
+	
+	// Durability policies: when the disk file is forced (fsync) into the storage device.
+	// The policy is stored in the control data, so each disk keeps its own.
+	public static final int DURABILITY_NONE = 0;     // never; the operating system writes the file when it decides
+	public static final int DURABILITY_UNMOUNT = 1;  // when the disk is shut down
+	public static final int DURABILITY_COMMAND = 2;  // on every sync, done after each command that changes the disk
+	public static final int DURABILITY_WRITE = 3;    // after every write, like a RAF opened in "rwd" mode
+	public static final int STORED_DURABILITY = -1;  // mount with the policy stored in the disk
+	
+	public static final int MAX_STRIPES = 255;      // stripes of a disk, stored in a byte of block 0
+	
+	public static final int DEFAULT_READAHEAD = 8;   // blocks prefetched ahead of a chain traversal
+	
+	private static final int FORMAT_CHUNK_SIZE = 4 << 20;  // bytes of zeroes written at once by lowLevelFormat
+	
+	private String name;        // name of the disk unit
 	private int capacity;     	// number of blocks of current disk instance
 	private int blockSize; 	    // size of each block of current disk instance
-	private int firstDataBlock; // index of the first free data block (the root of free block collection)
-	private int nextFreeBlock;  // index representing top 4 bytes position in block firstFLB
-	private int firstFreeINode; // index of first free i-node
-	private int iNodeNum;       // total number of i-nodes in the disk (free + taken)
+	private SuperBlock superBlock; // control data of block 0, kept in memory while mounted
+	private int ioMode;         // how blocks are moved between the disk file and memory
+	private int durability;     // when the disk file is forced into the storage device
+	private long forceCount;    // number of times the file was forced
+	private long forceNanos;    // time spent forcing the file
+	
+	
+	// the files representing the simulated  disk, where all the disk blocks
+	// are stored. A striped disk spreads its blocks over several files (stripes): 
+	// block b is block b / stripes of file b % stripes. Block 0 is in file 0.
+	private int stripes;
+	private RandomAccessFile[] files;
+	private FileChannel[] channels;   // channels of the RAFs, used by the CHANNEL_IO and MMAP_IO modes
+	
+	// memory mapped segments of each disk file (only when mounted in MMAP_IO mode)
+	private MappedByteBuffer[][] segments;
+	
+	// one thread per stripe, moving the blocks of a batch in parallel (striped disks only)
+	private ExecutorService stripeExecutor;
+	
+	// checksum of every block, verified when the block is read from the disk 
+	// files; null if the disk keeps no checksums
+	private BlockChecksums checksums;
+	
+	// references to the blocks shared by several files; null if no block is shared
+	private BlockRefs refs;
+	
+	// free blocks kept in memory, built from the free block structure when a 
+	// block is first taken or freed; null until then
+	private FreeBlockMap freeBlocks;
+	
+	// blocks written since the snapshot of the disk was taken, which are kept 
+	// apart from the frozen disk files; null if the disk has no snapshot
+	private DiskSnapshot snapshot;
+	private boolean readOnly;   // true if the snapshot itself is mounted
+	
+	// recently used blocks; null if the disk is used without a cache
+	private BlockCache cache;
 	
+	// reusable VirtualDiskBlock instances for the managers working on this disk
+	private BlockPool pool;
 	
-	// the file representing the simulated  disk, where all the disk blocks
-	// are stored
-	private RandomAccessFile disk;
+	// thread running readAsync and writeAsync requests; created on the first request
+	private ExecutorService ioExecutor;
+	
+	// readahead along block chains (files and directories)
+	private int readAhead = DEFAULT_READAHEAD;  // blocks prefetched; 0 to disable readahead
+	private int lastReadBlock = -1;  // last block read by a chain traversal
+	private int chainNext;           // next block number stored in the last 4 bytes of lastReadBlock
+	private int windowStart;         // range of blocks requested by the last prefetch
+	private int windowEnd;
 
 	// the constructor -- PRIVATE
 	/**
@@ -29,7 +109,7 @@ public class DiskUnit implements DiskUnitInterface{
 	 **/
 	private DiskUnit(File name) {
 		try {
-			disk = new RandomAccessFile(name, "rw");
+			files = new RandomAccessFile[] { new RandomAccessFile(name, "rw") };
 		}
 		catch (IOException e) {
 			System.err.println("Unable to start the disk");
@@ -46,6 +126,68 @@ public class DiskUnit implements DiskUnitInterface{
 	 *    "disk" with the specified name is found.
 	*/
 	public static DiskUnit mount(String name) throws NonExistingDiskException {
+		return mount(name, DEFAULT_IO);
+	}
+	
+	/**
+	 * Turns on an existing disk unit whose name is given, using the specified
+	 * mode to move blocks between the disk file and memory.
+	 * @param name the name of the disk unit to activate
+	 * @param ioMode RAF_IO, MMAP_IO or CHANNEL_IO
+	 * @return the corresponding DiskUnit object
+	 * @throws NonExistingDiskException whenever no
+	 *    "disk" with the specified name is found.
+	 * @throws InvalidParameterException whenever the mode is not valid.
+	 */
+	public static DiskUnit mount(String name, int ioMode) 
+			throws NonExistingDiskException, InvalidParameterException {
+		return mount(name, ioMode, STORED_DURABILITY);
+	}
+	
+	/**
+	 * Turns on an existing disk unit whose name is given, using the specified
+	 * mode to move blocks between the disk file and memory, and the specified
+	 * durability policy. The policy is stored in the disk, so it is used the 
+	 * next times the disk is mounted too.
+	 * @param name the name of the disk unit to activate
+	 * @param ioMode RAF_IO, MMAP_IO or CHANNEL_IO
+	 * @param durability one of the DURABILITY_ policies, or STORED_DURABILITY
+	 *  to keep the policy stored in the disk.
+	 * @return the corresponding DiskUnit object
+	 * @throws NonExistingDiskException whenever no
+	 *    "disk" with the specified name is found.
+	 * @throws InvalidParameterException whenever the mode or policy is not valid.
+	 */
+	public static DiskUnit mount(String name, int ioMode, int durability) 
+			throws NonExistingDiskException, InvalidParameterException {
+		return mount(name, ioMode, durability, false);
+	}
+	
+	/**
+	 * Turns on the snapshot of a disk unit, read-only: the blocks are read
+	 * from the disk files as they were when the snapshot was taken, and 
+	 * nothing can be written. The checksums and block references of the 
+	 * disk are not used, as they describe the current content of the disk.
+	 * @param name the name of the disk unit whose snapshot is activated
+	 * @param ioMode RAF_IO, MMAP_IO or CHANNEL_IO
+	 * @return DiskUnit object of the snapshot
+	 * @throws NonExistingDiskException whenever the disk or its snapshot doesn't exist.
+	 * @throws InvalidParameterException whenever the mode is not valid.
+	 */
+	public static DiskUnit mountSnapshot(String name, int ioMode) 
+			throws NonExistingDiskException, InvalidParameterException {
+		if (!snapshotFile(name).exists())
+			throw new NonExistingDiskException("Disk "+name+" has no snapshot.");
+		return mount(name, ioMode, STORED_DURABILITY, true);
+	}
+	
+	private static DiskUnit mount(String name, int ioMode, int durability, boolean snapshotView) 
+			throws NonExistingDiskException, InvalidParameterException {
+		if (ioMode != RAF_IO && ioMode != MMAP_IO && ioMode != CHANNEL_IO)
+			throw new InvalidParameterException("Invalid I/O mode: " + ioMode);
+		if (durability != STORED_DURABILITY && !isValidDurability(durability))
+			throw new InvalidParameterException("Invalid durability policy: " + durability);
+		
 		File file=new File("DiskUnits", name);
 		   if (!file.exists())
 		       throw new NonExistingDiskException("No disk has name : " + name);
@@ -55,13 +197,32 @@ public class DiskUnit implements DiskUnitInterface{
 		   // get the capacity and the block size of the disk from the file
 		   // representing the disk
 		   try {  // Obtain all relevant information for the control data
-			   dUnit.disk.seek(0);
-			   dUnit.capacity = dUnit.disk.readInt();
-			   dUnit.blockSize = dUnit.disk.readInt();
-			   dUnit.firstDataBlock = dUnit.disk.readInt();
-			   dUnit.nextFreeBlock = dUnit.disk.readInt();
-			   dUnit.firstFreeINode = dUnit.disk.readInt();
-			   dUnit.iNodeNum = dUnit.disk.readInt();
+			   // The control data, and the i-node format and allocator after it if the first file holds them
+			   byte[] controlData = new byte[(int) Math.min(SuperBlock.ALLOCATOR_POS + 1, dUnit.files[0].length())];
+			   dUnit.files[0].seek(0);
+			   dUnit.files[0].readFully(controlData);
+			   dUnit.superBlock = new SuperBlock(controlData);
+			   dUnit.capacity = dUnit.superBlock.getCapacity();
+			   dUnit.blockSize = dUnit.superBlock.getBlockSize();
+			   if (snapshotView)
+				   dUnit.readOnly = true;
+			   else if (snapshotFile(name).exists())
+				   dUnit.openSnapshot(name);
+			   if (durability != STORED_DURABILITY)
+				   dUnit.superBlock.setDurability(durability);
+			   dUnit.durability = dUnit.superBlock.getDurability();
+			   
+			   dUnit.ioMode = ioMode;
+			   dUnit.name = name;
+			   dUnit.openStripes(name);
+			   if (ioMode == MMAP_IO)
+				   dUnit.mapDisk();
+			   if (dUnit.superBlock.getChecksums() != BlockChecksums.OFF && !dUnit.readOnly)
+				   dUnit.openChecksums(dUnit.superBlock.getChecksums());
+			   dUnit.cache = new BlockCache(dUnit, DEFAULT_CACHE_BLOCKS, BlockCache.WRITE_BACK);
+			   dUnit.pool = new BlockPool(dUnit.blockSize, BlockPool.DEFAULT_MAX_IDLE);
+			   if (dUnit.superBlock.getSharing() != BlockRefs.NONE && !dUnit.readOnly)
+				   dUnit.openRefs(dUnit.superBlock.getSharing());
 			   
 		   } catch (IOException e) {
 			   e.printStackTrace();
@@ -69,6 +230,315 @@ public class DiskUnit implements DiskUnitInterface{
 		   	
 		   return dUnit;     	
 	}
+	
+	/**
+	 * Gets the file holding a stripe of a disk unit: the file with the name
+	 * of the disk for stripe 0, and name.stripeN for the other stripes. 
+	 * The files of the other stripes may be links to files in other file systems.
+	 * @param name the name of the disk unit
+	 * @param stripe number of the stripe
+	 * @return File of the stripe
+	 */
+	public static File stripeFile(String name, int stripe) {
+		return new File("DiskUnits", stripe == 0 ? name : name + ".stripe" + stripe);
+	}
+	
+	/**
+	 * Gets the file holding the checksum table of a disk unit: name.crc.
+	 * @param name the name of the disk unit
+	 * @return File of the checksum table
+	 */
+	public static File checksumFile(String name) {
+		return new File("DiskUnits", name + ".crc");
+	}
+	
+	/**
+	 * Gets the file holding the reference counts of the blocks of a disk unit: name.refs.
+	 * @param name the name of the disk unit
+	 * @return File of the reference count table
+	 */
+	public static File refsFile(String name) {
+		return new File("DiskUnits", name + ".refs");
+	}
+	
+	/**
+	 * Gets the file holding the snapshot of a disk unit and the blocks 
+	 * written since it was taken: name.snap.
+	 * @param name the name of the disk unit
+	 * @return File of the snapshot
+	 */
+	public static File snapshotFile(String name) {
+		return new File("DiskUnits", name + ".snap");
+	}
+	
+	/**
+	 * Opens the snapshot of the disk. The control data read from the disk 
+	 * file is replaced by the one in the snapshot file, if it was written
+	 * since the snapshot was taken.
+	 * @param name the name of the disk unit
+	 * @throws IOException if the snapshot file can't be read
+	 */
+	private void openSnapshot(String name) throws IOException {
+		snapshot = DiskSnapshot.open(name, capacity, blockSize);
+		byte[] block0 = new byte[blockSize];
+		if (snapshot.read(0, block0))
+			superBlock = new SuperBlock(block0);
+	}
+	
+	/**
+	 * Loads the reference counts of the blocks of the disk. A table that is 
+	 * missing or doesn't match the disk is counted again from the files.
+	 * @param mode BlockRefs.COUNTED or BlockRefs.DEDUP
+	 * @throws IOException if the table can't be read or written
+	 */
+	private void openRefs(int mode) throws IOException {
+		BlockRefs table = new BlockRefs(this, name, mode);
+		if (!table.load()) {
+			System.err.println("The block references of disk "+name+" are missing or outdated; they are counted again.");
+			table.recount();
+		}
+		refs = table;
+	}
+	
+	/**
+	 * Loads the checksum table of the disk. A table that is missing or 
+	 * doesn't match the disk is rebuilt from the current content of the blocks.
+	 * @param policy BlockChecksums.WARN or BlockChecksums.FAIL
+	 * @throws IOException if the table can't be read or written
+	 */
+	private void openChecksums(int policy) throws IOException {
+		BlockChecksums table = new BlockChecksums(this, name, policy);
+		if (!table.load()) {
+			System.err.println("The checksums of disk "+name+" are missing or outdated; they are computed again.");
+			table.rebuild();
+		}
+		checksums = table;
+	}
+	
+	/**
+	 * Opens the files of the stripes other than stripe 0 and the channels of every file.
+	 * @param name the name of the disk unit
+	 * @throws NonExistingDiskException whenever the file of a stripe is missing.
+	 */
+	private void openStripes(String name) throws IOException, NonExistingDiskException {
+		stripes = Math.max(1, superBlock.getStripes());
+		RandomAccessFile stripe0 = files[0];
+		files = new RandomAccessFile[stripes];
+		channels = new FileChannel[stripes];
+		files[0] = stripe0;
+		for (int i=1; i < stripes; i++) {
+			File file = stripeFile(name, i);
+			if (!file.exists()) {
+				for (int j=0; j < i; j++)
+					files[j].close();
+				throw new NonExistingDiskException("Stripe "+i+" of disk "+name+" is missing: "+file.getPath());
+			}
+			files[i] = new RandomAccessFile(file, "rw");
+		}
+		for (int i=0; i < stripes; i++)
+			channels[i] = files[i].getChannel();
+	}
+	
+	/**
+	 * Gets the number of blocks stored in the file of a stripe.
+	 * @param stripe number of the stripe
+	 * @return blocks in the stripe
+	 */
+	private int stripeBlocks(int stripe) {
+		return (capacity - stripe + stripes - 1) / stripes;
+	}
+	
+	/**
+	 * Gets the position of a block inside the file of its stripe.
+	 * @param blockNum number of the block
+	 * @return byte position of the block in the file blockNum % stripes
+	 */
+	private long stripeOffset(int blockNum) {
+		return (long) (blockNum / stripes) * blockSize;
+	}
+	
+	/**
+	 * Maps every disk file into memory, one segment per MAP_SEGMENT_SIZE bytes.
+	 * @throws IOException if a file can't be mapped.
+	 */
+	private void mapDisk() throws IOException {
+		segments = new MappedByteBuffer[stripes][];
+		for (int s=0; s < stripes; s++) {
+			long fileSize = (long) stripeBlocks(s) * blockSize;
+			int numOfSegments = (int) ((fileSize + MAP_SEGMENT_SIZE - 1) / MAP_SEGMENT_SIZE);
+			segments[s] = new MappedByteBuffer[numOfSegments];
+			for (int i=0; i < numOfSegments; i++) {
+				long start = (long) i * MAP_SEGMENT_SIZE;
+				long size = Math.min(MAP_SEGMENT_SIZE, fileSize - start);
+				segments[s][i] = channels[s].map(FileChannel.MapMode.READ_WRITE, start, size);
+			}
+		}
+	}
+	
+	/**
+	 * Returns a view of the mapped segment holding the given block, positioned
+	 * at the first byte of the block.
+	 * @param blockNum number of the block
+	 * @return ByteBuffer positioned at the start of the block.
+	 */
+	private ByteBuffer mappedBlock(int blockNum) {
+		long bytePos = stripeOffset(blockNum);
+		ByteBuffer segment = segments[blockNum % stripes][(int) (bytePos / MAP_SEGMENT_SIZE)].duplicate();
+		segment.position((int) (bytePos % MAP_SEGMENT_SIZE));
+		return segment;
+	}
+	
+	/**
+	 * Forces the content of the mapped segments into the disk files and releases them.
+	 * The mapping is released eagerly where the platform allows it, otherwise it is
+	 * left to the garbage collector.
+	 */
+	private void unmapDisk() {
+		for (MappedByteBuffer[] stripeSegments : segments) {
+			for (MappedByteBuffer segment : stripeSegments) {
+				segment.force();
+				freeBuffer(segment);
+			}
+		}
+		segments = null;
+	}
+	
+	/**
+	 * Releases a mapped or direct buffer through sun.misc.Unsafe.invokeCleaner (Java 9+).
+	 * Does nothing if not available in the running platform.
+	 * @param buffer mapped or direct buffer to release
+	 */
+	static void freeBuffer(ByteBuffer buffer) {
+		try {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			invokeCleaner.invoke(theUnsafe.get(null), buffer);
+		} catch (Exception e) {
+			// Java 8 or restricted platform: the memory is released when collected.
+		}
+	}
+	
+	/**
+	 * Gets the mode in which blocks are moved between the disk file and memory.
+	 * @return RAF_IO, MMAP_IO or CHANNEL_IO
+	 */
+	public int getIOMode() {
+		return ioMode;
+	}
+	
+	/**
+	 * Gets the durability policy of the disk unit.
+	 * @return one of the DURABILITY_ policies
+	 */
+	public int getDurability() {
+		return durability;
+	}
+	
+	/**
+	 * Changes the durability policy of the disk unit. The policy is
+	 * stored in the disk with the rest of the control data.
+	 * @param durability one of the DURABILITY_ policies
+	 * @throws InvalidParameterException whenever the policy is not valid.
+	 */
+	public synchronized void setDurability(int durability) throws InvalidParameterException {
+		if (!isValidDurability(durability))
+			throw new InvalidParameterException("Invalid durability policy: " + durability);
+		this.durability = durability;
+		superBlock.setDurability(durability);
+	}
+	
+	private static boolean isValidDurability(int durability) {
+		return durability >= DURABILITY_NONE && durability <= DURABILITY_WRITE;
+	}
+	
+	/**
+	 * Forces every change of the disk file into the storage device, whatever
+	 * the durability policy. The time spent is added to the force statistics.
+	 * Blocks and control data kept in memory are not written; see sync().
+	 */
+	public synchronized void force() {
+		long start = System.nanoTime();
+		try {
+			if (segments != null) {
+				for (MappedByteBuffer[] stripeSegments : segments)
+					for (MappedByteBuffer segment : stripeSegments)
+						segment.force();
+			} else {
+				for (FileChannel channel : channels)
+					channel.force(false);
+			}
+			if (checksums != null)
+				checksums.force();
+			if (refs != null)
+				refs.force();
+			if (snapshot != null)
+				snapshot.force();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		forceNanos += System.nanoTime() - start;
+		forceCount++;
+	}
+	
+	/**
+	 * Gets the number of times the disk file was forced since the disk was mounted.
+	 * @return number of forces
+	 */
+	public long getForceCount() {
+		return forceCount;
+	}
+	
+	/**
+	 * Gets the time spent forcing the disk file since the disk was mounted.
+	 * @return nanoseconds spent in force
+	 */
+	public long getForceNanos() {
+		return forceNanos;
+	}
+	
+	/**
+	 * Replaces the block cache of the disk unit. The dirty blocks of the
+	 * previous cache, if any, are written into the disk first.
+	 * @param maxBlocks Maximum number of blocks to cache; 0 to use no cache.
+	 * @param policy BlockCache.WRITE_THROUGH or BlockCache.WRITE_BACK
+	 */
+	public void setCache(int maxBlocks, int policy) {
+		setCache(maxBlocks, policy, false);
+	}
+	
+	/**
+	 * Replaces the block cache of the disk unit. The dirty blocks of the
+	 * previous cache, if any, are written into the disk first.
+	 * @param maxBlocks Maximum number of blocks to cache; 0 to use no cache.
+	 * @param policy BlockCache.WRITE_THROUGH or BlockCache.WRITE_BACK
+	 * @param offHeap true to keep the cached blocks outside the Java heap.
+	 */
+	public synchronized void setCache(int maxBlocks, int policy, boolean offHeap) {
+		if (cache != null) {
+			cache.flush();
+			cache.release();
+		}
+		cache = (maxBlocks == 0 ? null : new BlockCache(this, maxBlocks, policy, offHeap));
+	}
+	
+	/**
+	 * Gets the pool of VirtualDiskBlock instances of the disk unit. Blocks taken
+	 * from it must be released once they are no longer needed.
+	 * @return the BlockPool of the disk unit
+	 */
+	public BlockPool getBlockPool() {
+		return pool;
+	}
+	
+	/**
+	 * Gets the block cache of the disk unit.
+	 * @return the BlockCache in use, or null if the disk has no cache.
+	 */
+	public BlockCache getCache() {
+		return cache;
+	}
 	/**
 	 * Creates a new disk unit with the given name. The disk is formatted
 	 * as having default capacity (number of blocks), each of default
@@ -97,32 +567,138 @@ public class DiskUnit implements DiskUnitInterface{
 	*/
 	public static void createDiskUnit(String name, int capacity, int blockSize) 
 			throws ExistingDiskException, InvalidParameterException {
+		createDiskUnit(name, capacity, blockSize, 1);
+	}
+	
+	/**
+	 * Creates a new disk unit with the given name whose blocks are spread over
+	 * several files (stripes), block b being stored in file b % stripes. The
+	 * files of the stripes other than 0 may already exist as links to files in 
+	 * other file systems. The created disk is left as in off mode.
+	 * @param name the name of the file that is to represent the disk.
+	 * @param capacity number of blocks in the new disk
+	 * @param blockSize size per block in the new disk
+	 * @param stripes number of files of the disk, from 1 to MAX_STRIPES
+	 * @throws ExistingDiskException whenever the name attempted is
+	 * already in use.
+	 * @throws InvalidParameterException whenever the values for capacity,
+	 *  blockSize or stripes are not valid according to the specifications
+	*/
+	public static void createDiskUnit(String name, int capacity, int blockSize, int stripes) 
+			throws ExistingDiskException, InvalidParameterException {
+		createDiskUnit(name, capacity, blockSize, stripes, false);
+	}
+	
+	/**
+	 * Creates a new disk unit with the given name, which may be thin provisioned. 
+	 * The i-node table of a thin disk is not written and its free blocks are not 
+	 * linked in the free block structure: they are given out in order from the 
+	 * first unused block, kept in block 0. The unwritten blocks stay as holes in 
+	 * the files, so the disk takes almost no space on the host until it is used.
+	 * The created disk is left as in off mode.
+	 * @param name the name of the file that is to represent the disk.
+	 * @param capacity number of blocks in the new disk
+	 * @param blockSize size per block in the new disk
+	 * @param stripes number of files of the disk, from 1 to MAX_STRIPES
+	 * @param thin true if the disk is thin provisioned
+	 * @throws ExistingDiskException whenever the name attempted is
+	 * already in use.
+	 * @throws InvalidParameterException whenever the values for capacity,
+	 *  blockSize or stripes are not valid according to the specifications
+	*/
+	public static void createDiskUnit(String name, int capacity, int blockSize, int stripes, boolean thin) 
+			throws ExistingDiskException, InvalidParameterException {
+		createDiskUnit(name, capacity, blockSize, stripes, thin, INodeManager.CHAINED_FORMAT);
+	}
+	
+	/**
+	 * Creates a new disk unit with the given name and format of i-nodes. The
+	 * i-nodes in INodeManager.CHAINED_FORMAT keep the first block of each file,
+	 * whose blocks are linked; those in INodeManager.INDEXED_FORMAT also keep 
+	 * direct, single indirect and double indirect pointers to the blocks of the
+	 * data files, which need blocks of at least INodeManager.INDEXED_INODE_SIZE
+	 * bytes. The format is kept in block 0 after the control data.
+	 * The created disk is left as in off mode.
+	 * @param name the name of the file that is to represent the disk.
+	 * @param capacity number of blocks in the new disk
+	 * @param blockSize size per block in the new disk
+	 * @param stripes number of files of the disk, from 1 to MAX_STRIPES
+	 * @param thin true if the disk is thin provisioned
+	 * @param iNodeFormat INodeManager.CHAINED_FORMAT or INodeManager.INDEXED_FORMAT
+	 * @throws ExistingDiskException whenever the name attempted is
+	 * already in use.
+	 * @throws InvalidParameterException whenever the values for capacity,
+	 *  blockSize, stripes or iNodeFormat are not valid according to the specifications
+	*/
+	public static void createDiskUnit(String name, int capacity, int blockSize, int stripes, boolean thin, int iNodeFormat) 
+			throws ExistingDiskException, InvalidParameterException {
+		createDiskUnit(name, capacity, blockSize, stripes, thin, iNodeFormat, FreeBlockManager.FIRST_FIT);
+	}
+	
+	/**
+	 * Creates a new disk unit with the given name, format of i-nodes and 
+	 * allocator of its free blocks. With FreeBlockManager.BUDDY, the blocks are
+	 * given out in runs of a buddy system (see BuddyAllocator), which keeps the
+	 * blocks of large files contiguous; it needs blocks of more than 
+	 * SuperBlock.SIZE bytes, and can't be used by a thin disk, whose blocks are 
+	 * given out in order. The allocator is kept in block 0 after the i-node format.
+	 * The created disk is left as in off mode.
+	 * @param name the name of the file that is to represent the disk.
+	 * @param capacity number of blocks in the new disk
+	 * @param blockSize size per block in the new disk
+	 * @param stripes number of files of the disk, from 1 to MAX_STRIPES
+	 * @param thin true if the disk is thin provisioned
+	 * @param iNodeFormat INodeManager.CHAINED_FORMAT or INodeManager.INDEXED_FORMAT
+	 * @param allocator FreeBlockManager.FIRST_FIT or FreeBlockManager.BUDDY
+	 * @throws ExistingDiskException whenever the name attempted is
+	 * already in use.
+	 * @throws InvalidParameterException whenever the values for capacity,
+	 *  blockSize, stripes, iNodeFormat or allocator are not valid according to the specifications
+	*/
+	public static void createDiskUnit(String name, int capacity, int blockSize, int stripes, boolean thin, int iNodeFormat, int allocator) 
+			throws ExistingDiskException, InvalidParameterException {
 		File file=new File("DiskUnits",name);
 		if (file.exists())
 			throw new ExistingDiskException("Disk name is already used: " + name);
 
-		RandomAccessFile disk = null;
 		if (capacity < 0 || blockSize < 32 ||
 				!isPowerOfTwo(capacity) || !isPowerOfTwo(blockSize))
 			throw new InvalidParameterException("Invalid values: " +
 					" capacity = " + capacity + " block size = " +
 					blockSize);
-		// disk parameters are valid... hence create the file to represent the
+		if (stripes < 1 || stripes > MAX_STRIPES || stripes > capacity)
+			throw new InvalidParameterException("Invalid number of stripes: " + stripes);
+		if (iNodeFormat != INodeManager.CHAINED_FORMAT && iNodeFormat != INodeManager.INDEXED_FORMAT)
+			throw new InvalidParameterException("Invalid i-node format: " + iNodeFormat);
+		if (blockSize < INodeManager.getINodeSize(iNodeFormat))
+			throw new InvalidParameterException("Indexed i-nodes need blocks of at least " + 
+					INodeManager.INDEXED_INODE_SIZE + " bytes: block size = " + blockSize);
+		if (allocator != FreeBlockManager.FIRST_FIT && allocator != FreeBlockManager.BUDDY)
+			throw new InvalidParameterException("Invalid allocator: " + allocator);
+		if (allocator == FreeBlockManager.BUDDY && blockSize <= SuperBlock.ALLOCATOR_POS)
+			throw new InvalidParameterException("The buddy allocator needs blocks of more than " + 
+					SuperBlock.SIZE + " bytes: block size = " + blockSize);
+		if (allocator == FreeBlockManager.BUDDY && thin)
+			throw new InvalidParameterException("A thin disk gives out its blocks in order; it can't use the buddy allocator.");
+		// disk parameters are valid... hence create the files to represent the
 		// disk unit.
+		RandomAccessFile[] files = new RandomAccessFile[stripes];
 		try {
-			disk = new RandomAccessFile(file, "rw");
+			for (int i=0; i < stripes; i++)
+				files[i] = new RandomAccessFile(stripeFile(name, i), "rw");
 		}
 		catch (IOException e) {
 			System.err.println ("Unable to start the disk");
 			System.exit(1);
 		}
 
-		reserveDiskSpace(disk, capacity, blockSize);
+		reserveDiskSpace(files, capacity, blockSize, thin, iNodeFormat, allocator);
 
 		// after creation, just leave it in shutdown mode - just
-		// close the corresponding file
+		// close the corresponding files
 		try {
-			disk.close();
+			for (RandomAccessFile disk : files)
+				disk.close();
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
@@ -130,14 +706,20 @@ public class DiskUnit implements DiskUnitInterface{
 	}
 	/**
 	 * Reserve Disk Space
-	 * @param disk
+	 * @param files files of the stripes of the disk; one if the disk is not striped
 	 * @param capacity
 	 * @param blockSize
+	 * @param thin true to leave the i-node table unwritten and record the first unused block
+	 * @param iNodeFormat format of the i-nodes (see INodeManager)
+	 * @param allocator allocator of the free blocks (see FreeBlockManager)
 	 */
-	private static void reserveDiskSpace(RandomAccessFile disk, int capacity, int blockSize)
+	private static void reserveDiskSpace(RandomAccessFile[] files, int capacity, int blockSize, boolean thin, int iNodeFormat, int allocator)
 	{
+		int stripes = files.length;
+		RandomAccessFile disk = files[0];   // holds block 0
 		try {
-			disk.setLength(blockSize * capacity);
+			for (int i=0; i < stripes; i++)
+				files[i].setLength((long) blockSize * ((capacity - i + stripes - 1) / stripes));
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
@@ -148,8 +730,12 @@ public class DiskUnit implements DiskUnitInterface{
 			disk.writeInt(capacity);  // Writes into disk the capacity
 			disk.writeInt(blockSize); // Writes into disk the blockSize
 			
-			int iNodeNum = (int) (blockSize * capacity * 0.01) / 9;      // number of i-nodes in disk instance
-			int numOfINodeBlocks =  (int) Math.max(1, Math.ceil(I_NODE_SIZE * ( (double)iNodeNum / blockSize)));  // index of the block reserved for i-nodes
+			int iNodeSize = INodeManager.getINodeSize(iNodeFormat);
+			// number of i-nodes in disk instance, the root and a file at least; as many as 9-byte
+			// i-nodes fit in 1% of the disk in any format, so the wider indexed i-nodes take about 7%
+			int iNodeNum = Math.max(2, (int) ((long) blockSize * capacity * 0.01) / INodeManager.CHAINED_INODE_SIZE);
+			int nodesPerBlock = blockSize / iNodeSize;   // an i-node doesn't cross the end of a block
+			int numOfINodeBlocks =  Math.max(1, (iNodeNum + nodesPerBlock - 1) / nodesPerBlock);  // blocks reserved for i-nodes
 			int nextFreeBlock = 0;             //TODO: Finish this implementation
 			int firstFreeINode = 1;    // index of first free i-node,adds 9 because root takes the first i-node.
 			
@@ -157,8 +743,24 @@ public class DiskUnit implements DiskUnitInterface{
 			disk.writeInt(nextFreeBlock);        // Writes into disk the index representing top 4 bytes position in block firstFLB
 			disk.writeInt(firstFreeINode);       // Writes into disk the byte index of first free i-node
 			disk.writeInt(iNodeNum);             // Writes into disk the total number of i-nodes in the disk (free + taken)
+			if (stripes > 1) {
+				disk.seek(25);
+				disk.writeByte(stripes);         // Writes into disk the number of stripes
+			}
+			if (iNodeFormat != INodeManager.CHAINED_FORMAT) {
+				disk.seek(SuperBlock.FORMAT_POS);
+				disk.writeByte(iNodeFormat);     // Writes into disk the format of the i-nodes, after the control data
+			}
+			if (allocator != FreeBlockManager.FIRST_FIT) {
+				disk.seek(SuperBlock.ALLOCATOR_POS);
+				disk.writeByte(allocator);       // Writes into disk the allocator of the free blocks, after the i-node format
+			}
 			
-			reserveINodesSpace(disk, capacity, blockSize, iNodeNum, numOfINodeBlocks); // Reserve i-node space
+			if (thin) {   // the free i-nodes are zeroes, the holes of the file
+				disk.seek(28);
+				disk.writeInt(numOfINodeBlocks + 2); // Writes into disk the first unused block
+			} else
+				reserveINodesSpace(files, capacity, blockSize, iNodeNum, numOfINodeBlocks, iNodeSize); // Reserve i-node space
 		
 			
 		} catch (IOException e) {
@@ -167,21 +769,27 @@ public class DiskUnit implements DiskUnitInterface{
 	}
 	
 	/**
-	  * Reserves space for the i-nodes in the disk.
-	  * @param disk RandomAccessFile in which to write.
+	  * Reserves space for the i-nodes in the disk. Each free i-node holds the
+	  * index of the next one where a file holds its first block; the rest of 
+	  * the i-node is left with zeroes.
+	  * @param files files of the stripes of the disk in which to write.
 	  *	@param capacity Amount of blocks in disk unit
 	  * @param blockSize Bytes per block
+	  * @param iNodeSize Bytes per i-node
 	  */
-	private static void reserveINodesSpace(RandomAccessFile disk, int capacity, int blockSize, int numOfINodes, int numOfINodeBlocks) {
+	private static void reserveINodesSpace(RandomAccessFile[] files, int capacity, int blockSize, int numOfINodes, int numOfINodeBlocks, int iNodeSize) {
 		
-		int nodesPerBlock = blockSize / 9;
+		int nodesPerBlock = blockSize / iNodeSize;
 		int firstINode = 0;
 		int iNodeCounter = 0;              // Counts the amount of i-nodes created   
 		try {
 			for (int i=firstINode; i < numOfINodeBlocks; i++) { // Iterates through the disk blocks with i-nodes.
-				disk.seek((i*blockSize)+blockSize);
+				int blockNum = i+1;
+				RandomAccessFile disk = files[blockNum % files.length];
+				long blockPos = (long) (blockNum / files.length) * blockSize;
 				
 				for (int j=0; j < nodesPerBlock; j++) {  // Creates the amount of i-nodes that fit inside a block.
+					disk.seek(blockPos + (long) j * iNodeSize);
 					iNodeCounter++;
 					if (iNodeCounter == numOfINodes) {			
 						disk.writeInt(0);			  // Number of first file block or 0 because there aren't more i-nodes. (First block)
@@ -190,7 +798,7 @@ public class DiskUnit implements DiskUnitInterface{
 						return;
 					} 
 					
-					disk.writeInt((i*3)+j+1);           // (i*3)+j+1 points to the iNode index of the next i-node in the same block. Ej. 0,1,2,3,...
+					disk.writeInt(iNodeCounter);      // Index of the next i-node, in this block or the next one. Ej. 1,2,3,...
 					disk.writeInt(0);                 // Number of bytes the file has. (Size)
 					disk.writeBoolean(false);	      // Indicates if i-node corresponds to a file or directory. Is 0 if it is a data file. (Type)
 					
@@ -213,18 +821,21 @@ public class DiskUnit implements DiskUnitInterface{
 
 	
 	@Override
-	public void write(int blockNum, VirtualDiskBlock b) throws InvalidBlockNumberException, InvalidBlockException {
+	public synchronized void write(int blockNum, VirtualDiskBlock b) throws InvalidBlockNumberException, InvalidBlockException {
 		
+		checkWritable();
 		try {
 			if (blockNum < 1 || blockNum >= capacity)
 				throw new InvalidBlockNumberException("The block number "+blockNum+" is invalid.");
-			if (b == null || b.getCapacity() != blockSize)
+			if (!isValidBlock(b))
 				throw new InvalidBlockException("Invalid block instance.");
 			
-			int bytePos = blockNum * blockSize;
-			disk.seek(bytePos);
-			for (int i=0; i < b.getCapacity(); i++)
-				disk.write(b.getElement(i));
+			if (cache != null)
+				cache.writeBlock(blockNum, b.getElements());
+			else
+				writeBlock(blockNum, b.getElements());
+			if (durability == DURABILITY_WRITE)
+				sync();
 			
 		} catch (InvalidBlockNumberException e) {
 			e.printStackTrace();
@@ -237,18 +848,18 @@ public class DiskUnit implements DiskUnitInterface{
 	}
 
 	@Override
-	public void read(int blockNum, VirtualDiskBlock b) throws InvalidBlockNumberException, InvalidBlockException {
+	public synchronized void read(int blockNum, VirtualDiskBlock b) throws InvalidBlockNumberException, InvalidBlockException {
 		
 		try {
 			if (blockNum < 0 || blockNum >= capacity)
 				throw new InvalidBlockNumberException("The block number "+blockNum+" is invalid.");
-			if (b == null || b.getCapacity() != blockSize)
+			if (!isValidBlock(b))
 				throw new InvalidBlockException("Invalid block instance.");
 			
-			int bytePos = blockNum * blockSize;
-			disk.seek(bytePos);
-			for (int i=0; i < b.getCapacity(); i++)
-				b.setElement(i, disk.readByte());
+			if (cache != null)
+				cache.readBlock(blockNum, b.getElements());
+			else
+				readBlock(blockNum, b.getElements());
 			
 		} catch (InvalidBlockNumberException e) {
 			e.printStackTrace();
@@ -260,138 +871,1137 @@ public class DiskUnit implements DiskUnitInterface{
 	}
 
 	@Override
-	public int getCapacity() {
+	public synchronized void writeBlocks(int[] blockNums, VirtualDiskBlock[] src) throws InvalidBlockNumberException, InvalidBlockException {
+		
+		checkWritable();
 		try {
-			disk.seek(0);
-			return disk.readInt();
+			checkBatch(blockNums, src, 1);
+			byte[][] data = new byte[src.length][];
+			for (int i=0; i < src.length; i++)
+				data[i] = src[i].getElements();
+			if (cache != null)
+				cache.writeBlocks(blockNums, data);
+			else
+				writeBlocks(blockNums, data);
+			if (durability == DURABILITY_WRITE)
+				sync();
+			
+		} catch (InvalidBlockNumberException e) {
+			e.printStackTrace();
+		} catch (InvalidBlockException e) {
+			e.printStackTrace();
 		} catch (IOException e) {
 			e.printStackTrace();
-		}
-		return 0;
-
+		} 	
 	}
-
+	
 	@Override
-	public int getBlockSize() {
+	public synchronized void readBlocks(int[] blockNums, VirtualDiskBlock[] dst) throws InvalidBlockNumberException, InvalidBlockException {
+		
 		try {
-			disk.seek(4);
-			return disk.readInt();
+			checkBatch(blockNums, dst, 0);
+			byte[][] data = new byte[dst.length][];
+			for (int i=0; i < dst.length; i++)
+				data[i] = dst[i].getElements();
+			if (cache != null)
+				cache.readBlocks(blockNums, data);
+			else
+				readBlocks(blockNums, data);
+			
+		} catch (InvalidBlockNumberException e) {
+			e.printStackTrace();
+		} catch (InvalidBlockException e) {
+			e.printStackTrace();
 		} catch (IOException e) {
 			e.printStackTrace();
-		}
-		return 0;
+		} 	
 	}
+	
 	/**
-	 * Gets the index of the first block (the root) in the collection of 
-	 * free data blocks in the disk (firstFLB)
-	 * @return Integer referring to firstFLB
+	 * Reads a block without blocking the caller. The request is queued to the I/O 
+	 * thread of the disk unit, which serves the asynchronous requests in the order 
+	 * they were made. The block is taken from the block pool of the disk, and should 
+	 * be released to it once it is no longer needed.
+	 * @param blockNum number of the block to read
+	 * @return future completed with a VirtualDiskBlock holding the content of the block,
+	 *  or completed exceptionally with InvalidBlockNumberException.
 	 */
-	public int getFirstDataBlock() {
-		try {
-			disk.seek(8);
-			return disk.readInt();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-		return -1;
+	public CompletableFuture<VirtualDiskBlock> readAsync(int blockNum) {
+		return CompletableFuture.supplyAsync(() -> {
+			if (blockNum < 0 || blockNum >= capacity)
+				throw new InvalidBlockNumberException("The block number "+blockNum+" is invalid.");
+			VirtualDiskBlock vdb = pool.acquire();
+			try {
+				read(blockNum, vdb);
+			} catch (CorruptBlockException e) {
+				pool.release(vdb);
+				throw e;
+			}
+			return vdb;
+		}, ioExecutor());
 	}
+	
 	/**
-	 * Sets the index of the first block (the root) in the collection of 
-	 * free data blocks in the disk (firstFLB)
-	 * @param firstDataBlock New Index of the first block in the free blocks
+	 * Writes a block without blocking the caller. The request is queued to the I/O 
+	 * thread of the disk unit, which serves the asynchronous requests in the order 
+	 * they were made. The content of b must not change until the future completes.
+	 * @param blockNum number of the block to write
+	 * @param b block with the new content
+	 * @return future completed once the block is written, or completed exceptionally
+	 *  with InvalidBlockNumberException or InvalidBlockException.
 	 */
-	public void setFirstDataBlock(int firstDataBlock) {
-		try {
-			disk.seek(8);
-			disk.writeInt(firstDataBlock);
-		} catch (IOException e) {
-			e.printStackTrace();
+	public CompletableFuture<Void> writeAsync(int blockNum, VirtualDiskBlock b) {
+		return CompletableFuture.runAsync(() -> {
+			if (blockNum < 1 || blockNum >= capacity)
+				throw new InvalidBlockNumberException("The block number "+blockNum+" is invalid.");
+			if (!isValidBlock(b))
+				throw new InvalidBlockException("Invalid block instance.");
+			write(blockNum, b);
+		}, ioExecutor());
+	}
+	
+	/**
+	 * Called by the traversals of block chains for each block they read, as 
+	 * only they know the last 4 bytes of the block are the number of the next 
+	 * one. When the traversal goes on from the block before (the block whose 
+	 * number it held, or the one right after it), the next blocks are prefetched
+	 * into the cache by the I/O thread. As the free blocks are handed out in 
+	 * order, the blocks of a chain tend to be adjacent, so readAhead blocks next
+	 * to the next block of the chain (in the direction the chain goes) are read
+	 * in a single batch.
+	 * @param blockNum number of the block just read
+	 * @param next number stored in the last 4 bytes of the block
+	 */
+	synchronized void readAheadAfter(int blockNum, int next) {
+		boolean sequential = (blockNum == chainNext || blockNum == lastReadBlock + 1);
+		lastReadBlock = blockNum;
+		chainNext = next;
+		if (!sequential || readAhead == 0 || cache == null || next < 1 || next >= capacity)
+			return;
+		
+		int first, end;
+		if (next >= blockNum) {   // the chain goes up
+			if (next >= windowStart && windowEnd - next > readAhead / 2)
+				return;   // enough blocks already requested ahead
+			first = next;
+			end = Math.min(capacity, next + readAhead);
+		} else {                  // the chain goes down
+			if (next < windowEnd && next - windowStart >= readAhead / 2)
+				return;
+			first = Math.max(1, next - readAhead + 1);
+			end = next + 1;
 		}
+		windowStart = first;
+		windowEnd = end;
+		ioExecutor().execute(() -> prefetch(first, end));
 	}
+	
 	/**
-	 * Gets the index representing the top 4-bytes position in 
-	 * block fistFLB that contains index of another free block. (flIndex)
-	 * @return Integer referring to the flIndex
+	 * Reads a range of blocks into the cache. Run by the I/O thread.
 	 */
-	public int getNextFreeBlock() {
+	private synchronized void prefetch(int first, int end) {
 		try {
-			disk.seek(12);
-			return disk.readInt();
+			if (cache != null)
+				cache.prefetch(first, end);
 		} catch (IOException e) {
 			e.printStackTrace();
+		} catch (CorruptBlockException e) {
+			// reported when the damaged block is actually read
 		}
-		return -1;
 	}
+	
 	/**
-	 * Sets the index representing the top 4-bytes position in 
-	 * block fistFLB that contains index of another free block. (flIndex)
-	 * @param nextFreeBlock New value of flIndex
+	 * Gets the number of blocks prefetched when a block chain is being traversed.
+	 * @return blocks read ahead; 0 if readahead is disabled.
 	 */
-	public void setNextFreeBlock(int nextFreeBlock) {
+	public int getReadAhead() {
+		return readAhead;
+	}
+	
+	/**
+	 * Changes the number of blocks prefetched when a block chain is being 
+	 * traversed. Readahead needs the block cache, where the blocks are kept.
+	 * @param readAhead blocks read ahead; 0 to disable readahead.
+	 */
+	public synchronized void setReadAhead(int readAhead) {
+		if (readAhead < 0)
+			throw new InvalidParameterException("Invalid readahead: " + readAhead);
+		this.readAhead = readAhead;
+		windowStart = windowEnd = 0;
+	}
+	
+	/**
+	 * Gets the thread serving the asynchronous requests, starting it if needed.
+	 * @return single thread executor of the disk unit
+	 */
+	private synchronized ExecutorService ioExecutor() {
+		if (ioExecutor == null) {
+			ioExecutor = Executors.newSingleThreadExecutor(r -> {
+				Thread t = new Thread(r, "DiskUnit I/O");
+				t.setDaemon(true);
+				return t;
+			});
+		}
+		return ioExecutor;
+	}
+	
+	/**
+	 * Waits until the I/O thread has run the requests queued so far,
+	 * the prefetches of readahead included. The disk unit must not be
+	 * locked by the caller, as those requests lock it.
+	 */
+	void awaitIO() {
+		ExecutorService executor;
+		synchronized (this) {
+			executor = ioExecutor;
+		}
+		if (executor == null)
+			return;
 		try {
-			disk.seek(12);
-			disk.writeInt(nextFreeBlock);
+			executor.submit(() -> {}).get();
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		} catch (ExecutionException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Verifies that blocks can be written into the disk unit.
+	 * @throws ReadOnlyDiskException whenever the disk is mounted read-only.
+	 */
+	private void checkWritable() throws ReadOnlyDiskException {
+		if (readOnly)
+			throw new ReadOnlyDiskException("The snapshot of disk "+name+" is mounted read-only.");
+	}
+	
+	/**
+	 * Verifies that a batch of blocks is valid for the current disk instance.
+	 * @param blockNums numbers of the blocks in the batch
+	 * @param blocks one VirtualDiskBlock per block number
+	 * @param firstValid smallest valid block number (1 for writes, 0 for reads)
+	 */
+	void checkBatch(int[] blockNums, VirtualDiskBlock[] blocks, int firstValid) 
+			throws InvalidBlockNumberException, InvalidBlockException {
+		if (blockNums == null || blocks == null || blockNums.length != blocks.length)
+			throw new InvalidBlockException("Invalid batch of blocks.");
+		for (int i=0; i < blockNums.length; i++) {
+			if (blockNums[i] < firstValid || blockNums[i] >= capacity)
+				throw new InvalidBlockNumberException("The block number "+blockNums[i]+" is invalid.");
+			if (!isValidBlock(blocks[i]))
+				throw new InvalidBlockException("Invalid block instance.");
+		}
+	}
+	
+	/**
+	 * Verifies that a VirtualDiskBlock can be read into or written from
+	 * the current disk instance. Views returned by viewBlock can't.
+	 * @param b block to verify
+	 * @return true if the block has blockSize bytes of its own
+	 */
+	boolean isValidBlock(VirtualDiskBlock b) {
+		return b != null && b.getCapacity() == blockSize && !b.isView();
+	}
+	
+	/**
+	 * Returns a read-only VirtualDiskBlock sharing the content of a block,
+	 * without copying it: the view is over the cached block, or over the
+	 * memory mapping when the disk is mapped and has no cache. Otherwise
+	 * the block is read into a new VirtualDiskBlock. The view must only be 
+	 * used until the next operation on the disk unit, and can't be passed 
+	 * to read or write.
+	 * @param blockNum number of the block
+	 * @return read-only view of the block
+	 * @throws InvalidBlockNumberException whenever the block number is not valid.
+	 */
+	public synchronized VirtualDiskBlock viewBlock(int blockNum) throws InvalidBlockNumberException {
+		if (blockNum < 1 || blockNum >= capacity)
+			throw new InvalidBlockNumberException("The block number "+blockNum+" is invalid.");
+		try {
+			if (cache != null) {
+				return cache.view(blockNum);
+			}
+			if (ioMode == MMAP_IO && checksums == null && snapshot == null) {
+				ByteBuffer block = mappedBlock(blockNum);
+				block.limit(block.position() + blockSize);
+				return new VirtualDiskBlock(block.slice().asReadOnlyBuffer());
+			}
+			VirtualDiskBlock vdb = new VirtualDiskBlock(blockSize);
+			readBlock(blockNum, vdb.getElements());
+			return vdb;
 		} catch (IOException e) {
 			e.printStackTrace();
+			return new VirtualDiskBlock(blockSize);
 		}
 	}
+	
 	/**
-	 * Gets index of the first free i-node in the list of free i-nodes.
-	 * @return Returns index of the first free i-node in the list of free i-nodes.
+	 * Orders a batch of block numbers. Each entry of the result holds a block
+	 * number in its upper 32 bits and its index in the batch in the lower 32 bits,
+	 * so equal block numbers keep the order they have in the batch.
+	 * @param blockNums numbers of the blocks in the batch
+	 * @return entries sorted by block number
 	 */
-	public int getFirstFreeINode() {
+	static long[] sortedOrder(int[] blockNums) {
+		long[] order = new long[blockNums.length];
+		for (int i=0; i < blockNums.length; i++)
+			order[i] = ((long) blockNums[i] << 32) | i;
+		Arrays.sort(order);
+		return order;
+	}
+	
+	/**
+	 * Finds where the run of adjacent block numbers starting at order[first] ends.
+	 * @param order entries returned by sortedOrder
+	 * @param first position of the first entry of the run
+	 * @return position right after the last entry of the run
+	 */
+	static int endOfRun(long[] order, int first) {
+		return endOfRun(order, first, 1);
+	}
+	
+	/**
+	 * Finds where the run of block numbers starting at order[first] ends, 
+	 * consecutive block numbers of the run differing by step. 
+	 * @param order entries returned by sortedOrder
+	 * @param first position of the first entry of the run
+	 * @param step difference between consecutive block numbers of the run
+	 * @return position right after the last entry of the run
+	 */
+	static int endOfRun(long[] order, int first, int step) {
+		int last = first;
+		while (last+1 < order.length && (order[last+1] >>> 32) == (order[last] >>> 32) + step)
+			last++;
+		return last+1;
+	}
+	
+	/**
+	 * Moves the blocks of a batch that belong to a single stripe.
+	 */
+	private interface StripeTransfer {
+		void transfer(int[] blockNums, byte[][] data) throws IOException;
+	}
+	
+	/**
+	 * Splits a batch by stripe and moves the part of each stripe with its 
+	 * own thread, returning once every part is done. Batches of a disk 
+	 * that is not striped, or with blocks of a single stripe, are moved 
+	 * by the calling thread.
+	 * @param blockNums numbers of the blocks in the batch
+	 * @param data one array of blockSize bytes per block number
+	 * @param transfer moves the part of one stripe
+	 * @throws IOException if a disk file can't be accessed
+	 */
+	private void transferByStripe(int[] blockNums, byte[][] data, StripeTransfer transfer) throws IOException {
+		int[] counts = new int[stripes];
+		for (int blockNum : blockNums)
+			counts[blockNum % stripes]++;
+		int busyStripes = 0;
+		for (int count : counts)
+			if (count > 0)
+				busyStripes++;
+		if (busyStripes <= 1) {
+			transfer.transfer(blockNums, data);
+			return;
+		}
+		
+		int[][] stripeNums = new int[stripes][];
+		byte[][][] stripeData = new byte[stripes][][];
+		for (int s=0; s < stripes; s++) {
+			stripeNums[s] = new int[counts[s]];
+			stripeData[s] = new byte[counts[s]][];
+			counts[s] = 0;
+		}
+		for (int i=0; i < blockNums.length; i++) {
+			int s = blockNums[i] % stripes;
+			stripeNums[s][counts[s]] = blockNums[i];
+			stripeData[s][counts[s]] = data[i];
+			counts[s]++;
+		}
+		ArrayList<Future<Void>> parts = new ArrayList<>();
+		for (int s=0; s < stripes; s++) {
+			if (counts[s] == 0)
+				continue;
+			int[] nums = stripeNums[s];
+			byte[][] arrays = stripeData[s];
+			parts.add(stripeExecutor().submit(() -> {
+				transfer.transfer(nums, arrays);
+				return null;
+			}));
+		}
+		for (Future<Void> part : parts) {
+			try {
+				part.get();
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException("Interrupted while moving the blocks of a stripe.");
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException)
+					throw (IOException) e.getCause();
+				if (e.getCause() instanceof RuntimeException)
+					throw (RuntimeException) e.getCause();
+				throw new IOException(e.getCause());
+			}
+		}
+	}
+	
+	/**
+	 * Gets the threads moving the blocks of each stripe, starting them if needed.
+	 * @return executor with one thread per stripe
+	 */
+	private synchronized ExecutorService stripeExecutor() {
+		if (stripeExecutor == null) {
+			stripeExecutor = Executors.newFixedThreadPool(stripes, r -> {
+				Thread t = new Thread(r, "DiskUnit stripe I/O");
+				t.setDaemon(true);
+				return t;
+			});
+		}
+		return stripeExecutor;
+	}
+	
+	/**
+	 * Copies the content of several disk blocks into the given arrays. Each
+	 * run of blocks adjacent in a disk file is read with a single scattering 
+	 * FileChannel call in CHANNEL_IO mode. In a striped disk, the blocks of 
+	 * each stripe are read in parallel. The block numbers are assumed valid. 
+	 * The block cache is not involved.
+	 * @param blockNums numbers of the blocks to read
+	 * @param dst one array of blockSize bytes per block number
+	 * @throws IOException if the disk file can't be read
+	 */
+	void readBlocks(int[] blockNums, byte[][] dst) throws IOException {
+		if (snapshot != null) {   // each block may be in the disk files or in the snapshot file
+			for (int i=0; i < blockNums.length; i++)
+				readBlock(blockNums[i], dst[i]);
+			return;
+		}
+		transferByStripe(blockNums, dst, this::readRuns);
+	}
+	
+	/**
+	 * Reads a batch of blocks, run by run. Blocks of different stripes 
+	 * may be in the batch, but then they are read from one thread.
+	 * @param blockNums numbers of the blocks to read
+	 * @param dst one array of blockSize bytes per block number
+	 * @throws IOException if the disk file can't be read
+	 */
+	private void readRuns(int[] blockNums, byte[][] dst) throws IOException {
+		long[] order = sortedOrder(blockNums);
+		for (int first=0; first < order.length; ) {
+			int end = endOfRun(order, first, stripes);
+			int firstBlock = (int) (order[first] >>> 32);
+			if (ioMode == CHANNEL_IO) {
+				ByteBuffer[] buffers = new ByteBuffer[end-first];
+				for (int i=first; i < end; i++)
+					buffers[i-first] = ByteBuffer.wrap(dst[(int) order[i]], 0, blockSize);
+				FileChannel channel = channels[firstBlock % stripes];
+				channel.position(stripeOffset(firstBlock));
+				ByteBuffer last = buffers[buffers.length-1];
+				while (last.hasRemaining()) {
+					if (channel.read(buffers) < 0) {
+						for (ByteBuffer buffer : buffers)  // past the end of file: the blocks read as zeroes
+							while (buffer.hasRemaining())
+								buffer.put((byte) 0);
+					}
+				}
+				if (checksums != null)
+					for (int i=first; i < end; i++)
+						checksums.verify((int) (order[i] >>> 32), dst[(int) order[i]]);
+			} else {
+				for (int i=first; i < end; i++)
+					readBlock((int) (order[i] >>> 32), dst[(int) order[i]]);
+			}
+			first = end;
+		}
+	}
+	
+	/**
+	 * Copies the content of the given arrays into several disk blocks. Each
+	 * run of blocks adjacent in a disk file is written with a single gathering 
+	 * FileChannel call in CHANNEL_IO mode. In a striped disk, the blocks of 
+	 * each stripe are written in parallel. The block numbers are assumed valid. 
+	 * The block cache is not involved.
+	 * @param blockNums numbers of the blocks to write
+	 * @param src one array of blockSize bytes per block number
+	 * @throws IOException if the disk file can't be written
+	 */
+	void writeBlocks(int[] blockNums, byte[][] src) throws IOException {
+		checkWritable();
+		if (snapshot != null) {   // the disk files are frozen
+			for (int i=0; i < blockNums.length; i++)
+				writeBlock(blockNums[i], src[i]);
+			return;
+		}
+		transferByStripe(blockNums, src, this::writeRuns);
+	}
+	
+	/**
+	 * Writes a batch of blocks, run by run. Blocks of different stripes 
+	 * may be in the batch, but then they are written from one thread.
+	 * @param blockNums numbers of the blocks to write
+	 * @param src one array of blockSize bytes per block number
+	 * @throws IOException if the disk file can't be written
+	 */
+	private void writeRuns(int[] blockNums, byte[][] src) throws IOException {
+		long[] order = sortedOrder(blockNums);
+		for (int first=0; first < order.length; ) {
+			int end = endOfRun(order, first, stripes);
+			int firstBlock = (int) (order[first] >>> 32);
+			if (ioMode == CHANNEL_IO) {
+				ByteBuffer[] buffers = new ByteBuffer[end-first];
+				for (int i=first; i < end; i++) {
+					buffers[i-first] = ByteBuffer.wrap(src[(int) order[i]], 0, blockSize);
+					if (checksums != null)
+						checksums.update((int) (order[i] >>> 32), src[(int) order[i]]);
+				}
+				FileChannel channel = channels[firstBlock % stripes];
+				channel.position(stripeOffset(firstBlock));
+				ByteBuffer last = buffers[buffers.length-1];
+				while (last.hasRemaining())
+					channel.write(buffers);
+			} else {
+				for (int i=first; i < end; i++)
+					writeBlock((int) (order[i] >>> 32), src[(int) order[i]]);
+			}
+			first = end;
+		}
+	}
+	
+	/**
+	 * Copies the content of a disk block into the given array, using the
+	 * I/O mode the disk was mounted with. The block number is assumed valid.
+	 * The block cache is not involved.
+	 * @param blockNum number of the block to read
+	 * @param dst array of blockSize bytes
+	 * @throws IOException if the disk file can't be read
+	 */
+	void readBlock(int blockNum, byte[] dst) throws IOException {
+		if (snapshot != null && snapshot.read(blockNum, dst)) {   // written since the snapshot
+			if (checksums != null)
+				checksums.verify(blockNum, dst);
+			return;
+		}
+		long bytePos = stripeOffset(blockNum);
+		if (ioMode == CHANNEL_IO) {
+			FileChannel channel = channels[blockNum % stripes];
+			ByteBuffer buffer = ByteBuffer.wrap(dst, 0, blockSize);
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer, bytePos + buffer.position()) < 0) {
+					while (buffer.hasRemaining())   // past the end of file: the block reads as zeroes
+						buffer.put((byte) 0);
+				}
+			}
+		} else if (ioMode == MMAP_IO) {
+			mappedBlock(blockNum).get(dst, 0, blockSize);
+		} else {
+			RandomAccessFile disk = files[blockNum % stripes];
+			disk.seek(bytePos);
+			for (int i=0; i < blockSize; i++)
+				dst[i] = disk.readByte();
+		}
+		if (checksums != null)
+			checksums.verify(blockNum, dst);
+	}
+	
+	/**
+	 * Copies the content of the given array into a disk block, using the
+	 * I/O mode the disk was mounted with. The block number is assumed valid.
+	 * The block cache is not involved.
+	 * @param blockNum number of the block to write
+	 * @param src array of blockSize bytes
+	 * @throws IOException if the disk file can't be written
+	 */
+	void writeBlock(int blockNum, byte[] src) throws IOException {
+		checkWritable();
+		if (checksums != null)
+			checksums.update(blockNum, src);
+		if (snapshot != null) {   // the disk files are frozen
+			snapshot.write(blockNum, src);
+			return;
+		}
+		long bytePos = stripeOffset(blockNum);
+		if (ioMode == CHANNEL_IO) {
+			FileChannel channel = channels[blockNum % stripes];
+			ByteBuffer buffer = ByteBuffer.wrap(src, 0, blockSize);
+			while (buffer.hasRemaining())
+				channel.write(buffer, bytePos + buffer.position());
+		} else if (ioMode == MMAP_IO) {
+			mappedBlock(blockNum).put(src, 0, blockSize);
+		} else {
+			RandomAccessFile disk = files[blockNum % stripes];
+			disk.seek(bytePos);
+			for (int i=0; i < blockSize; i++)
+				disk.write(src[i]);
+		}
+	}
+
+	/**
+	 * Gets what is done when a block read doesn't match its checksum.
+	 * @return one of the BlockChecksums policies; OFF if the disk keeps no checksums.
+	 */
+	public int getChecksumPolicy() {
+		return checksums == null ? BlockChecksums.OFF : checksums.getPolicy();
+	}
+	
+	/**
+	 * Changes what is done when a block read doesn't match its checksum. When 
+	 * checksums are turned on, the checksum of every block is computed from its 
+	 * current content, which is trusted; turning them off deletes the table. The 
+	 * policy is stored in the disk, so it is used the next times the disk is mounted.
+	 * Turning checksums off and on again recomputes the table, e.g. after the disk 
+	 * files were changed outside the disk unit or the system went down before 
+	 * storing the table.
+	 * @param policy BlockChecksums.OFF, BlockChecksums.WARN or BlockChecksums.FAIL
+	 * @throws InvalidParameterException whenever the policy is not valid.
+	 */
+	public synchronized void setChecksumPolicy(int policy) throws InvalidParameterException {
+		if (policy < BlockChecksums.OFF || policy > BlockChecksums.FAIL)
+			throw new InvalidParameterException("Invalid checksum policy: " + policy);
 		try {
-			disk.seek(16);
-			return disk.readInt();
+			if (policy == BlockChecksums.OFF) {
+				if (checksums != null) {
+					checksums.close();
+					checksums = null;
+					checksumFile(name).delete();
+				}
+			} else if (checksums == null) {
+				if (cache != null)
+					cache.flush();   // the table is computed from the disk files
+				BlockChecksums table = new BlockChecksums(this, name, policy);
+				table.rebuild();
+				checksums = table;
+			} else {
+				checksums.setPolicy(policy);
+			}
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
-		return -1;
+		superBlock.setChecksums(policy);
 	}
+	
 	/**
-	 * Sets index of the first free i-node in the list of free i-nodes.
-	 * @param firstFreeINode New index of the first free i-node
+	 * Gets the checksum table of the disk unit.
+	 * @return the BlockChecksums in use, or null if the disk keeps no checksums.
 	 */
-	public void setFirstFreeINode(int firstFreeINode) {
+	public BlockChecksums getChecksums() {
+		return checksums;
+	}
+	
+	/**
+	 * Gets how the blocks of the files are shared.
+	 * @return one of the BlockRefs modes; NONE if every block belongs to a single file.
+	 */
+	public int getSharing() {
+		return refs == null ? BlockRefs.NONE : refs.getMode();
+	}
+	
+	/**
+	 * Changes how the blocks of the files are shared. When the reference counts 
+	 * are turned on, or deduplication is, the files of the disk are walked to 
+	 * count the references to each block and to index the content of the blocks 
+	 * of the data files. Reference counts can only be turned off while no block 
+	 * is shared. The mode is stored in the disk, so it is used the next times 
+	 * the disk is mounted.
+	 * @param mode BlockRefs.NONE, BlockRefs.COUNTED or BlockRefs.DEDUP
+	 * @throws InvalidParameterException whenever the mode is not valid, or
+	 *  it is NONE and some block is shared.
+	 * @throws CorruptBlockException whenever a block of the files doesn't match
+	 *  its checksum and the checksum policy is FAIL; the mode is left as it was.
+	 */
+	public synchronized void setSharing(int mode) throws InvalidParameterException, CorruptBlockException {
+		if (mode < BlockRefs.NONE || mode > BlockRefs.DEDUP)
+			throw new InvalidParameterException("Invalid sharing mode: " + mode);
 		try {
-			disk.seek(16);
-			disk.writeInt(firstFreeINode);
+			if (mode == BlockRefs.NONE) {
+				if (refs != null) {
+					if (refs.getSharedBlocks() > 0)
+						throw new InvalidParameterException("Blocks of disk "+name+" are shared by several files.");
+					refs.close();
+					refs = null;
+					refsFile(name).delete();
+				}
+			} else if (refs == null || (mode == BlockRefs.DEDUP && refs.getMode() != BlockRefs.DEDUP)) {
+				BlockRefs table = (refs == null ? new BlockRefs(this, name, mode) : refs);
+				int oldMode = table.getMode();
+				table.setMode(mode);
+				try {
+					table.recount();   // the blocks already stored are indexed too
+				} catch (CorruptBlockException e) {
+					if (table == refs) {
+						table.setMode(oldMode);
+					} else {
+						table.close();
+						refsFile(name).delete();
+					}
+					throw e;
+				}
+				refs = table;
+			} else {
+				refs.setMode(mode);
+			}
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
+		superBlock.setSharing(mode);
 	}
+	
 	/**
-	 * Gets number of total i-nodes that the disk has (all, those free plus those taken)
-	 * @return Returns number of total i-nodes that the disk has.
+	 * Gets the reference counts of the blocks of the disk unit.
+	 * @return the BlockRefs in use, or null if no block is shared.
 	 */
-	public int getiNodeNum() {
+	public BlockRefs getRefs() {
+		return refs;
+	}
+	
+	/**
+	 * Gets the free blocks of the disk unit kept in memory, building them 
+	 * from the free block structure stored in the disk the first time.
+	 * @return the FreeBlockMap of the disk, or null if the disk is read-only.
+	 */
+	public synchronized FreeBlockMap getFreeBlockMap() {
+		if (freeBlocks == null && !readOnly)
+			freeBlocks = new FreeBlockMap(this);
+		return freeBlocks;
+	}
+	
+	/**
+	 * Takes a snapshot of the disk: the blocks and control data kept in memory
+	 * are written, and from then on the disk files are frozen. Every block 
+	 * written afterwards goes to the snapshot file, so taking the snapshot costs
+	 * the remap table and a copy of the checksum and block reference tables,
+	 * whatever the content of the disk. A disk has one snapshot at most.
+	 * @param snapshotName the name of the snapshot
+	 * @throws InvalidParameterException whenever the disk already has a snapshot.
+	 */
+	public synchronized void createSnapshot(String snapshotName) throws InvalidParameterException {
+		checkWritable();
+		if (snapshot != null)
+			throw new InvalidParameterException("Disk "+name+" already has snapshot "+snapshot.getName()+".");
+		sync();   // the disk files and the tables hold the state being frozen
 		try {
-			disk.seek(20);
-			return disk.readInt();
+			DiskSnapshot.saveTable(checksumFile(name));
+			DiskSnapshot.saveTable(refsFile(name));
+			snapshot = DiskSnapshot.create(name, snapshotName, capacity, blockSize);
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
-		return -1;
+		force();
+	}
+	
+	/**
+	 * Deletes the snapshot of the disk, keeping the current content: the 
+	 * blocks written since the snapshot was taken are copied back into the
+	 * disk files, in batches, and the snapshot file is removed.
+	 * @return number of blocks copied back
+	 * @throws InvalidParameterException whenever the disk has no snapshot.
+	 */
+	public synchronized int deleteSnapshot() throws InvalidParameterException {
+		checkWritable();
+		if (snapshot == null)
+			throw new InvalidParameterException("Disk "+name+" has no snapshot.");
+		sync();
+		DiskSnapshot merged = snapshot;
+		int[] remapped = merged.getRemappedBlocks();
+		try {
+			byte[][] batch = new byte[Math.min(remapped.length, 256)][blockSize];
+			for (int first=0; first < remapped.length; first += batch.length) {
+				int count = Math.min(batch.length, remapped.length - first);
+				int[] blockNums = Arrays.copyOfRange(remapped, first, first + count);
+				byte[][] data = (count == batch.length ? batch : Arrays.copyOf(batch, count));
+				for (int i=0; i < count; i++)
+					merged.read(blockNums[i], data[i]);
+				snapshot = null;   // the batch goes into the disk files
+				writeBlocks(blockNums, data);
+				snapshot = merged;
+			}
+			snapshot = null;
+			merged.close();
+			snapshotFile(name).delete();
+			DiskSnapshot.discardTable(checksumFile(name));
+			DiskSnapshot.discardTable(refsFile(name));
+		} catch (IOException e) {
+			snapshot = merged;
+			e.printStackTrace();
+		}
+		force();
+		return remapped.length;
+	}
+	
+	/**
+	 * Rolls a disk unit back to its snapshot: the blocks written since the 
+	 * snapshot was taken are discarded, together with the snapshot, and the 
+	 * checksum and block reference tables are put back as they were. The 
+	 * disk must not be mounted.
+	 * @param name the name of the disk unit
+	 * @return name of the snapshot the disk was rolled back to
+	 * @throws NonExistingDiskException whenever the disk has no snapshot.
+	 */
+	public static String rollbackSnapshot(String name) throws NonExistingDiskException {
+		String snapshotName = DiskSnapshot.readName(name);
+		if (snapshotName == null)
+			throw new NonExistingDiskException("Disk "+name+" has no snapshot.");
+		try {
+			DiskSnapshot.restoreTable(checksumFile(name));
+			DiskSnapshot.restoreTable(refsFile(name));
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		snapshotFile(name).delete();
+		return snapshotName;
+	}
+	
+	/**
+	 * Gets the snapshot of the disk unit.
+	 * @return the DiskSnapshot in use, or null if the disk has no snapshot
+	 *  or the snapshot itself is mounted.
+	 */
+	public DiskSnapshot getSnapshot() {
+		return snapshot;
+	}
+	
+	/**
+	 * Determines if the disk unit is mounted read-only, as the snapshot of a disk is.
+	 * @return true if no block can be written
+	 */
+	public boolean isReadOnly() {
+		return readOnly;
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	/**
+	 * Gets the number of files the blocks of the disk are striped over.
+	 * @return number of stripes; 1 if the disk is not striped
+	 */
+	public int getStripes() {
+		return stripes;
+	}
+	
+	@Override
+	public int getCapacity() {
+		return capacity;
+	}
+
+	@Override
+	public int getBlockSize() {
+		return blockSize;
+	}
+	/**
+	 * Gets the index of the first block (the root) in the collection of 
+	 * free data blocks in the disk (firstFLB)
+	 * @return Integer referring to firstFLB
+	 */
+	public int getFirstDataBlock() {
+		return superBlock.getFirstDataBlock();
+	}
+	/**
+	 * Sets the index of the first block (the root) in the collection of 
+	 * free data blocks in the disk (firstFLB)
+	 * @param firstDataBlock New Index of the first block in the free blocks
+	 */
+	public void setFirstDataBlock(int firstDataBlock) {
+		superBlock.setFirstDataBlock(firstDataBlock);
+	}
+	/**
+	 * Gets the index representing the top 4-bytes position in 
+	 * block fistFLB that contains index of another free block. (flIndex)
+	 * @return Integer referring to the flIndex
+	 */
+	public int getNextFreeBlock() {
+		return superBlock.getNextFreeBlock();
+	}
+	/**
+	 * Sets the index representing the top 4-bytes position in 
+	 * block fistFLB that contains index of another free block. (flIndex)
+	 * @param nextFreeBlock New value of flIndex
+	 */
+	public void setNextFreeBlock(int nextFreeBlock) {
+		superBlock.setNextFreeBlock(nextFreeBlock);
+	}
+	/**
+	 * Gets index of the first free i-node in the list of free i-nodes.
+	 * @return Returns index of the first free i-node in the list of free i-nodes.
+	 */
+	public int getFirstFreeINode() {
+		return superBlock.getFirstFreeINode();
+	}
+	/**
+	 * Sets index of the first free i-node in the list of free i-nodes.
+	 * @param firstFreeINode New index of the first free i-node
+	 */
+	public void setFirstFreeINode(int firstFreeINode) {
+		superBlock.setFirstFreeINode(firstFreeINode);
+	}
+	/**
+	 * Gets number of total i-nodes that the disk has (all, those free plus those taken)
+	 * @return Returns number of total i-nodes that the disk has.
+	 */
+	public int getiNodeNum() {
+		return superBlock.getiNodeNum();
+	}
+	/**
+	 * Gets the first block of a thin disk that was never given out; it and the
+	 * blocks after it are free, though not in the free block structure.
+	 * @return Returns the first unused block, or 0 if the disk is not thin.
+	 */
+	public int getFirstUnusedBlock() {
+		return superBlock.getFirstUnusedBlock();
+	}
+	/**
+	 * Sets the first block of a thin disk that was never given out.
+	 * @param firstUnusedBlock New first unused block; capacity when every block was given out
+	 */
+	public void setFirstUnusedBlock(int firstUnusedBlock) {
+		superBlock.setFirstUnusedBlock(firstUnusedBlock);
+	}
+	/**
+	 * Determines if the disk is thin provisioned: its unused blocks and i-nodes
+	 * are given out in order, without being linked as free.
+	 * @return Returns true if the disk is thin provisioned.
+	 */
+	public boolean isThin() {
+		return superBlock.getFirstUnusedBlock() != 0;
+	}
+	/**
+	 * Gets the format of the i-nodes of the disk, set when it was created.
+	 * @return Returns INodeManager.CHAINED_FORMAT or INodeManager.INDEXED_FORMAT.
+	 */
+	public int getINodeFormat() {
+		return superBlock.getINodeFormat();
+	}
+	/**
+	 * Gets the allocator of the free blocks of the disk, set when it was created.
+	 * @return Returns FreeBlockManager.FIRST_FIT or FreeBlockManager.BUDDY.
+	 */
+	public int getAllocator() {
+		return superBlock.getAllocator();
+	}
+	/**
+	 * Gets the number of bytes of each i-node of the disk.
+	 * @return Returns the size of the i-nodes, given by their format.
+	 */
+	public int getINodeSize() {
+		return INodeManager.getINodeSize(superBlock.getINodeFormat());
+	}
+	
+	/**
+	 * Writes into the disk the dirty blocks of the cache and the control 
+	 * data kept in memory, if it changed since it was last written. With the 
+	 * DURABILITY_COMMAND and DURABILITY_WRITE policies the file is forced afterwards.
+	 */
+	public synchronized void sync() {
+		if (readOnly)
+			return;   // nothing can change
+		if (freeBlocks != null)
+			freeBlocks.store();
+		if (cache != null)
+			cache.flush();
+		if (superBlock.isDirty()) {
+			try {
+				byte[] block0 = new byte[blockSize];
+				readBlock(0, block0);
+				superBlock.copyToBytesArray(block0);
+				writeBlock(0, block0);
+				superBlock.clean();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		if (checksums != null) {
+			try {
+				checksums.store();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		if (refs != null) {
+			try {
+				refs.store();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		if (snapshot != null) {
+			try {
+				snapshot.store();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		if (durability >= DURABILITY_COMMAND)
+			force();
 	}
 
 	@Override
 	public void lowLevelFormat() {
+		lowLevelFormat(null);
+	}
+	
+	/**
+	 * Formats the disk, filling with zeroes every block but block 0. 
+	 * Each disk file is cut (right after block 0 for the first stripe) and 
+	 * extended again to its size, so the operating system provides the zeroes 
+	 * (leaving holes in the file where supported). When the disk is mapped in 
+	 * memory, or if a file can't be cut, the blocks are overwritten with large 
+	 * buffers of zeroes.
+	 * @param listener receives the progress of the format; may be null.
+	 */
+	public void lowLevelFormat(FormatListener listener) {
 		
-		VirtualDiskBlock vdb = new VirtualDiskBlock(blockSize);
-		for (int i=0; i<vdb.getCapacity(); i++) {
-			vdb.setElement(i, (byte) 0);
+		if (cache != null)
+			cache.invalidate();   // cached blocks are no longer valid
+		freeBlocks = null;        // and so are the free blocks
+		long start = System.nanoTime();
+		long totalBytes = (long) (capacity - 1) * blockSize;
+		
+		try {
+			if (ioMode != MMAP_IO) {
+				try {
+					for (int s=0; s < stripes; s++) {
+						files[s].setLength(s == 0 ? blockSize : 0);
+						files[s].setLength((long) stripeBlocks(s) * blockSize);
+					}
+					if (listener != null)
+						listener.formatProgress(totalBytes, totalBytes, System.nanoTime() - start);
+				} catch (IOException e) {
+					// a file can't be cut; overwrite them instead.
+					writeZeroes(listener, start);
+				}
+			} else {
+				writeZeroes(listener, start);
+			}
+			if (checksums != null) {   // the blocks were zeroed behind the table
+				BlockChecksums table = checksums;
+				checksums = null;      // the blocks are read without verifying them
+				try {
+					table.rebuild();
+				} finally {
+					checksums = table;
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
 		}
-		for (int bn=1; bn < capacity; bn++) {
-			write(bn, vdb);
+	}
+	
+	/**
+	 * Overwrites with zeroes every block but block 0, FORMAT_CHUNK_SIZE bytes at a time.
+	 * @param listener receives the progress; may be null.
+	 * @param start System.nanoTime() when the format began.
+	 * @throws IOException if a disk file can't be written
+	 */
+	private void writeZeroes(FormatListener listener, long start) throws IOException {
+		long totalBytes = (long) (capacity - 1) * blockSize;
+		byte[] zeroes = new byte[(int) Math.min(FORMAT_CHUNK_SIZE, Math.max(blockSize, totalBytes))];
+		long done = 0;
+		
+		for (int s=0; s < stripes; s++) {
+			long fileSize = (long) stripeBlocks(s) * blockSize;
+			for (long pos = (s == 0 ? blockSize : 0); pos < fileSize; ) {
+				int length = (int) Math.min(zeroes.length, fileSize - pos);
+				if (ioMode == MMAP_IO) {
+					// chunks are multiples of the block size, so they never cross a segment
+					ByteBuffer segment = segments[s][(int) (pos / MAP_SEGMENT_SIZE)].duplicate();
+					int offset = (int) (pos % MAP_SEGMENT_SIZE);
+					length = Math.min(length, segment.capacity() - offset);
+					segment.position(offset);
+					segment.put(zeroes, 0, length);
+				} else {
+					ByteBuffer buffer = ByteBuffer.wrap(zeroes, 0, length);
+					while (buffer.hasRemaining())
+						channels[s].write(buffer, pos + buffer.position());
+				}
+				pos += length;
+				done += length;
+				if (listener != null)
+					listener.formatProgress(done, totalBytes, System.nanoTime() - start);
+			}
 		}
+	}
+	
+	/**
+	 * Low level formats an existing disk unit and writes again its control
+	 * data and i-node table, leaving the disk as it was right after being 
+	 * created by createDiskUnit. The disk must not be mounted.
+	 * @param name the name of the disk unit to format
+	 * @param listener receives the progress of the format; may be null.
+	 * @throws NonExistingDiskException whenever no
+	 *    "disk" with the specified name is found.
+	 */
+	public static void formatDiskUnit(String name, FormatListener listener) throws NonExistingDiskException {
+		DiskUnit d = mount(name);
+		int capacity = d.getCapacity();
+		int blockSize = d.getBlockSize();
+		int stripes = d.getStripes();
+		int checksumPolicy = d.getChecksumPolicy();
+		int sharing = d.getSharing();
+		boolean thin = d.isThin();
+		int iNodeFormat = d.getINodeFormat();
+		int allocator = d.getAllocator();
+		d.lowLevelFormat(listener);
+		d.shutdown();
 		
+		try {
+			RandomAccessFile[] files = new RandomAccessFile[stripes];
+			for (int i=0; i < stripes; i++)
+				files[i] = new RandomAccessFile(stripeFile(name, i), "rw");
+			reserveDiskSpace(files, capacity, blockSize, thin, iNodeFormat, allocator);
+			for (RandomAccessFile disk : files)
+				disk.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		if (checksumPolicy != BlockChecksums.OFF) {   // the control data and i-nodes were written behind the checksums
+			d = mount(name);
+			d.setChecksumPolicy(BlockChecksums.OFF);
+			d.setChecksumPolicy(checksumPolicy);
+			d.shutdown();
+		}
+		if (sharing != BlockRefs.NONE) {   // the files are gone, and their references with them
+			d = mount(name);
+			try {
+				d.refs.recount();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			d.shutdown();
+		}
 	}
 
 	@Override
-	/** Simulates shutting-off the disk. Just closes the corresponding RAF. **/
+	/** Simulates shutting-off the disk. Writes back the control data, forces the files
+	 *  as established by the durability policy, releases the memory mapping, if any, 
+	 *  and closes the RAF of every stripe. **/
 	public void shutdown() {
+		if (ioExecutor != null) {  // let the queued asynchronous requests finish
+			ioExecutor.shutdown();
+			try {
+				ioExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+		}
+		sync();
+		if (stripeExecutor != null)
+			stripeExecutor.shutdown();
+		if (durability == DURABILITY_UNMOUNT)
+			force();
+		pool.checkLeaks();
+		if (cache != null)
+			cache.release();
 		try {
-			disk.close();
+			if (segments != null)
+				unmapDisk();
+			for (RandomAccessFile disk : files)
+				disk.close();
+			if (checksums != null)
+				checksums.close();
+			if (refs != null)
+				refs.close();
+			if (snapshot != null)
+				snapshot.close();
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
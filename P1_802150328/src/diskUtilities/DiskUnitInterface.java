@@ -27,6 +27,27 @@ public interface DiskUnitInterface {
 	 * @throws InvalidBlockException thrown when a blocks properties are not valid
 	 */
 	public void read(int blockNum, VirtualDiskBlock b) throws InvalidBlockNumberException, InvalidBlockException; 
+	/**
+	 * Writes several blocks at once: the content of dst[i] is written into the disk block blockNums[i].
+	 * Blocks are written in increasing order of block number, and runs of adjacent block numbers are 
+	 * moved in a single I/O operation. If a block number appears more than once, the last one wins. 
+	 * The method returns once every block in the batch has been written.
+	 * @param blockNums numbers of the blocks to write
+	 * @param src VirtualDiskBlock objects with the new content, one per block number
+	 * @throws InvalidBlockNumberException thrown when a block number is not within the accepted range
+	 * @throws InvalidBlockException thrown when a blocks properties are not valid, or the arrays lengths differ
+	 */
+	public void writeBlocks(int[] blockNums, VirtualDiskBlock[] src) throws InvalidBlockNumberException, InvalidBlockException;
+	/**
+	 * Reads several blocks at once: the content of the disk block blockNums[i] is copied into dst[i].
+	 * Blocks are read in increasing order of block number, and runs of adjacent block numbers are 
+	 * moved in a single I/O operation. The method returns once every block in the batch has been read.
+	 * @param blockNums numbers of the blocks to read
+	 * @param dst VirtualDiskBlock objects to copy the content into, one per block number
+	 * @throws InvalidBlockNumberException thrown when a block number is not within the accepted range
+	 * @throws InvalidBlockException thrown when a blocks properties are not valid, or the arrays lengths differ
+	 */
+	public void readBlocks(int[] blockNums, VirtualDiskBlock[] dst) throws InvalidBlockNumberException, InvalidBlockException;
 	/**
 	 * Returns a nonnegative integer value corresponding to the number of valid blocks (unused + used) that the current disk instance has.
 	 * @return Nonnegative integer value corresponding to the number of valid blocks that the current disk instance has.
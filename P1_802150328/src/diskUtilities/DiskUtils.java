@@ -1,9 +1,11 @@
 package diskUtilities;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.util.ArrayList;
+import java.util.zip.Deflater;
 
 /**
  * Some utility methods to copy/get int values, byte values and char values
@@ -25,10 +27,7 @@ public class DiskUtils {
 	 * @param value The integer value to be written in block. 
 	 */
 	public static void copyIntToBlock(VirtualDiskBlock vdb, int index, int value) { 
-		for (int i = INTSIZE-1; i >= 0; i--) { 
-			vdb.setElement(index+i, (byte) (value & 0x000000ff)); 	
-			value = value >> 8; 
-		}
+		vdb.putInt(index, value); 
 	}
 	
 	/**
@@ -40,14 +39,7 @@ public class DiskUtils {
 	 * From most significant to less significant bytes of the number's four bytes. 
 	 */
 	public static int getIntFromBlock(VirtualDiskBlock vdb, int index) {  
-		int value = 0; 
-		int lSB; 
-		for (int i=0; i < INTSIZE; i++) { 
-			value = value << 8; 
-			lSB = 0x000000ff & vdb.getElement(index + i);
-			value = value | lSB; 
-		}
-		return value; 
+		return vdb.getInt(index); 
 	}
 
 	/**
@@ -93,6 +85,33 @@ public class DiskUtils {
 	public static char getCharFromBlock(VirtualDiskBlock vdb, int index) { 
 		return (char) vdb.getElement(index); 
 	}
+	/**
+	 * Gets length consecutive characters from a block, one per byte.
+	 * @param vdb The block.
+	 * @param index The index of the first character in the block.
+	 * @param length Number of characters to get.
+	 * @return Array with the characters.
+	 */
+	public static char[] getCharsFromBlock(VirtualDiskBlock vdb, int index, int length) { 
+		byte[] bytes = new byte[length];
+		vdb.get(index, bytes, 0, length);
+		char[] chars = new char[length];
+		for (int i=0; i < length; i++)
+			chars[i] = (char) bytes[i];
+		return chars; 
+	}
+	/**
+	 * Copies the characters of a string into consecutive bytes of a block, one per byte.
+	 * @param vdb The block.
+	 * @param index The index in the block of the first character.
+	 * @param s The string to copy.
+	 */
+	public static void copyStringToBlock(VirtualDiskBlock vdb, int index, String s) { 
+		byte[] bytes = new byte[s.length()];
+		for (int i=0; i < bytes.length; i++)
+			bytes[i] = (byte) s.charAt(i);
+		vdb.put(index, bytes, 0, bytes.length);
+	}
 	
 	// working with characters to and from an array of bytes
 	public static void copyCharToBytesArray(byte[] b, int index, char c) { 
@@ -103,15 +122,15 @@ public class DiskUtils {
 	}	
 	
 	/**
-	 * Copies the contents of a disk block into a Virtual Disk Block
+	 * Copies the contents of a disk block into a Virtual Disk Block taken from
+	 * the block pool of the disk. The block should be released to that pool
+	 * once it is no longer needed.
 	 * @param d DiskUnit
-	 * @param blockSize Bytes in the Block. 
-	 * Needs to be the same as the amount of bytes per block of the disk blocks.
 	 * @param blockNum Index of disk block to copy.
-	 * @return
+	 * @return Virtual Disk Block with the contents of the disk block.
 	 */
 	public static VirtualDiskBlock copyBlockToVDB(DiskUnit d, int blockNum) {
-		VirtualDiskBlock vdb = new VirtualDiskBlock(d.getBlockSize());
+		VirtualDiskBlock vdb = d.getBlockPool().acquire();
 		d.read(blockNum, vdb);
 		
 		return vdb;
@@ -120,29 +139,41 @@ public class DiskUtils {
 	/**
 	 * Reads the contents of an external file. It separates the content into VirtualDiskBlocks, 
 	 * while leaving 4 bytes for the integer which makes reference to the next data block.
+	 * The blocks are taken from the block pool of the disk, and should be released to it
+	 * once they are no longer needed.
+	 * @param file File to be read.
+	 * @param d DiskUnit where the file will be stored.
+	 * @return Returns ArrayList of VirtualDiskBlocks with the contents of the file.
+	 */
+	public static ArrayList<VirtualDiskBlock> setExtFileContentToVDBs(String file, DiskUnit d) {
+		return setExtFileContentToVDBs(file, d, d.getBlockSize() - 4);  // -4 to reserve space for integer
+	}
+	/**
+	 * Reads the contents of an external file into VirtualDiskBlocks, as 
+	 * setExtFileContentToVDBs, with a given amount of content per block.
 	 * @param file File to be read.
+	 * @param d DiskUnit where the file will be stored.
+	 * @param usableBytes Bytes of content per block; blockSize for a file stored in extents.
 	 * @return Returns ArrayList of VirtualDiskBlocks with the contents of the file.
 	 */
-	public static ArrayList<VirtualDiskBlock> setExtFileContentToVDBs(String file, int blockSize) {
+	public static ArrayList<VirtualDiskBlock> setExtFileContentToVDBs(String file, DiskUnit d, int usableBytes) {
 		
+		ArrayList<VirtualDiskBlock> vdbArray = new ArrayList<>();
 		try {
 			RandomAccessFile fileToRead = new RandomAccessFile(file, "rw");
-			ArrayList<VirtualDiskBlock> vdbArray = new ArrayList<>();
 			double fileToReadSize = (double) fileToRead.length();  // Size of the fileToRead in bytes.
-			int usableBytes = blockSize - 4;  // Amount of bytes for the fileToRead content (-4 to reserve space for integer)
 			int numOfBlocks =  (int) Math.ceil(fileToReadSize / usableBytes); // Amount of blocks needed to copy fileToRead.		
 			int byteCounter = 0; // Counts the bytes read
 			
 			// Store the contents of the random access file into VDBs
 			fileToRead.seek(0);
+			byte[] chunk = new byte[usableBytes];
 			for (int i=0; i < numOfBlocks; i++) { // Iterate through number of blocks
-				VirtualDiskBlock vdb = new VirtualDiskBlock(blockSize);
-				for (int j=0; j < usableBytes; j++) {
-					if (byteCounter == (int) fileToReadSize) // Verify read the total bytes in the RAF
-						break;
-					vdb.setElement(j, fileToRead.readByte());	// Set the read byte into the VDB
-					byteCounter++;  // Increase the counter after reading a byte from RAF
-				}
+				VirtualDiskBlock vdb = d.getBlockPool().acquire();
+				int length = (int) Math.min(usableBytes, fileToReadSize - byteCounter); // Bytes left for this block
+				fileToRead.readFully(chunk, 0, length);
+				vdb.put(0, chunk, 0, length);	// Set the read bytes into the VDB
+				byteCounter += length;  // Increase the counter after reading from RAF
 				vdbArray.add(vdb); // Add the block to the ArrayList
 			}
 			fileToRead.close(); // Close RAF
@@ -150,11 +181,63 @@ public class DiskUtils {
 		}
 		catch (IOException e) {
 			System.err.println("Unable to open random access file.");
+			d.getBlockPool().releaseAll(vdbArray);
 		}	
 		return null;
 	}
 	/**
-	 * Sets the content of an internal file into an ArrayList of VirtualDiskBlock
+	 * Compresses an external file with DEFLATE and sets the compressed stream into 
+	 * an ArrayList of VirtualDiskBlock, blockSize-4 bytes per block as in 
+	 * setExtFileContentToVDBs. The end of the stream is recorded in the stream itself.
+	 * The blocks are taken from the block pool of the disk, and should be released 
+	 * to it once they are no longer needed.
+	 * @param file Name of the external file.
+	 * @param d DiskUnit where the content will be written.
+	 * @param compressedSize receives in its first element the number of compressed bytes; may be null.
+	 * @return Returns an ArrayList of VirtualDiskBlock with the compressed content, 
+	 * or null if the file can't be read.
+	 */
+	public static ArrayList<VirtualDiskBlock> setCompressedExtFileContentToVDBs(String file, DiskUnit d, long[] compressedSize) {
+		
+		int usableBytes = d.getBlockSize() - 4;  // Amount of bytes for the content (-4 to reserve space for integer)
+		ArrayList<VirtualDiskBlock> vdbArray = new ArrayList<>();
+		Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+		try (FileInputStream fileToRead = new FileInputStream(file)) {
+			byte[] input = new byte[8192];
+			byte[] chunk = new byte[usableBytes];
+			int chunkBytes = 0;   // compressed bytes in chunk
+			while (!deflater.finished()) {
+				if (deflater.needsInput()) {
+					int length = fileToRead.read(input);
+					if (length < 0)
+						deflater.finish();
+					else
+						deflater.setInput(input, 0, length);
+				}
+				chunkBytes += deflater.deflate(chunk, chunkBytes, usableBytes - chunkBytes);
+				if (chunkBytes == usableBytes || (deflater.finished() && chunkBytes > 0)) {
+					VirtualDiskBlock vdb = d.getBlockPool().acquire();
+					vdb.put(0, chunk, 0, chunkBytes);
+					vdbArray.add(vdb);
+					chunkBytes = 0;
+				}
+			}
+			if (compressedSize != null)
+				compressedSize[0] = deflater.getBytesWritten();
+			return vdbArray;
+		}
+		catch (IOException e) {
+			System.err.println("Unable to read the external file.");
+			d.getBlockPool().releaseAll(vdbArray);
+		} finally {
+			deflater.end();
+		}
+		return null;
+	}
+	/**
+	 * Sets the content of an internal file into an ArrayList of VirtualDiskBlock.
+	 * The blocks are taken from the block pool of the disk, and should be released 
+	 * to it once they are no longer needed.
 	 * @param d DiskUnit in use.
 	 * @param fileBlockNum First block number of the file.
 	 * @return Returns an ArrayList of VirtualDiskBlock with contents of internal file.
@@ -166,13 +249,17 @@ public class DiskUtils {
 		
 		ArrayList<VirtualDiskBlock> fileContent = new ArrayList<>(); // To store the VDBs with the content of the file
 		
-		for (Integer blockNum : fileBlockNums) {  // Iterate through the block numbers of the file
-			
-			VirtualDiskBlock vdb = copyBlockToVDB(d, blockNum);
+		int[] blockNums = new int[fileBlockNums.size()];
+		VirtualDiskBlock[] blocks = new VirtualDiskBlock[fileBlockNums.size()];
+		for (int i=0; i < blockNums.length; i++) {  // Iterate through the block numbers of the file
+			blockNums[i] = fileBlockNums.get(i);
+			blocks[i] = d.getBlockPool().acquire();
+		}
+		d.readBlocks(blockNums, blocks);  // Read the whole file in a single batch
+		
+		for (VirtualDiskBlock vdb : blocks) {
 			copyIntToBlock(vdb, blockSize-4, 0); // Erase the reference to the next block
-			
 			fileContent.add(vdb); // add VDB to the ArrayList
-			
 		}
 		
 		return fileContent;
@@ -189,10 +276,8 @@ public class DiskUtils {
 		
 		for (VirtualDiskBlock block : vdBlocks) { 
 			
-			char[] blockCharArray = new char[block.getCapacity()-4]; // Copy bytes in the block into a char array
-			for (int i=0; i<block.getCapacity()-4; i++) {    // Get bytes up to the blocksize - 4, the next data block index is stored there.
-				blockCharArray[i] = getCharFromBlock(block, i);
-			}
+			// Get bytes up to the blocksize - 4, the next data block index is stored there.
+			char[] blockCharArray = getCharsFromBlock(block, 0, block.getCapacity()-4); 
 			fileString += new String(blockCharArray); // Concatenate the block string into the file string
 		}
 		
@@ -0,0 +1,224 @@
+package diskUtilities;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import diskUnitExceptions.FullDiskException;
+
+/**
+ * Class for managing the files stored in extents (type EXTENT_FILE in their
+ * i-node). The data blocks of such a file hold blockSize bytes of content
+ * each, with no number of the next block; they are found through extents,
+ * runs of contiguous blocks given by their first block and their length.
+ * The extents are kept in map blocks: the i-node points to the first map
+ * block, and each map block holds the number of extents in it (first 4 bytes),
+ * the extents (8 bytes each) and, in its last 4 bytes, the number of the next
+ * map block, so the map blocks are linked as the blocks of a data file.
+ * @author jahdiel
+ *
+ */
+public class ExtentManager {
+
+	/**
+	 * Extents of a file, with the position in the file of the first block of
+	 * each one, so block n of the file is found by a binary search.
+	 */
+	public static class FileExtents {
+
+		private int[] starts;    // first block of each extent
+		private int[] lengths;   // blocks of each extent
+		private int[] offsets;   // position in the file of the first block of each extent
+		private int count;
+		private int blocks;      // blocks of the file
+
+		private FileExtents(int capacity) {
+			starts = new int[Math.max(capacity, 1)];
+			lengths = new int[starts.length];
+			offsets = new int[starts.length];
+		}
+
+		private void add(int start, int length) {
+			if (count == starts.length) {
+				starts = Arrays.copyOf(starts, 2 * count);
+				lengths = Arrays.copyOf(lengths, 2 * count);
+				offsets = Arrays.copyOf(offsets, 2 * count);
+			}
+			starts[count] = start;
+			lengths[count] = length;
+			offsets[count++] = blocks;
+			blocks += length;
+		}
+
+		/**
+		 * Gets the number of the disk block holding a block of the file.
+		 * @param n position of the block in the file, starting at 0
+		 * @return number of the disk block
+		 * @throws IndexOutOfBoundsException if the file has no such block
+		 */
+		public int getBlockNum(int n) {
+			if (n < 0 || n >= blocks)
+				throw new IndexOutOfBoundsException("Block "+n+" of a file of "+blocks+" blocks.");
+			int low = 0, high = count - 1;   // last extent starting at or before n
+			while (low < high) {
+				int mid = (low + high + 1) >>> 1;
+				if (offsets[mid] <= n)
+					low = mid;
+				else
+					high = mid - 1;
+			}
+			return starts[low] + (n - offsets[low]);
+		}
+
+		/**
+		 * Gets the numbers of all the disk blocks of the file, in order.
+		 * @return block numbers
+		 */
+		public int[] getBlockNums() {
+			int[] blockNums = new int[blocks];
+			for (int e=0, i=0; e < count; e++)
+				for (int b=0; b < lengths[e]; b++)
+					blockNums[i++] = starts[e] + b;
+			return blockNums;
+		}
+
+		public int getBlockCount() {
+			return blocks;
+		}
+
+		public int getExtentCount() {
+			return count;
+		}
+	}
+
+	/**
+	 * Gets the number of extents a map block holds.
+	 * @param d DiskUnit in use
+	 * @return extents per map block
+	 */
+	private static int extentsPerBlock(DiskUnit d) {
+		return (d.getBlockSize() - 8) / 8;
+	}
+
+	/**
+	 * Reads the extents of a file from its map blocks.
+	 * @param d DiskUnit in use
+	 * @param mapBlock First map block of the file, from its i-node.
+	 * @return the extents of the file
+	 */
+	public static FileExtents readExtents(DiskUnit d, int mapBlock) {
+		int lastInt = d.getBlockSize() - 4;
+		FileExtents extents = new FileExtents(extentsPerBlock(d));
+		while (mapBlock != 0) {
+			// The map blocks are only read, so they are viewed instead of copied.
+			VirtualDiskBlock vdb = d.viewBlock(mapBlock);
+			int count = Math.min(DiskUtils.getIntFromBlock(vdb, 0), extentsPerBlock(d));
+			for (int i=0; i < count; i++)
+				extents.add(DiskUtils.getIntFromBlock(vdb, 4 + 8*i), DiskUtils.getIntFromBlock(vdb, 8 + 8*i));
+			mapBlock = DiskUtils.getIntFromBlock(vdb, lastInt);
+		}
+		return extents;
+	}
+
+	/**
+	 * Writes a file in extents. The map block and the data blocks are taken
+	 * at once, in a single run of contiguous blocks if the disk has one, so
+	 * the file usually takes a single extent and a single map block; more map
+	 * blocks are taken if the free blocks are scattered. Nothing is taken if
+	 * the disk doesn't have the blocks the file needs.
+	 * @param d DiskUnit in use
+	 * @param vdbArray content of the file, blockSize bytes per block
+	 * @return Number of the first map block of the file, to be set into its i-node.
+	 * @throws FullDiskException The disk doesn't have the blocks the file needs.
+	 */
+	public static int writeExtentFile(DiskUnit d, ArrayList<VirtualDiskBlock> vdbArray) throws FullDiskException {
+		int[] taken;
+		try {
+			taken = FreeBlockManager.getFreeBNs(d, vdbArray.size() + 1);  // The map block first, then the data
+		} catch (FullDiskException e) {
+			System.out.println(e.getMessage());
+			throw e;
+		}
+		int[] dataBlockNums = Arrays.copyOfRange(taken, 1, taken.length);
+
+		// Join the data blocks into extents
+		FileExtents extents = new FileExtents(1);
+		for (int i=0; i < dataBlockNums.length; ) {
+			int start = i++;
+			while (i < dataBlockNums.length && dataBlockNums[i] == dataBlockNums[i-1] + 1)
+				i++;
+			extents.add(dataBlockNums[start], i - start);
+		}
+		int perBlock = extentsPerBlock(d);
+		int mapBlocks = Math.max(1, (extents.count + perBlock - 1) / perBlock);
+		int[] mapBlockNums = new int[mapBlocks];
+		mapBlockNums[0] = taken[0];
+		if (mapBlocks > 1) {
+			try {
+				System.arraycopy(FreeBlockManager.getFreeBNs(d, mapBlocks - 1), 0, mapBlockNums, 1, mapBlocks - 1);
+			} catch (FullDiskException e) {  // Nothing was written to the blocks taken
+				System.out.println(e.getMessage());
+				for (int blockNum : taken)
+					FreeBlockManager.registerFB(d, blockNum);
+				throw e;
+			}
+		}
+
+		VirtualDiskBlock[] maps = new VirtualDiskBlock[mapBlocks];
+		for (int m=0; m < mapBlocks; m++) {
+			maps[m] = d.getBlockPool().acquire();
+			int first = m * perBlock;
+			int count = Math.min(perBlock, extents.count - first);
+			DiskUtils.copyIntToBlock(maps[m], 0, count);
+			for (int i=0; i < count; i++) {
+				DiskUtils.copyIntToBlock(maps[m], 4 + 8*i, extents.starts[first + i]);
+				DiskUtils.copyIntToBlock(maps[m], 8 + 8*i, extents.lengths[first + i]);
+			}
+			DiskUtils.copyIntToBlock(maps[m], d.getBlockSize() - 4, m + 1 < mapBlocks ? mapBlockNums[m + 1] : 0);
+		}
+		if (dataBlockNums.length > 0)
+			d.writeBlocks(dataBlockNums, vdbArray.toArray(new VirtualDiskBlock[dataBlockNums.length]));
+		d.writeBlocks(mapBlockNums, maps);
+		d.getBlockPool().releaseAll(Arrays.asList(maps));
+		return mapBlockNums[0];
+	}
+
+	/**
+	 * Reads the content of a file stored in extents, in a single batch.
+	 * The blocks are taken from the block pool of the disk, and should be
+	 * released to it once they are no longer needed.
+	 * @param d DiskUnit in use
+	 * @param mapBlock First map block of the file
+	 * @return the content of the file, blockSize bytes per block
+	 */
+	public static ArrayList<VirtualDiskBlock> readExtentFile(DiskUnit d, int mapBlock) {
+		int[] blockNums = readExtents(d, mapBlock).getBlockNums();
+		VirtualDiskBlock[] blocks = new VirtualDiskBlock[blockNums.length];
+		for (int i=0; i < blocks.length; i++)
+			blocks[i] = d.getBlockPool().acquire();
+		if (blocks.length > 0)
+			d.readBlocks(blockNums, blocks);
+		return new ArrayList<>(Arrays.asList(blocks));
+	}
+
+	/**
+	 * Deletes a file stored in extents: its data blocks and map blocks are
+	 * wiped and registered as free.
+	 * @param d DiskUnit in use
+	 * @param mapBlock First map block of the file
+	 */
+	public static void deleteExtentFile(DiskUnit d, int mapBlock) {
+		int[] dataBlockNums = readExtents(d, mapBlock).getBlockNums();
+		ArrayList<Integer> mapBlockNums = FileManager.allFileBlockNums(d, mapBlock);
+		int[] blockNums = Arrays.copyOf(dataBlockNums, dataBlockNums.length + mapBlockNums.size());
+		for (int i=0; i < mapBlockNums.size(); i++)
+			blockNums[dataBlockNums.length + i] = mapBlockNums.get(i);
+
+		VirtualDiskBlock[] zeroes = new VirtualDiskBlock[blockNums.length];
+		Arrays.fill(zeroes, d.getBlockPool().acquire());   // The same cleared block wipes every block
+		d.writeBlocks(blockNums, zeroes);
+		d.getBlockPool().release(zeroes[0]);
+		for (int blockNum : blockNums)
+			FreeBlockManager.registerFB(d, blockNum);
+	}
+
+}
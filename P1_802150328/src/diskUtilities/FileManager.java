@@ -4,12 +4,24 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 
+import diskUnitExceptions.CorruptBlockException;
 import diskUnitExceptions.FullDiskException;
 
 public class FileManager {
 
+	private static final int READ_BATCH = 64;   // blocks read at once by readBenchmark
+	private static final int READ_PASSES = 10;  // times readBenchmark reads the file
+
 	/**
 	 * Attempts to read a new file into the current directory in the current 
 	 * working disk unit. The first operand is the name of the file to read. 
@@ -26,7 +38,36 @@ public class FileManager {
 	 * @param file Name of the new file
 	 */
 	public static void loadFile(String extFile, String file) throws FullDiskException{
+		loadFile(extFile, file, false);
+	}
+	/**
+	 * Reads a new file into the current directory in the current working disk unit,
+	 * optionally compressing it. A compressed file is stored as a DEFLATE stream and 
+	 * marked as such in the type byte of its i-node, which keeps the uncompressed
+	 * size; the compression ratio and the CPU time spent compressing are shown.
+	 * @param extFile Name of the external file to read
+	 * @param file Name of the new file
+	 * @param compress true to store the file compressed
+	 * @throws FullDiskException The disk is full.
+	 */
+	public static void loadFile(String extFile, String file, boolean compress) throws FullDiskException{
+		loadFile(extFile, file, compress ? INodeManager.COMPRESSED_FILE : INodeManager.DATA_FILE);
+	}
+	/**
+	 * Reads a new file into the current directory in the current working disk unit,
+	 * in the layout given by the type of its i-node: DATA_FILE keeps the blocks
+	 * linked by the number of the next one, COMPRESSED_FILE compresses the file
+	 * as well, and EXTENT_FILE stores it in whole blocks found through extents
+	 * (see ExtentManager). In a disk with indexed i-nodes a DATA_FILE that fits
+	 * is stored as an INDEXED_FILE (see IndexedFileManager).
+	 * @param extFile Name of the external file to read
+	 * @param file Name of the new file
+	 * @param type DATA_FILE, COMPRESSED_FILE or EXTENT_FILE
+	 * @throws FullDiskException The disk is full.
+	 */
+	public static void loadFile(String extFile, String file, byte type) throws FullDiskException{
 		
+		boolean compress = (type == INodeManager.COMPRESSED_FILE);
 		//extFile += ".txt"; 
 		File fileToRead = new File(extFile); // file to read from
 		if (!fileToRead.exists()) {
@@ -36,23 +77,33 @@ public class FileManager {
 		}	
 		//File newFile = new File(file);  // file to copy into inside the disk unit
 		
-		// TODO: Verify disk has enough space.
-		
 		// Format file string to fit 20 bytes
 		file = DiskUtils.formatFileName(file);
 		
 		// Place file content inside an ArrayList of VirtualDiskBlock
 		DiskUnit disk = DiskManager.mountedDiskUnit;
-		int blockSize = disk.getBlockSize();
+		// With indexed i-nodes the data files are reached from their i-node, if they fit
+		if (type == INodeManager.DATA_FILE && IndexedFileManager.canHold(disk, fileToRead.length()))
+			type = INodeManager.INDEXED_FILE;
 		ArrayList<VirtualDiskBlock> extFileArrayList; // Will hold contents of external file
 		int rafSize; // Will hold size of the external file (measured in bytes)
+		long[] compressedSize = new long[1];   // Will hold size of the compressed content
+		long compressionTime = 0;              // CPU time spent compressing
 		try {
 			RandomAccessFile rafToRead = new RandomAccessFile(extFile, "rw");
 			rafSize = (int) rafToRead.length(); // Get size of external file in bytes
 			rafToRead.close();
 			// Create random access file to read data.
 			// Set the contents of the external file into an ArrayList of VirtualDiskBlocks
-			extFileArrayList = DiskUtils.setExtFileContentToVDBs(extFile, blockSize);  
+			if (compress) {
+				long start = cpuTime();
+				extFileArrayList = DiskUtils.setCompressedExtFileContentToVDBs(extFile, disk, compressedSize);
+				compressionTime = cpuTime() - start;
+			} else if (!isChained(type)) {
+				extFileArrayList = DiskUtils.setExtFileContentToVDBs(extFile, disk, disk.getBlockSize());
+			} else {
+				extFileArrayList = DiskUtils.setExtFileContentToVDBs(extFile, disk);  
+			}
 			
 		} catch (FileNotFoundException e) {
 			System.err.println("Unable to open external file.");
@@ -61,6 +112,8 @@ public class FileManager {
 			System.err.println("Unable to read external file.");
 			return;
 		} 
+		if (extFileArrayList == null)  // The content could not be read
+			return;
 	
 		// Block Number of the root directory
 		int rootBlockNum = INodeManager.getDataBlockFromINode(disk, 0);
@@ -72,33 +125,34 @@ public class FileManager {
 				int fileBytePos = foundFile.get(1);
 				// Get iNode reference to that file 
 				int iNodeRef = DiskUtils.getIntFromBlock(foundFileBlock, fileBytePos+20); // Reads the integer right after the filename, which is the iNode ref
-				int fileDataBlock = INodeManager.getDataBlockFromINode(disk, iNodeRef);  // Data block from the i-node
-				// Set size in of file into its i-node
-				INodeManager.setSizeIntoINode(disk, iNodeRef, rafSize);
-				// Delete file from disk
-				deleteFileFromDisk(disk, fileDataBlock);
-				// Write new file in place of the older one
-				writeNewFileIntoDisk(disk, fileDataBlock, extFileArrayList);
-
+				disk.getBlockPool().release(foundFileBlock);
+				rewriteFile(disk, iNodeRef, extFileArrayList, rafSize, type);
 			}
 			else { // Create the new file.
-				// Write new file into root directory
-
-				int iNodeRef = writeNewFileIntoDirectory(disk, file, rootBlockNum); // Returns the iNode reference.
-				// Enter the iNode and assign a free block
-				// Get free block number
-				int freeBN = FreeBlockManager.getFreeBN(disk);
-				// Set data block in i-node to the free block 
-				INodeManager.setDataBlockToINode(disk, iNodeRef, freeBN);
-				// Set size in of file into its i-node
-				INodeManager.setSizeIntoINode(disk,iNodeRef, rafSize);
-				// Write file into the free block
-				writeNewFileIntoDisk(disk, freeBN, extFileArrayList);
+				createFile(disk, file, rootBlockNum, extFileArrayList, rafSize, type);
 			}
 		} catch (FullDiskException e) {
 			throw new FullDiskException(e);
-		}	
+		} finally {
+			disk.getBlockPool().releaseAll(extFileArrayList);
+		}
 		
+		if (compress) {
+			int usableBytes = disk.getBlockSize() - 4;
+			System.out.printf("%s compressed: %d bytes into %d (%.1f%%), %d blocks instead of %d, %.3f ms of CPU.\n", 
+					file.trim(), rafSize, compressedSize[0], rafSize == 0 ? 100.0 : 100.0 * compressedSize[0] / rafSize, 
+					extFileArrayList.size(), (rafSize + usableBytes - 1) / usableBytes, compressionTime / 1e6);
+		}
+	}
+	
+	/**
+	 * Gets the CPU time used by the current thread, or the elapsed time if the
+	 * Java virtual machine can't measure it.
+	 * @return time in nanoseconds
+	 */
+	private static long cpuTime() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		return threads.isCurrentThreadCpuTimeSupported() ? threads.getCurrentThreadCpuTime() : System.nanoTime();
 	}
 	/**
 	 * Copies one internal file to another internal file. It works similar to the 
@@ -108,6 +162,21 @@ public class FileManager {
 	 * @param file Internal file to copy content into
 	 */
 	public static void copyFile(String inputFile, String file) throws FullDiskException {
+		copyFile(inputFile, file, false);
+	}
+	/**
+	 * Copies one internal file to another internal file, optionally as a 
+	 * copy-on-write reflink: the i-node of the new file points at the blocks
+	 * of the input file, which are shared through their reference counts 
+	 * instead of copied. The blocks are never changed in place, so the copies
+	 * stay apart when either one is later rewritten by loadfile or cp. The
+	 * reference counts of the disk are turned on by the first reflink.
+	 * @param inputFile Internal file to copy from
+	 * @param file Internal file to copy content into
+	 * @param reflink true to share the blocks of the input file
+	 * @throws FullDiskException The disk is full.
+	 */
+	public static void copyFile(String inputFile, String file, boolean reflink) throws FullDiskException {
 		
 		// Format file strings to fit 20 bytes
 		inputFile = DiskUtils.formatFileName(inputFile);
@@ -126,11 +195,21 @@ public class FileManager {
 		int inputFileBytePos = inputFileInfo.get(1);   // Starting byte position of the file name
 		// Get data block from i-node
 		int inputINodeRef = DiskUtils.getIntFromBlock(vdb, inputFileBytePos+20);
+		disk.getBlockPool().release(vdb);
 		int inputFileSize = INodeManager.getSizeFromINode(disk, inputINodeRef);
-		int inputFileDataBlock = INodeManager.getDataBlockFromINode(disk, inputINodeRef);
+		byte inputFileType = INodeManager.getTypeFromINode(disk, inputINodeRef);  // files are copied in their own layout
 		
-		// Get content of input file
-		ArrayList<VirtualDiskBlock> content = DiskUtils.setFileContentToVDBs(disk, inputFileDataBlock);
+		if (reflink && !isChained(inputFileType)) {
+			System.out.println("Cannot reflink "+inputFile.trim()+". Its blocks aren't linked, and are never shared.");
+			return;
+		}
+		if (reflink) {
+			linkFile(disk, inputINodeRef, file, rootBlockNum);
+			return;
+		}
+		
+		// Get content of input file, in its own layout
+		ArrayList<VirtualDiskBlock> content = readFileContent(disk, inputINodeRef);
 		
 		
 		// Verify if File already exists.
@@ -142,31 +221,16 @@ public class FileManager {
 				int fileBytePos = foundFile.get(1);
 				// Get iNode reference to that file 
 				int iNodeRef = DiskUtils.getIntFromBlock(foundFileBlock, fileBytePos+20); // Reads the integer right after the filename, which is the iNode ref
-				int fileDataBlock = INodeManager.getDataBlockFromINode(disk, iNodeRef);  // Data block from the i-node
-				// Set size of file into its i-node
-				INodeManager.setSizeIntoINode(disk, iNodeRef, inputFileSize);
-				// Delete file from disk
-				deleteFileFromDisk(disk, fileDataBlock);
-				// Write new file in place of the older one
-				writeNewFileIntoDisk(disk, fileDataBlock, content);
-
+				disk.getBlockPool().release(foundFileBlock);
+				rewriteFile(disk, iNodeRef, content, inputFileSize, inputFileType);
 			}
 			else { // Create the new file.
-				// Write new file into root directory
-
-				int iNodeRef = writeNewFileIntoDirectory(disk, file, rootBlockNum); // Returns the iNode reference.
-				// Enter the iNode and assign a free block
-				// Get free block number
-				int freeBN = FreeBlockManager.getFreeBN(disk);
-				// Set data block in i-node to the free block 
-				INodeManager.setDataBlockToINode(disk, iNodeRef, freeBN);
-				// Set size in of file into its i-node
-				INodeManager.setSizeIntoINode(disk,iNodeRef, inputFileSize);
-				// Write file into the free block
-				writeNewFileIntoDisk(disk, freeBN, content);
+				createFile(disk, file, rootBlockNum, content, inputFileSize, inputFileType);
 			} 
 		} catch (FullDiskException e) {
 			throw new FullDiskException(e);
+		} finally {
+			disk.getBlockPool().releaseAll(content);
 		}
 		
 	}
@@ -211,14 +275,237 @@ public class FileManager {
 		int fileBytePos = fileInfo.get(1);   // Starting byte position of the file name
 		// Get data block from i-node
 		int iNodeRef = DiskUtils.getIntFromBlock(vdb, fileBytePos+20);
-		int fileDataBlock = INodeManager.getDataBlockFromINode(disk, iNodeRef);
+		disk.getBlockPool().release(vdb);
+		byte fileType = INodeManager.getTypeFromINode(disk, iNodeRef);
+		// A compressed file is inflated block by block, as the blocks arrive
+		Inflater inflater = (fileType == INodeManager.COMPRESSED_FILE ? new Inflater() : null);
+		long decompressionTime = 0;
+		// A file whose blocks aren't linked fills them, up to its size
+		int wholeBytesLeft = (isChained(fileType) ? -1 : INodeManager.getSizeFromINode(disk, iNodeRef));
 		
-		// Get content from file
-		ArrayList<VirtualDiskBlock> content = DiskUtils.setFileContentToVDBs(disk, fileDataBlock);
+		// Request the blocks of the file ahead, and decode each one while the next are read.
+		// The number of a block of a chained file is only known from the block before it,
+		// so its read is requested as soon as that block arrives, and each block is read once.
+		boolean chained = isChained(fileType);
+		ArrayDeque<CompletableFuture<VirtualDiskBlock>> content = new ArrayDeque<>();
+		if (!chained)
+			for (int blockNum : fileBlockNums(disk, iNodeRef))
+				content.add(disk.readAsync(blockNum));
+		int chainBlockNum = (chained ? INodeManager.getDataBlockFromINode(disk, iNodeRef) : 0);   // block being read
+		if (chainBlockNum != 0)
+			content.add(disk.readAsync(chainBlockNum));
+		int blocksRead = 0;
+		StringBuilder fileString = new StringBuilder();
+		RuntimeException failure = null;   // first block that couldn't be read
+		while (!content.isEmpty()) {
+			try {
+				VirtualDiskBlock block = content.poll().join();
+				blocksRead++;
+				if (chained) {
+					int nextBlockNum = DiskUtils.getIntFromBlock(block, block.getCapacity()-4);
+					disk.readAheadAfter(chainBlockNum, nextBlockNum);   // prefetches the next blocks into the cache
+					if (nextBlockNum != 0)
+						content.add(disk.readAsync(nextBlockNum));
+					chainBlockNum = nextBlockNum;
+				}
+				if (wholeBytesLeft >= 0) {
+					int length = Math.min(block.getCapacity(), wholeBytesLeft);
+					fileString.append(DiskUtils.getCharsFromBlock(block, 0, length));
+					wholeBytesLeft -= length;
+				} else if (inflater == null) {
+					// Get bytes up to the blocksize - 4, the next data block index is stored there.
+					fileString.append(DiskUtils.getCharsFromBlock(block, 0, block.getCapacity()-4));
+				} else if (failure == null) {
+					long start = cpuTime();
+					inflateBlock(inflater, block, fileString);
+					decompressionTime += cpuTime() - start;
+				}
+				disk.getBlockPool().release(block);
+			} catch (CompletionException e) {
+				// keep waiting for the other blocks, so all of them are released; 
+				// the rest of a chained file is unknown
+				if (failure == null)
+					failure = (e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e);
+			} catch (DataFormatException e) {
+				if (failure == null)
+					failure = new CorruptBlockException("The compressed content of "+file.trim()+" is damaged.", e);
+			}
+		}
+		if (inflater != null)
+			inflater.end();
+		if (failure != null)
+			throw failure;
 		
 		// Print the file content
 		System.out.println();
-		DiskUtils.printContentOfVDBlocks(content);
+		System.out.println(fileString);
+		if (inflater != null)
+			System.out.printf("%d bytes decompressed from %d blocks in %.3f ms of CPU.\n", fileString.length(), 
+					blocksRead, decompressionTime / 1e6);
+	}
+	
+	/**
+	 * Displays part of the contents of a file in the current directory. Only
+	 * the blocks holding the bytes asked for are read: those of a file stored
+	 * in extents are found by a binary search over its extents, and those of 
+	 * an indexed file through its pointers, while the blocks of a chained file
+	 * are walked from its first block up to the last one needed.
+	 * @param file Name of file to be displayed.
+	 * @param offset Position in the file of the first byte to display.
+	 * @param length Number of bytes to display; fewer if the file ends before.
+	 */
+	public static void catRange(String file, int offset, int length) {
+		
+		file = DiskUtils.formatFileName(file);
+		DiskUnit disk = DiskManager.mountedDiskUnit;
+		int rootBlockNum = INodeManager.getDataBlockFromINode(disk, 0);
+		ArrayList<Integer> fileInfo = findFileInDir(disk, file, rootBlockNum);
+		if (fileInfo == null || fileInfo.isEmpty()) {
+			System.out.println("File not found in directory");
+			return;
+		}
+		VirtualDiskBlock vdb = DiskUtils.copyBlockToVDB(disk, fileInfo.get(0));
+		int iNodeRef = DiskUtils.getIntFromBlock(vdb, fileInfo.get(1)+20);
+		disk.getBlockPool().release(vdb);
+		byte fileType = INodeManager.getTypeFromINode(disk, iNodeRef);
+		if (fileType == INodeManager.COMPRESSED_FILE) {
+			System.out.println("Cannot display part of "+file.trim()+": it is compressed.");
+			return;
+		}
+		int size = INodeManager.getSizeFromINode(disk, iNodeRef);
+		int end = (int) Math.min(size, (long) offset + length);
+		if (offset < 0 || length < 0 || offset >= end) {
+			System.out.println();
+			return;
+		}
+		
+		// Numbers of the blocks from the one holding byte offset to the one holding byte end-1
+		int payload = (isChained(fileType) ? disk.getBlockSize()-4 : disk.getBlockSize());
+		int firstBlock = offset / payload;
+		int[] blockNums = new int[(end - 1) / payload - firstBlock + 1];
+		if (fileType == INodeManager.EXTENT_FILE) {
+			ExtentManager.FileExtents extents = ExtentManager.readExtents(disk, INodeManager.getDataBlockFromINode(disk, iNodeRef));
+			for (int i=0; i < blockNums.length; i++)
+				blockNums[i] = extents.getBlockNum(firstBlock + i);
+		} else if (fileType == INodeManager.INDEXED_FILE) {
+			int[] all = IndexedFileManager.getBlockNums(disk, INodeManager.getBlockPointersFromINode(disk, iNodeRef), size);
+			System.arraycopy(all, firstBlock, blockNums, 0, blockNums.length);
+		} else {
+			int blockNum = INodeManager.getDataBlockFromINode(disk, iNodeRef);
+			for (int n=0; n < firstBlock + blockNums.length; n++) {
+				if (n >= firstBlock)
+					blockNums[n - firstBlock] = blockNum;
+				blockNum = DiskUtils.getIntFromBlock(disk.viewBlock(blockNum), disk.getBlockSize()-4);
+			}
+		}
+		
+		VirtualDiskBlock[] blocks = new VirtualDiskBlock[blockNums.length];
+		for (int i=0; i < blocks.length; i++)
+			blocks[i] = disk.getBlockPool().acquire();
+		StringBuilder fileString = new StringBuilder();
+		try {
+			disk.readBlocks(blockNums, blocks);
+			for (int i=0; i < blocks.length; i++) {
+				int from = (i == 0 ? offset % payload : 0);
+				int to = Math.min(payload, end - (firstBlock + i) * payload);
+				fileString.append(DiskUtils.getCharsFromBlock(blocks[i], from, to - from));
+			}
+		} finally {
+			disk.getBlockPool().releaseAll(Arrays.asList(blocks));
+		}
+		System.out.println();
+		System.out.println(fileString);
+	}
+	
+	/**
+	 * Measures how a file of the current directory is laid out in the disk and
+	 * how fast it is read in sequence. Its blocks are read straight from the 
+	 * disk files, without the block cache, in the order they have in the file,
+	 * READ_BATCH blocks at a time: each run of adjacent blocks in a batch is 
+	 * moved at once, so a file in fewer runs is read with fewer requests. 
+	 * The file is read READ_PASSES times. Readahead is disabled while the 
+	 * file is looked up, and the I/O thread is idle while it is read.
+	 * @param file Name of the file to read.
+	 */
+	public static void readBenchmark(String file) {
+		
+		file = DiskUtils.formatFileName(file);
+		DiskUnit disk = DiskManager.mountedDiskUnit;
+		int readAhead = disk.getReadAhead();
+		disk.setReadAhead(0);   // walking the chains would queue prefetches
+		int[] blockNums;
+		try {
+			int rootBlockNum = INodeManager.getDataBlockFromINode(disk, 0);
+			ArrayList<Integer> fileInfo = findFileInDir(disk, file, rootBlockNum);
+			if (fileInfo == null || fileInfo.isEmpty()) {
+				System.out.println("File not found in directory");
+				return;
+			}
+			VirtualDiskBlock vdb = DiskUtils.copyBlockToVDB(disk, fileInfo.get(0));
+			int iNodeRef = DiskUtils.getIntFromBlock(vdb, fileInfo.get(1)+20);
+			disk.getBlockPool().release(vdb);
+			blockNums = fileBlockNums(disk, iNodeRef);
+		} finally {
+			disk.setReadAhead(readAhead);
+		}
+		disk.awaitIO();   // requests queued before, if any
+		
+		// Fragmentation: runs of blocks adjacent in the disk, in the order of the file
+		int runs = 0, longestRun = 0;
+		for (int i=0, run=0; i < blockNums.length; i++) {
+			run = (i > 0 && blockNums[i] == blockNums[i-1] + 1 ? run + 1 : 1);
+			if (run == 1)
+				runs++;
+			longestRun = Math.max(longestRun, run);
+		}
+		
+		BlockCache cache = disk.getCache();
+		if (cache != null)
+			cache.flush();   // the disk files hold every block
+		byte[][] batch = new byte[Math.min(READ_BATCH, blockNums.length)][disk.getBlockSize()];
+		long start = System.nanoTime();
+		try {
+			for (int pass=0; pass < READ_PASSES; pass++) {
+				for (int first=0; first < blockNums.length; first += READ_BATCH) {
+					int count = Math.min(READ_BATCH, blockNums.length - first);
+					synchronized (disk) {   // readBlocks moves the position of the disk files
+						disk.readBlocks(Arrays.copyOfRange(blockNums, first, first + count), 
+								count == batch.length ? batch : Arrays.copyOf(batch, count));
+					}
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			return;
+		}
+		double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+		double megabytes = (double) blockNums.length * disk.getBlockSize() * READ_PASSES / 1048576.0;
+		
+		System.out.printf("%s: %d blocks in %d runs of contiguous blocks (%.1f blocks per run, longest %d)\n", file.trim(), 
+				blockNums.length, runs, runs == 0 ? 0.0 : (double) blockNums.length / runs, longestRun);
+		System.out.printf("Sequential read, %d passes: %.1f MB in %.3f s (%.1f MB/s)\n", READ_PASSES, 
+				megabytes, seconds, megabytes / seconds);
+	}
+	
+	/**
+	 * Inflates the content of a block of a compressed file.
+	 * @param inflater Inflater of the file, fed with the blocks before this one.
+	 * @param block Block of the file.
+	 * @param fileString Receives the decompressed content, one char per byte.
+	 * @throws DataFormatException The compressed content is damaged.
+	 */
+	private static void inflateBlock(Inflater inflater, VirtualDiskBlock block, StringBuilder fileString) 
+			throws DataFormatException {
+		if (inflater.finished())
+			return;
+		byte[] compressed = new byte[block.getCapacity()-4];   // the last 4 bytes are the next block number
+		block.get(0, compressed, 0, compressed.length);
+		inflater.setInput(compressed);
+		byte[] inflated = new byte[4 * compressed.length];
+		int length;
+		while ((length = inflater.inflate(inflated)) > 0)
+			for (int i=0; i < length; i++)
+				fileString.append((char) inflated[i]);
 	}
 	
 	/**
@@ -256,7 +543,11 @@ public class FileManager {
 			} catch (FullDiskException e) {
 				System.out.println(e.getMessage());
 				throw new FullDiskException(e);
+			} finally {
+				d.getBlockPool().release(lastDataBlock);
 			}
+		} else {
+			d.getBlockPool().release(lastDataBlock);
 		}
 			
 		return freeDirArray;
@@ -277,6 +568,7 @@ public class FileManager {
 		for (Integer blockNum : dirBlockNums) {
 			VirtualDiskBlock vdb = DiskUtils.copyBlockToVDB(d, blockNum);
 			Integer bytePos = findFileInDirBlock(vdb, file); // Find file in the block.
+			d.getBlockPool().release(vdb);
 			if (bytePos != null) {
 				ArrayList<Integer> foundFileInfo = new ArrayList<>();
 				foundFileInfo.add(blockNum);   // BlockNum of where the file resides.
@@ -303,11 +595,8 @@ public class FileManager {
 			if (iNodeIdx == 0)   // byte position = blockNum*blockSize+((i*24)-24)
 				break;
 			
-			char[] fileCharArray = new char[20];
 			int fileBytePos = (i*24) - 24;
-			for (int j=0; j<20; j++) {
-				fileCharArray[j] = DiskUtils.getCharFromBlock(vdb, (fileBytePos+j));
-			}
+			char[] fileCharArray = DiskUtils.getCharsFromBlock(vdb, fileBytePos, 20);
 			String filename = new String(fileCharArray);
 			if (filename.equals(file)) {
 				return fileBytePos;
@@ -333,11 +622,8 @@ public class FileManager {
 			if (iNodeIdx == 0)   // If no reference to i-node is found, no file is stored. Byte position = blockNum*blockSize+((i*24)-24)
 				break;
 			
-			char[] fileCharArray = new char[20];
 			int fileBytePos = (i*24) - 24;   // Starting byte position of the file name
-			for (int j=0; j<20; j++) {
-				fileCharArray[j] = DiskUtils.getCharFromBlock(vdb, (fileBytePos+j));
-			}
+			char[] fileCharArray = DiskUtils.getCharsFromBlock(vdb, fileBytePos, 20);
 			String filename = new String(fileCharArray);
 			int iNodeRef = DiskUtils.getIntFromBlock(vdb, fileBytePos+20);
 			String filesize = Integer.toString(INodeManager.getSizeFromINode(d, iNodeRef));
@@ -360,16 +646,16 @@ public class FileManager {
 		int lastInt = blockSize - 4;
 		ArrayList<Integer> dirBlockNums = new ArrayList<>(); 
 		
-		VirtualDiskBlock vdb = new VirtualDiskBlock(blockSize);
-		d.read(firstFileBlockNum, vdb);
-		int nextBlockInt = DiskUtils.getIntFromBlock(vdb, lastInt); // Read the last 4 bytes in the block
+		// Only the last 4 bytes of each block are needed, so the blocks are viewed instead of copied.
+		int nextBlockInt = DiskUtils.getIntFromBlock(d.viewBlock(firstFileBlockNum), lastInt); // Read the last 4 bytes in the block
+		d.readAheadAfter(firstFileBlockNum, nextBlockInt);
 		dirBlockNums.add(firstFileBlockNum);
 		
 		while (nextBlockInt != 0) {
 			dirBlockNums.add(nextBlockInt);
-			vdb = new VirtualDiskBlock(blockSize);
-			d.read(nextBlockInt, vdb);
-			nextBlockInt = DiskUtils.getIntFromBlock(vdb, lastInt);
+			int blockNum = nextBlockInt;
+			nextBlockInt = DiskUtils.getIntFromBlock(d.viewBlock(blockNum), lastInt);
+			d.readAheadAfter(blockNum, nextBlockInt);
 		}
 		return dirBlockNums;
 	}
@@ -416,17 +702,15 @@ public class FileManager {
 		int newFileBlockNum = newFileInRoot.get(0);
 		int newFileBytePos = newFileInRoot.get(1);
 		
-		VirtualDiskBlock vdb = new VirtualDiskBlock(blockSize);
-		d.read(newFileBlockNum, vdb);
+		VirtualDiskBlock vdb = DiskUtils.copyBlockToVDB(d, newFileBlockNum);
 		
 		// Write file name inside the block
-		for (int i=0; i<fileCharArray.length; i++) {
-			DiskUtils.copyCharToBlock(vdb, newFileBytePos+i, fileCharArray[i]);
-		}
+		DiskUtils.copyStringToBlock(vdb, newFileBytePos, file);
 		// Copy i-node reference into the directory.
 		DiskUtils.copyIntToBlock(vdb, newFileBytePos+20, iNodeRef);
 		// Write the Virtual block back into the disk unit.
 		d.write(newFileBlockNum, vdb);
+		d.getBlockPool().release(vdb);
 		
 		return iNodeRef; // Returns reference to the i-node of the new file.
 	}
@@ -442,6 +726,7 @@ public class FileManager {
 		for (Integer blockNum : dirBlockNums) {		
 			VirtualDiskBlock vdb = DiskUtils.copyBlockToVDB(d, blockNum);
 			ArrayList<String> files = filesInDirBlock(d, vdb);
+			d.getBlockPool().release(vdb);
 			for (String file : files) {
 				System.out.println(file);
 			}
@@ -449,44 +734,331 @@ public class FileManager {
 	}
 	
 	/**
-	 * Writes the new file into the disk unit.
-	 * @param d
-	 * @param firstFreeBlock
-	 * @param vdbArray
+	 * Writes the new file into the disk unit. The blocks the file already has
+	 * are reused, and the rest are taken from the free blocks at once before 
+	 * anything is written, so a full disk leaves the file as it was. The blocks
+	 * of the file are linked first and then written into the disk in a single batch;
+	 * the blocks the file no longer needs are wiped and registered as free.
+	 * @param d DiskUnit in use
+	 * @param firstBlock Number of the first data block the file has; 0 if it has none.
+	 * @param vdbArray content of the file
+	 * @return Number of the first data block of the file.
+	 * @throws FullDiskException The disk doesn't have the blocks the file needs.
 	 */
-	private static void writeNewFileIntoDisk(DiskUnit d, int firstFreeBlock, ArrayList<VirtualDiskBlock> vdbArray) {
+	private static int writeNewFileIntoDisk(DiskUnit d, int firstBlock, ArrayList<VirtualDiskBlock> vdbArray) throws FullDiskException {
+		VirtualDiskBlock[] blocks = vdbArray.toArray(new VirtualDiskBlock[vdbArray.size()]);
+		if (blocks.length < 1) {
+			System.out.println("No content retrieved from the external file.");
+			blocks = new VirtualDiskBlock[] { d.getBlockPool().acquire() };  // The file takes an empty block
+		}
+		ArrayList<Integer> oldBlockNums = (firstBlock != 0 ? allFileBlockNums(d, firstBlock) : new ArrayList<Integer>());
+		int[] blockNums = new int[blocks.length];   // Block number where each VirtualDiskBlock goes
+		int reused = Math.min(blocks.length, oldBlockNums.size());
+		for (int i=0; i < reused; i++)
+			blockNums[i] = oldBlockNums.get(i);
 		try {
-			if (vdbArray.size() < 1) {
-				System.out.println("No content retrieved from the external file.");
-				return;
-			}
-			VirtualDiskBlock vdb = vdbArray.get(0);  // Get the VirtualDiskBlock from the ArrayList
-			int nextFreeBlock;  // Holds the next free block to use
-			if (vdbArray.size() == 1)
-				nextFreeBlock = 0;
-			else
-				nextFreeBlock = FreeBlockManager.getFreeBN(d); // Look for a free block
-			DiskUtils.copyIntToBlock(vdb, vdb.getCapacity()-4, nextFreeBlock);  // Write free block number into last 4-bytes of block
-			d.write(firstFreeBlock, vdb);   // Write virtual disk block into disk 
-
-			for (int i=1; i<vdbArray.size(); i++) {
-				int freeBlock = nextFreeBlock;  // Save the next block, in order to write in that block
-				vdb = vdbArray.get(i);
-				if (i == vdbArray.size()-1)
-					nextFreeBlock = 0;
-				else
-					nextFreeBlock = FreeBlockManager.getFreeBN(d);  // Look for a free block
-				DiskUtils.copyIntToBlock(vdb, vdb.getCapacity()-4, nextFreeBlock);  // Write free block number into last 4-bytes of block
-				d.write(freeBlock, vdb);  // Write virtual disk block into disk 
+			if (reused < blocks.length) {
+				int[] freeBNs = FreeBlockManager.getFreeBNs(d, blocks.length - reused);  // Look for all the free blocks
+				System.arraycopy(freeBNs, 0, blockNums, reused, freeBNs.length);
 			}
+			for (int i=1; i < blocks.length; i++)   // Write each block number into last 4-bytes of the previous block
+				DiskUtils.copyIntToBlock(blocks[i-1], d.getBlockSize()-4, blockNums[i]);
+			DiskUtils.copyIntToBlock(blocks[blocks.length-1], d.getBlockSize()-4, 0);  // Last block of the file
+			d.writeBlocks(blockNums, blocks);   // Write virtual disk blocks into disk
 		} catch (FullDiskException e) {
+			System.out.println(e.getMessage());
+			throw new FullDiskException();
+		} finally {
+			if (vdbArray.isEmpty())
+				d.getBlockPool().release(blocks[0]);
+		}
+		if (reused < oldBlockNums.size()) {   // The file got shorter
+			VirtualDiskBlock vdb = d.getBlockPool().acquire();  // Reused to clear every block
+			for (int i=reused; i < oldBlockNums.size(); i++) {
+				clearDiskBlock(d, oldBlockNums.get(i), vdb);
+				FreeBlockManager.registerFB(d, oldBlockNums.get(i));
+			}
+			d.getBlockPool().release(vdb);
+		}
+		return blockNums[0];
+	}
+	/**
+	 * Determines if the blocks of a file are linked by the number of the next 
+	 * one, which is kept in their last 4 bytes.
+	 * @param type Type of the file, from its i-node
+	 * @return Returns false for the files stored in extents or reached from an indexed i-node.
+	 */
+	private static boolean isChained(byte type) {
+		return (type != INodeManager.EXTENT_FILE && type != INodeManager.INDEXED_FILE);
+	}
+	/**
+	 * Writes the content of a file that isn't chained into free blocks.
+	 * @param d DiskUnit in use
+	 * @param content content of the file, blockSize bytes per block
+	 * @param type EXTENT_FILE or INDEXED_FILE
+	 * @return Returns the block pointers of the file, to be set into its i-node.
+	 * @throws FullDiskException The disk is full; nothing is taken.
+	 */
+	private static int[] writeUnchainedFile(DiskUnit d, ArrayList<VirtualDiskBlock> content, byte type) throws FullDiskException {
+		if (type == INodeManager.INDEXED_FILE)
+			return IndexedFileManager.writeIndexedFile(d, content);
+		return new int[] { ExtentManager.writeExtentFile(d, content) };
+	}
+	/**
+	 * Reads the content of a file, in its own layout. The blocks are taken 
+	 * from the block pool of the disk, and should be released to it once 
+	 * they are no longer needed.
+	 * @param d DiskUnit in use
+	 * @param iNodeRef i-node of the file
+	 * @return Returns the blocks of the file; those of a chained file have no next block number.
+	 */
+	private static ArrayList<VirtualDiskBlock> readFileContent(DiskUnit d, int iNodeRef) {
+		byte type = INodeManager.getTypeFromINode(d, iNodeRef);
+		if (type == INodeManager.INDEXED_FILE)
+			return IndexedFileManager.readIndexedFile(d, INodeManager.getBlockPointersFromINode(d, iNodeRef), 
+					INodeManager.getSizeFromINode(d, iNodeRef));
+		if (type == INodeManager.EXTENT_FILE)
+			return ExtentManager.readExtentFile(d, INodeManager.getDataBlockFromINode(d, iNodeRef));
+		return DiskUtils.setFileContentToVDBs(d, INodeManager.getDataBlockFromINode(d, iNodeRef));
+	}
+	/**
+	 * Gets the numbers of the blocks of a file, in its own layout. 
+	 * @param d DiskUnit in use
+	 * @param iNodeRef i-node of the file
+	 * @return Returns the numbers of the blocks holding the content of the file, in order.
+	 */
+	private static int[] fileBlockNums(DiskUnit d, int iNodeRef) {
+		byte type = INodeManager.getTypeFromINode(d, iNodeRef);
+		if (type == INodeManager.INDEXED_FILE)
+			return IndexedFileManager.getBlockNums(d, INodeManager.getBlockPointersFromINode(d, iNodeRef), 
+					INodeManager.getSizeFromINode(d, iNodeRef));
+		if (type == INodeManager.EXTENT_FILE)
+			return ExtentManager.readExtents(d, INodeManager.getDataBlockFromINode(d, iNodeRef)).getBlockNums();
+		ArrayList<Integer> chain = allFileBlockNums(d, INodeManager.getDataBlockFromINode(d, iNodeRef));
+		int[] blockNums = new int[chain.size()];
+		for (int i=0; i < blockNums.length; i++)
+			blockNums[i] = chain.get(i);
+		return blockNums;
+	}
+	/**
+	 * Writes new content into an existing file, in the layout given by its new
+	 * type. A file that isn't chained, before or after, is written into new 
+	 * blocks, and a file whose blocks may be shared is written as in 
+	 * writeSharedFile, before its i-node points at them and the blocks it had 
+	 * are freed, so a full disk leaves it as it was; otherwise its blocks are 
+	 * reused as in writeNewFileIntoDisk.
+	 * @param d DiskUnit in use
+	 * @param iNodeRef i-node of the file
+	 * @param content content of the file
+	 * @param size size of the file in bytes, for its i-node
+	 * @param type new type of the file
+	 * @throws FullDiskException The disk is full.
+	 */
+	private static void rewriteFile(DiskUnit d, int iNodeRef, ArrayList<VirtualDiskBlock> content, int size, byte type) 
+			throws FullDiskException {
+		boolean wasChained = isChained(INodeManager.getTypeFromINode(d, iNodeRef));
+		if (!isChained(type)) {
+			int[] pointers = writeUnchainedFile(d, content, type);
+			freeFile(d, iNodeRef);
+			INodeManager.setBlockPointersIntoINode(d, iNodeRef, pointers);
+		} else if (d.getRefs() != null) {  // The blocks may be shared with other files
+			int firstBlock = writeSharedFile(d, content);
+			int[] oldPointers = INodeManager.getBlockPointersFromINode(d, iNodeRef);
+			int oldSize = INodeManager.getSizeFromINode(d, iNodeRef);
+			byte oldType = INodeManager.getTypeFromINode(d, iNodeRef);
+			INodeManager.setBlockPointersIntoINode(d, iNodeRef, new int[] { firstBlock });
+			freeFile(d, oldPointers, oldSize, oldType);
+		} else {
+			// Write new file in place of the older one, in the blocks it had if they were linked
+			int fileDataBlock = writeNewFileIntoDisk(d, wasChained ? INodeManager.getDataBlockFromINode(d, iNodeRef) : 0, content);
+			if (!wasChained)
+				freeFile(d, iNodeRef);
+			INodeManager.setBlockPointersIntoINode(d, iNodeRef, new int[] { fileDataBlock });
+		}
+		// Set size of file into its i-node
+		INodeManager.setSizeIntoINode(d, iNodeRef, size);
+		INodeManager.setTypeIntoINode(d, iNodeRef, type);
+	}
+	/**
+	 * Creates a file in a directory, in the layout given by its type. The 
+	 * file is written into free blocks, or shared as in writeSharedFile, 
+	 * before it is entered in the directory.
+	 * @param d DiskUnit in use
+	 * @param file Name of the file, formatted to 20 characters
+	 * @param rootBlockNum First block of the directory
+	 * @param content content of the file
+	 * @param size size of the file in bytes, for its i-node
+	 * @param type type of the file
+	 * @throws FullDiskException The disk is full; the file isn't created.
+	 */
+	private static void createFile(DiskUnit d, String file, int rootBlockNum, ArrayList<VirtualDiskBlock> content, int size, byte type) 
+			throws FullDiskException {
+		int iNodeRef;
+		// Write file into free blocks, all taken at once, before it is entered in the directory
+		int[] pointers;
+		if (!isChained(type))
+			pointers = writeUnchainedFile(d, content, type);
+		else if (d.getRefs() != null)   // The blocks may be shared with other files
+			pointers = new int[] { writeSharedFile(d, content) };
+		else
+			pointers = new int[] { writeNewFileIntoDisk(d, 0, content) };
+		try {
+			iNodeRef = writeNewFileIntoDirectory(d, file, rootBlockNum); // Returns the iNode reference.
+		} catch (FullDiskException e) {  // The file is not created; its blocks are free again
+			freeFile(d, pointers, size, type);
+			throw e;
+		}
+		// Set the pointers to the blocks of the file into its i-node, starting with the first block
+		INodeManager.setBlockPointersIntoINode(d, iNodeRef, pointers);
+		// Set size in of file into its i-node
+		INodeManager.setSizeIntoINode(d, iNodeRef, size);
+		INodeManager.setTypeIntoINode(d, iNodeRef, type);
+	}
+	/**
+	 * Frees the blocks of the file of an i-node. The i-node is left as it is.
+	 * @param d DiskUnit in use
+	 * @param iNodeRef i-node of the file
+	 */
+	private static void freeFile(DiskUnit d, int iNodeRef) {
+		freeFile(d, INodeManager.getBlockPointersFromINode(d, iNodeRef), INodeManager.getSizeFromINode(d, iNodeRef), 
+				INodeManager.getTypeFromINode(d, iNodeRef));
+	}
+	/**
+	 * Frees the blocks of a file, as its layout requires: those of a file stored
+	 * in extents or reached from an indexed i-node are freed by ExtentManager or
+	 * IndexedFileManager, those of a chained file are released as in releaseFile
+	 * if they may be shared, and wiped otherwise.
+	 * @param d DiskUnit in use
+	 * @param pointers Block pointers of the file, starting with its first block.
+	 * @param size Size of the file in bytes
+	 * @param type Type of the file
+	 */
+	private static void freeFile(DiskUnit d, int[] pointers, int size, byte type) {
+		int firstBlock = pointers[0];
+		if (type == INodeManager.INDEXED_FILE) {
+			IndexedFileManager.deleteIndexedFile(d, pointers, size);
+		} else if (firstBlock == 0) {
+			return;
+		} else if (type == INodeManager.EXTENT_FILE) {
+			ExtentManager.deleteExtentFile(d, firstBlock);
+		} else if (d.getRefs() != null) {
+			releaseFile(d, firstBlock);
+		} else {
+			deleteFileFromDisk(d, firstBlock);
+			FreeBlockManager.registerFB(d, firstBlock);
+		}
+	}
+	/**
+	 * Makes a file of the root directory point at the blocks of another file,
+	 * creating it if it doesn't exist. The blocks it had are released.
+	 * @param d DiskUnit in use.
+	 * @param inputINodeRef i-node of the file whose blocks are shared
+	 * @param file Name of the file, formatted to 20 characters
+	 * @param rootBlockNum First block of the root directory
+	 * @throws FullDiskException The directory can't grow to hold the file.
+	 */
+	private static void linkFile(DiskUnit d, int inputINodeRef, String file, int rootBlockNum) throws FullDiskException {
+		if (d.getRefs() == null)
+			d.setSharing(BlockRefs.COUNTED);  // The blocks already stored are counted
+		BlockRefs refs = d.getRefs();
+		int firstBlock = INodeManager.getDataBlockFromINode(d, inputINodeRef);
+		
+		int iNodeRef;
+		ArrayList<Integer> foundFile = findFileInDir(d, file, rootBlockNum);
+		if (foundFile != null) {
+			VirtualDiskBlock foundFileBlock = DiskUtils.copyBlockToVDB(d, foundFile.get(0));
+			iNodeRef = DiskUtils.getIntFromBlock(foundFileBlock, foundFile.get(1)+20); // The i-node ref is right after the filename
+			d.getBlockPool().release(foundFileBlock);
+		} else {
+			iNodeRef = writeNewFileIntoDirectory(d, file, rootBlockNum);
+		}
+		if (firstBlock != 0)
+			refs.retain(firstBlock);   // Before releasing, in case both files already share the blocks
+		if (foundFile != null)
+			freeFile(d, iNodeRef);
+		INodeManager.setBlockPointersIntoINode(d, iNodeRef, new int[] { firstBlock });
+		INodeManager.setSizeIntoINode(d, iNodeRef, INodeManager.getSizeFromINode(d, inputINodeRef));
+		INodeManager.setTypeIntoINode(d, iNodeRef, INodeManager.getTypeFromINode(d, inputINodeRef));
+	}
+	/**
+	 * Writes a file into the disk unit when the blocks of the disk may be shared
+	 * by several files. As each block holds the number of the next one, the file
+	 * is linked from its last block back: with deduplication, the longest final 
+	 * part of the file already stored in the disk (number of the next block 
+	 * included) is shared instead of written, and only the blocks before it take
+	 * free blocks. The chain is referenced once, for the i-node the caller sets.
+	 * @param d DiskUnit in use, with reference counts.
+	 * @param vdbArray content of the file
+	 * @return Number of the first data block of the file.
+	 * @throws FullDiskException The disk is full; no block is taken and no
+	 *  reference is changed.
+	 */
+	private static int writeSharedFile(DiskUnit d, ArrayList<VirtualDiskBlock> vdbArray) throws FullDiskException {
+		BlockRefs refs = d.getRefs();
+		int lastInt = d.getBlockSize()-4;
+		VirtualDiskBlock[] blocks = vdbArray.toArray(new VirtualDiskBlock[vdbArray.size()]);
+		if (blocks.length < 1) {
+			System.out.println("No content retrieved from the external file.");
+			blocks = new VirtualDiskBlock[] { d.getBlockPool().acquire() };  // The file takes an empty block
+			blocks[0].clear();
+		}
+		try {
+			// Find the final part of the file already stored
+			int sharedFrom = blocks.length;  // First block of the file that is shared
+			int next = 0;                    // Block where the new blocks continue
+			while (sharedFrom > 0) {
+				DiskUtils.copyIntToBlock(blocks[sharedFrom-1], lastInt, next);
+				int found = refs.find(blocks[sharedFrom-1]);
+				if (found == 0)
+					break;
+				next = found;
+				sharedFrom--;
+			}
+			// Take free blocks for the rest, all of them or none, linking them as in writeNewFileIntoDisk
+			int[] blockNums;
+			try {
+				blockNums = FreeBlockManager.getFreeBNs(d, sharedFrom);
+			} catch (FullDiskException e) {
 				System.out.println(e.getMessage());
 				throw new FullDiskException();
+			}
+			for (int i=1; i < sharedFrom; i++)
+				DiskUtils.copyIntToBlock(blocks[i-1], lastInt, blockNums[i]);
+			for (int i=0; i < sharedFrom; i++)
+				refs.register(blockNums[i], blocks[i]);
+			if (next != 0) {
+				refs.retain(next);   // Referenced by the last new block, or by the i-node
+				refs.countSharedWrites(blocks.length - sharedFrom);
+			}
+			if (sharedFrom > 0)
+				d.writeBlocks(blockNums, Arrays.copyOf(blocks, sharedFrom));
+			return (sharedFrom > 0 ? blockNums[0] : next);
+		} finally {
+			if (vdbArray.isEmpty())
+				d.getBlockPool().release(blocks[0]);
 		}
-		
-		
-
+	}
+	/**
+	 * Removes the references of a file to its blocks when the blocks of the 
+	 * disk may be shared by several files. The blocks no longer referenced are
+	 * wiped and registered as free; the walk stops at the first block still 
+	 * referenced, as the rest of the chain belongs to other files too.
+	 * @param d DiskUnit in use, with reference counts.
+	 * @param firstBlock Number of the first data block in the file.
+	 */
+	private static void releaseFile(DiskUnit d, int firstBlock) {
+		BlockRefs refs = d.getRefs();
+		int lastInt = d.getBlockSize()-4;
+		VirtualDiskBlock vdb = d.getBlockPool().acquire();  // Reused to clear every block
+		int blockNum = firstBlock;
+		while (blockNum != 0 && refs.release(blockNum)) {
+			int next = DiskUtils.getIntFromBlock(d.viewBlock(blockNum), lastInt);
+			clearDiskBlock(d, blockNum, vdb);
+			FreeBlockManager.registerFB(d, blockNum);
+			blockNum = next;
 		}
+		d.getBlockPool().release(vdb);
+	}
 	/**
 	 * Deletes a file from the disk by wiping its data blocks.
 	 * @param d DiskUnit in use
@@ -496,13 +1068,14 @@ public class FileManager {
 		
 		ArrayList<Integer> fileBlockNums = allFileBlockNums(d, firstFreeBlock);
 		
+		VirtualDiskBlock vdb = d.getBlockPool().acquire();  // Reused to clear every block
 		for (int i=0; i<fileBlockNums.size(); i++) {
 			int blockNum = fileBlockNums.get(i);
-			VirtualDiskBlock vdb = DiskUtils.copyBlockToVDB(d, blockNum);
 			clearDiskBlock(d, blockNum, vdb);         // Clear the block
 			if (i != 0) // Doesn't register the firstFreeBlock into free blocks
 				FreeBlockManager.registerFB(d, blockNum); // register free block to the free block collection.
 		}
+		d.getBlockPool().release(vdb);
 	}
 	/**
 	 * Clears a block by setting all its bytes to zero.
@@ -512,9 +1085,7 @@ public class FileManager {
 	 */
 	private static void clearDiskBlock(DiskUnit d, int blockNum, VirtualDiskBlock vdb) {
 		
-		for (int i=0; i<vdb.getCapacity(); i++) {
-			vdb.setElement(i, (byte) 0); // set every byte to 0 in the block
-		}
+		vdb.clear(); // set every byte to 0 in the block
 		d.write(blockNum, vdb); // Write the wiped block into the disk.
 		
 	}
@@ -0,0 +1,19 @@
+package diskUtilities;
+
+/**
+ * Receives the progress of a low level format of a disk unit.
+ * @author jahdiel
+ *
+ */
+public interface FormatListener {
+
+	/**
+	 * Called each time a portion of the disk has been filled with zeroes,
+	 * and once more when the format ends (bytesFormatted == totalBytes).
+	 * @param bytesFormatted number of bytes already formatted
+	 * @param totalBytes number of bytes to format
+	 * @param elapsedNanos time elapsed since the format began, in nanoseconds
+	 */
+	public void formatProgress(long bytesFormatted, long totalBytes, long elapsedNanos);
+
+}
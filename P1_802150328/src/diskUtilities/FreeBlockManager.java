@@ -4,15 +4,21 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 
 import diskUnitExceptions.FullDiskException;
+import diskUnitExceptions.ReadOnlyDiskException;
 
 /**
  * Class for managing the free disk blocks in the unit.
- * Works as a tree-like structure. 
+ * Works as a tree-like structure, kept in memory by a FreeBlockMap while 
+ * the disk is mounted. 
  * @author jahdiel
  *
  */
 public class FreeBlockManager {
 	
+	// Allocators of the blocks of a disk mounted for writing, set when the disk is created
+	public static final int FIRST_FIT = 0;  // the first run of free blocks long enough, else the lowest free blocks
+	public static final int BUDDY = 1;      // runs of a buddy system, see BuddyAllocator
+	
 	private final int INTEGERS_IN_BLOCK; // Amount of integers that fit inside a block, each of 4 bytes
 	
 	private DiskUnit disk;  // Disk in which the free blocks are managed.
@@ -32,96 +38,66 @@ public class FreeBlockManager {
 	}
 	
 	/**
-	 * Obtains the next free block in the DiskUnit.
-	 * Algorithm presented by Prof. Pedro Rivera
+	 * Gets the FreeBlockMap every block of a disk is taken from and freed into.
+	 * Only a disk mounted read-only has none, and nothing can be written into it.
 	 * @param d DiskUnit to be used
-	 * @return Returns Block Number of free Block
+	 * @throws ReadOnlyDiskException whenever the disk is mounted read-only.
 	 */
-	public static int getFreeBN(DiskUnit d) throws FullDiskException {
-		int INTEGERS_IN_BLOCK = d.getBlockSize() / 4;
-		int firstFLB = d.getFirstDataBlock();
-		int flIndex = d.getNextFreeBlock();
-		int bn;
-		
-		if (firstFLB == 0)
-			throw new FullDiskException("Disk is full.");
-		// disk has space
-		if (flIndex != 0) {
-			bn = getIntInsideBlock(d, firstFLB, flIndex);
-			flIndex--;
-			d.setNextFreeBlock(flIndex);
-		} else {   // the current root node in the tree is the one to be returned
-			bn = firstFLB;
-			firstFLB = getIntInsideBlock(d, firstFLB, 0);
-			d.setFirstDataBlock(firstFLB);
-			flIndex = INTEGERS_IN_BLOCK-1;
-			d.setNextFreeBlock(flIndex);
-		}
-		
-		return bn;  // the index of the free block that is taken
+	private static FreeBlockMap mapOf(DiskUnit d) throws ReadOnlyDiskException {
+		FreeBlockMap map = d.getFreeBlockMap();
+		if (map == null)
+			throw new ReadOnlyDiskException("The snapshot of disk "+d.getName()+" is mounted read-only.");
+		return map;
 	}
 	
 	/**
-	 * Inserts a freed block into the free block structure.
-	 * Algorithm presented by Prof. Pedro Rivera
-	 * @param d DiskUnit
-	 * @param bn Index of the freed block.
+	 * Obtains the next free block in the DiskUnit.
+	 * The blocks are taken from the FreeBlockMap of the disk, which stores the
+	 * free block structure when the disk is synchronized. On a thin disk the
+	 * blocks never used are given out in order once the structure, which then 
+	 * only holds the freed blocks, is empty.
+	 * @param d DiskUnit to be used
+	 * @return Returns Block Number of free Block
 	 */
-	public static void registerFB(DiskUnit d, int bn) {
-		int INTEGERS_IN_BLOCK = d.getBlockSize() / 4;
-		int firstFLB = d.getFirstDataBlock();
-		int flIndex = d.getNextFreeBlock();
-		
-		if (firstFLB == 0) {
-			firstFLB = bn;
-			d.setFirstDataBlock(bn);
-			setIntInsideBlock(d, firstFLB, 0, 0);
-			d.setNextFreeBlock(0);   // flIndex = 0
-		} else if (flIndex == INTEGERS_IN_BLOCK-1) { // If flIndex is the last integer in the block
-			setIntInsideBlock(d, bn, 0, firstFLB);
-			d.setNextFreeBlock(0);
-			d.setFirstDataBlock(bn);
-		} else {
-			flIndex++;
-			d.setNextFreeBlock(flIndex);
-			setIntInsideBlock(d, firstFLB, flIndex, bn);
-		}
+	public static int getFreeBN(DiskUnit d) throws FullDiskException {
+		return mapOf(d).allocate();
 	}
 	
 	/**
-	 * Sets an integer in the provided index inside a free data block.
-	 * Equivalent to block[index] = value;
-	 * @param blockNum Number of data block to write into.
-	 * @param index Index in the block to write to
-	 * @param value New integer value to write
+	 * Obtains several free blocks at once: either all of them are taken or
+	 * none is. Contiguous blocks are preferred, so the blocks of a file can
+	 * be read in sequence.
+	 * @param d DiskUnit to be used
+	 * @param count number of blocks needed
+	 * @return Returns the Block Numbers of the free blocks, in the order they are to be used
+	 * @throws FullDiskException if the disk has fewer than count free blocks; 
+	 *  no block is taken then.
 	 */
-	public static void setIntInsideBlock(DiskUnit d, int blockNum, int index, int value) {
-		VirtualDiskBlock vdb = DiskUtils.copyBlockToVDB(d, blockNum);
-		DiskUtils.copyIntToBlock(vdb, 4*index, value); // Copies integer into the different possible integer indexes inside VDB
-		d.write(blockNum, vdb);
+	public static int[] getFreeBNs(DiskUnit d, int count) throws FullDiskException {
+		return mapOf(d).allocate(count);
 	}
 	
 	/**
-	 * Gets an integer from the provided index inside a free data block.
-	 * Equivalent to value = block[index];
-	 * @param d DiskUnit in use.
-	 * @param blockNum Number of data block to get integer from.
-	 * @param index Index in the block where integer's byte begin.
+	 * Inserts a freed block into the free block structure, through the 
+	 * FreeBlockMap of the disk.
+	 * @param d DiskUnit
+	 * @param bn Index of the freed block.
 	 */
-	public static int getIntInsideBlock(DiskUnit d, int blockNum, int index) {
-		VirtualDiskBlock vdb = DiskUtils.copyBlockToVDB(d, blockNum);
-		int intInsideBlock = DiskUtils.getIntFromBlock(vdb, 4*index); // Gets integer from the different possible integer indexes inside VDB
-		DiskUtils.copyIntToBlock(vdb, 4*index, 0); // Change the reference to the free block into zero.
-		d.write(blockNum, vdb); // Write the vdb with zero in the position of the retrieved data block number.
-		
-		return intInsideBlock;
+	public static void registerFB(DiskUnit d, int bn) {
+		mapOf(d).release(bn);
 	}
 	
 	/**
-	 * Initializes the free block structure. 
+	 * Initializes the free block structure. On a thin disk it is left empty,
+	 * as its free blocks are given out from the first unused block.
 	 * @param disk DiskUnit in use
 	 */
 	public static void initializeFreeBlocks(DiskUnit disk) {
+		if (disk.isThin()) {
+			disk.setFirstDataBlock(0);
+			disk.setNextFreeBlock(0);
+			return;
+		}
 		int firstFreeBlock = disk.getFirstDataBlock();
 		for (int i=firstFreeBlock+1; i < disk.getCapacity(); i++) {
 			registerFB(disk, i);
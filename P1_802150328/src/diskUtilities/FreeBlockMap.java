@@ -0,0 +1,335 @@
+package diskUtilities;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import diskUnitExceptions.FullDiskException;
+
+/**
+ * Free blocks of a disk unit kept in memory as a bitmap, so blocks are taken
+ * and freed without reading or writing the disk. The bitmap is built from the
+ * free block structure stored in the disk (see FreeBlockManager) the first
+ * time a block is taken or freed, and the structure is written again from the
+ * bitmap when the disk is synchronized.
+ * The lowest free block is always taken first, unless the disk was created
+ * with FreeBlockManager.BUDDY: its blocks are then taken through a
+ * BuddyAllocator kept over the bitmap. The structure is written with
+ * the highest blocks in its deepest nodes and the lowest ones in its root, so
+ * the nodes holding only blocks above the highest block taken or freed since
+ * it was stored are still valid and are not written again.
+ * A node of the structure holds block numbers in the disk, so a block that was
+ * a node is cleared before it is given out.
+ * @author jahdiel
+ *
+ */
+public class FreeBlockMap {
+
+	private static final int STORE_BATCH = 256;   // nodes written at once
+
+	private DiskUnit disk;
+	private int capacity;
+	private int perNode;         // blocks listed by a node of the structure, the node included
+	private BitSet free;         // bit b set if block b is free
+	private BitSet listed;       // blocks that may hold a node of the structure, stored or old
+	private int searchFrom;      // no block below it is free
+	private int firstUnused;     // first block never used of a thin disk; capacity if the disk is not thin
+	private BuddyAllocator buddy;  // runs of free blocks of a disk using the buddy allocator; null otherwise
+
+	private int[] nodes;         // nodes of the stored structure, from the deepest one up to the root
+	private int[] nodeLows;      // lowest block listed by each node
+	private int nodeCount;
+	private int rootEntries;     // blocks listed by the root besides itself (flIndex)
+	private int changedTo = -1;  // highest block taken or freed since the structure was stored; -1 if none
+
+	private long allocated;      // blocks taken
+	private long freed;          // blocks freed
+	private long nodesWritten;   // nodes of the structure written
+
+	/**
+	 * Builds the bitmap of a disk unit from the free block structure stored in it.
+	 * @param disk the disk unit, mounted for writing
+	 */
+	FreeBlockMap(DiskUnit disk) {
+		this.disk = disk;
+		capacity = disk.getCapacity();
+		perNode = disk.getBlockSize() / 4;
+		free = new BitSet(capacity);
+		listed = new BitSet(capacity);
+		firstUnused = disk.isThin() ? disk.getFirstUnusedBlock() : capacity;
+		nodes = new int[capacity / perNode + 2];
+		nodeLows = new int[nodes.length];
+		load();
+		if (disk.getAllocator() == FreeBlockManager.BUDDY)
+			buddy = new BuddyAllocator(capacity, free);
+	}
+
+	/**
+	 * Walks the free block structure from its root. The nodes are kept for the
+	 * next store only if they are laid out as store() does.
+	 */
+	private void load() {
+		int node = disk.getFirstDataBlock();
+		int entries = Math.min(disk.getNextFreeBlock(), perNode - 1);
+		boolean ordered = true;
+		int previousHigh = 0;
+		rootEntries = entries;
+		while (node > 0 && node < firstUnused && nodeCount < nodes.length) {
+			VirtualDiskBlock vdb = DiskUtils.copyBlockToVDB(disk, node);
+			int low = node;
+			int high = node;
+			free.set(node);
+			listed.set(node);
+			for (int i=1; i <= entries; i++) {
+				int bn = DiskUtils.getIntFromBlock(vdb, 4*i);
+				if (bn > 0 && bn < firstUnused) {
+					free.set(bn);
+					low = Math.min(low, bn);
+					high = Math.max(high, bn);
+				}
+			}
+			int next = DiskUtils.getIntFromBlock(vdb, 0);
+			disk.getBlockPool().release(vdb);
+			if (nodeCount > 0 && low <= previousHigh)
+				ordered = false;   // written one block at a time, not by store()
+			previousHigh = high;
+			nodes[nodeCount] = node;
+			nodeLows[nodeCount++] = low;
+			node = next;
+			entries = perNode - 1;
+		}
+		if (!ordered)
+			nodeCount = 0;
+		// the nodes were found from the root down
+		for (int i=0, j=nodeCount-1; i < j; i++, j--) {
+			int n = nodes[i]; nodes[i] = nodes[j]; nodes[j] = n;
+			int l = nodeLows[i]; nodeLows[i] = nodeLows[j]; nodeLows[j] = l;
+		}
+	}
+
+	/**
+	 * Takes the lowest free block; on a thin disk with no free block, the first
+	 * block never used.
+	 * @return number of the block taken
+	 * @throws FullDiskException if no block is free
+	 */
+	int allocate() throws FullDiskException {
+		if (buddy != null)
+			return allocate(1)[0];
+		int bn = free.nextSetBit(searchFrom);
+		if (bn < 0) {
+			searchFrom = capacity;
+			if (firstUnused >= capacity)
+				throw new FullDiskException("Disk is full.");
+			bn = firstUnused;
+		} else {
+			searchFrom = bn + 1;
+		}
+		take(bn);
+		return bn;
+	}
+
+	/**
+	 * Takes several free blocks at once, all of them or none. The first run of
+	 * contiguous free blocks long enough is taken if there is one; otherwise the
+	 * lowest free blocks are. With the buddy allocator, the blocks are taken as 
+	 * BuddyAllocator.allocate gives them.
+	 * @param count number of blocks needed
+	 * @return numbers of the blocks taken, in increasing order
+	 * @throws FullDiskException if fewer than count blocks are free; no block is taken then.
+	 */
+	int[] allocate(int count) throws FullDiskException {
+		if (count > getFreeBlocks())
+			throw new FullDiskException("Disk is full.");
+		if (buddy != null) {
+			int[] blockNums = buddy.allocate(count);
+			for (int bn : blockNums)
+				take(bn);
+			return blockNums;
+		}
+		int[] blockNums = new int[count];
+		int start = findRun(count);
+		for (int i=0; i < count; i++) {
+			if (start < 0) {
+				blockNums[i] = allocate();
+			} else {
+				blockNums[i] = start + i;
+				take(start + i);
+			}
+		}
+		return blockNums;
+	}
+
+	/**
+	 * Finds the first run of count contiguous free blocks. On a thin disk the
+	 * blocks never used continue the run of free blocks right before them.
+	 * @return first block of the run, or -1 if there is none.
+	 */
+	private int findRun(int count) {
+		for (int start = free.nextSetBit(searchFrom); start >= 0; start = free.nextSetBit(start)) {
+			int end = free.nextClearBit(start);   // block after the run
+			if (end == firstUnused)
+				end = capacity;
+			if (end - start >= count)
+				return start;
+			start = end;
+		}
+		return capacity - firstUnused >= count ? firstUnused : -1;
+	}
+
+	/**
+	 * Marks a free block as taken, clearing it if it held a node of the structure.
+	 * A block never used must be the first one.
+	 */
+	private void take(int bn) {
+		if (bn >= firstUnused) {
+			firstUnused = bn + 1;
+			disk.setFirstUnusedBlock(firstUnused);
+		} else {
+			free.clear(bn);
+			changedTo = Math.max(changedTo, bn);
+			if (listed.get(bn)) {   // the block holds a node of the structure
+				listed.clear(bn);
+				VirtualDiskBlock zeroes = disk.getBlockPool().acquire();
+				disk.write(bn, zeroes);
+				disk.getBlockPool().release(zeroes);
+			}
+		}
+		allocated++;
+	}
+
+	/**
+	 * Frees a block. A block already free is reported and left as it is,
+	 * so the runs of the buddy system aren't counted twice.
+	 * @param bn number of the block
+	 */
+	void release(int bn) {
+		if (free.get(bn)) {
+			new Throwable("Block " + bn + " of disk " + disk.getName() + " freed twice").printStackTrace();
+			return;
+		}
+		free.set(bn);
+		searchFrom = Math.min(searchFrom, bn);
+		changedTo = Math.max(changedTo, bn);
+		freed++;
+		if (buddy != null)
+			buddy.release(bn);
+	}
+
+	/**
+	 * Writes into the disk the nodes of the free block structure that changed
+	 * since it was last stored, and sets its root in the control data.
+	 */
+	void store() {
+		if (changedTo < 0)
+			return;
+		int intact = 0;   // deepest nodes still valid
+		while (intact < nodeCount && nodeLows[intact] > changedTo)
+			intact++;
+		if (intact == nodeCount && intact > 0 && rootEntries < perNode - 1)
+			intact--;     // the root is not full, so no node can go on top of it
+		nodeCount = intact;
+		int below = intact == 0 ? firstUnused : nodeLows[intact - 1];
+		int next = intact == 0 ? 0 : nodes[intact - 1];
+		int entries = intact == 0 ? 0 : perNode - 1;
+
+		int[] blockNums = new int[STORE_BATCH];
+		VirtualDiskBlock[] blocks = new VirtualDiskBlock[STORE_BATCH];
+		int batched = 0;
+		int bn = free.previousSetBit(below - 1);
+		while (bn >= 0) {   // the highest block left is the node, followed by the ones below it
+			int nodeNum = bn;
+			int low = nodeNum;
+			VirtualDiskBlock node = disk.getBlockPool().acquire();
+			DiskUtils.copyIntToBlock(node, 0, next);
+			entries = 0;
+			bn = free.previousSetBit(nodeNum - 1);
+			while (bn >= 0 && entries < perNode - 1) {
+				DiskUtils.copyIntToBlock(node, 4 * ++entries, bn);
+				low = bn;
+				bn = free.previousSetBit(bn - 1);
+			}
+			next = nodeNum;
+			listed.set(nodeNum);
+			nodes[nodeCount] = nodeNum;
+			nodeLows[nodeCount++] = low;
+			blockNums[batched] = nodeNum;
+			blocks[batched++] = node;
+			if (batched == STORE_BATCH) {
+				writeNodes(blockNums, blocks, batched);
+				batched = 0;
+			}
+		}
+		writeNodes(blockNums, blocks, batched);
+		rootEntries = entries;
+		disk.setFirstDataBlock(next);
+		disk.setNextFreeBlock(entries);
+		changedTo = -1;
+	}
+
+	/**
+	 * Writes a batch of nodes and gives their blocks back to the pool.
+	 */
+	private void writeNodes(int[] blockNums, VirtualDiskBlock[] blocks, int count) {
+		if (count == 0)
+			return;
+		VirtualDiskBlock[] written = Arrays.copyOf(blocks, count);
+		disk.writeBlocks(Arrays.copyOf(blockNums, count), written);
+		for (VirtualDiskBlock vdb : written)
+			disk.getBlockPool().release(vdb);
+		nodesWritten += count;
+	}
+
+	/**
+	 * Gets the number of free blocks, those never used of a thin disk included.
+	 * @return free blocks of the disk
+	 */
+	public int getFreeBlocks() {
+		return free.cardinality() + (capacity - firstUnused);
+	}
+
+	/**
+	 * Gets the number of runs of contiguous free blocks, each as long as it can be.
+	 * @return runs of free blocks; the blocks never used of a thin disk are one run
+	 */
+	public int getFreeRuns() {
+		int runs = 0;
+		for (int bn = free.nextSetBit(0); bn >= 0; bn = free.nextSetBit(free.nextClearBit(bn)))
+			if (firstUnused == capacity || free.nextClearBit(bn) != firstUnused)
+				runs++;
+		return runs + (firstUnused < capacity ? 1 : 0);
+	}
+
+	/**
+	 * Gets the length of the longest run of contiguous free blocks.
+	 * @return blocks of the longest run of free blocks
+	 */
+	public int getLargestFreeRun() {
+		int largest = 0;
+		for (int bn = free.nextSetBit(0); bn >= 0; bn = free.nextSetBit(free.nextClearBit(bn))) {
+			int end = free.nextClearBit(bn);
+			largest = Math.max(largest, (end == firstUnused ? capacity : end) - bn);
+		}
+		return Math.max(largest, capacity - firstUnused);
+	}
+
+	/**
+	 * Gets the buddy allocator of the disk.
+	 * @return the BuddyAllocator in use, or null if the disk doesn't use it
+	 */
+	public BuddyAllocator getBuddy() {
+		return buddy;
+	}
+
+	public long getAllocated() {
+		return allocated;
+	}
+
+	public long getFreed() {
+		return freed;
+	}
+
+	public long getNodesWritten() {
+		return nodesWritten;
+	}
+
+}
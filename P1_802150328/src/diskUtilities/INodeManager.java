@@ -4,20 +4,44 @@ import java.util.ArrayList;
 
 public class INodeManager {
 
+	// Values of the type byte, the last byte of an i-node
+	public static final byte DATA_FILE = 0;        // content stored as is
+	public static final byte DIRECTORY = 1;        // entries of 20-byte names and 4-byte i-node references
+	public static final byte COMPRESSED_FILE = 2;  // data file stored as a DEFLATE stream; the size is the uncompressed one
+	public static final byte EXTENT_FILE = 3;      // data stored as is in whole blocks, found through extents (see ExtentManager)
+	public static final byte INDEXED_FILE = 4;     // data stored as is in whole blocks, found through the pointers of an indexed i-node
+	
+	// Formats of the i-nodes of a disk, chosen when the disk is created
+	public static final int CHAINED_FORMAT = 0;    // first block, size and type; the blocks of a file are linked
+	public static final int INDEXED_FORMAT = 1;    // the same, followed by more direct pointers and the indirect ones
+	public static final int CHAINED_INODE_SIZE = 9;
+	public static final int INDEXED_INODE_SIZE = 64;
+	public static final int DIRECT_POINTERS = 12;  // direct pointers of an indexed i-node, the first block included
+	public static final int POINTERS = DIRECT_POINTERS + 2;  // the single and the double indirect pointers follow
+	
+	/**
+	 * Gets the bytes of an i-node in a given format.
+	 * @param format CHAINED_FORMAT or INDEXED_FORMAT
+	 * @return Returns the size of the i-node.
+	 */
+	public static int getINodeSize(int format) {
+		return (format == INDEXED_FORMAT ? INDEXED_INODE_SIZE : CHAINED_INODE_SIZE);
+	}
 	
 	/**
 	 * Returns ArrayList with the block number of where the i-node is stored and
 	 * byte position of where the iNode is in the block.
 	 * @param iNodeIndex Index of the i-node
 	 * @param blockSize Bytes per block
+	 * @param iNodeSize Bytes per i-node
 	 * @return ArrayList with the block number of where the i-node is stored and
 	 * byte position of where the iNode is in the block 
 	 */
-	public static ArrayList<Integer> getINodePos(int iNodeIndex, int blockSize) {
+	public static ArrayList<Integer> getINodePos(int iNodeIndex, int blockSize, int iNodeSize) {
 		
-		int nodesPerBlock = blockSize / 9;
+		int nodesPerBlock = blockSize / iNodeSize;
 		int blockNum = (1 + (iNodeIndex / nodesPerBlock)); // block number of where the i-node is stored
-		int iNodeBytePos = ((iNodeIndex % nodesPerBlock) * 9); // byte position of where the iNode is in the block
+		int iNodeBytePos = ((iNodeIndex % nodesPerBlock) * iNodeSize); // byte position of where the iNode is in the block
 		
 		ArrayList<Integer> nodeArray = new ArrayList<>();
 		nodeArray.add(blockNum);
@@ -33,14 +57,14 @@ public class INodeManager {
 	 */
 	public static int getDataBlockFromINode(DiskUnit d, int iNodeIndex) {
 		
-		int blockSize = d.getBlockSize();
-		ArrayList<Integer> iNodeInfo = getINodePos(iNodeIndex, blockSize);
+		ArrayList<Integer> iNodeInfo = getINodePos(iNodeIndex, d.getBlockSize(), d.getINodeSize());
 		int iNodeBlockNum = iNodeInfo.get(0); // get blockNum of the iNode 
 		int iNodeBytePos = iNodeInfo.get(1);  // get iNode byte position
-		VirtualDiskBlock vdb = new VirtualDiskBlock(blockSize);
-		d.read(iNodeBlockNum, vdb);
+		VirtualDiskBlock vdb = DiskUtils.copyBlockToVDB(d, iNodeBlockNum);
+		int dataBlock = DiskUtils.getIntFromBlock(vdb, iNodeBytePos);
+		d.getBlockPool().release(vdb);
 		
-		return DiskUtils.getIntFromBlock(vdb, iNodeBytePos);
+		return dataBlock;
 	}
 	
 	/**
@@ -51,14 +75,14 @@ public class INodeManager {
 	 */
 	public static void setDataBlockToINode(DiskUnit d, int iNodeIndex, int newDataBlock) {
 		
-		int blockSize = d.getBlockSize();
-		ArrayList<Integer> iNodeInfo = getINodePos(iNodeIndex, blockSize);
+		ArrayList<Integer> iNodeInfo = getINodePos(iNodeIndex, d.getBlockSize(), d.getINodeSize());
 		int iNodeBlockNum = iNodeInfo.get(0); // get blockNum of the iNode 
 		int iNodeBytePos = iNodeInfo.get(1);  // get iNode byte position
 		VirtualDiskBlock vdb = DiskUtils.copyBlockToVDB(d, iNodeBlockNum);
 		
 		DiskUtils.copyIntToBlock(vdb, iNodeBytePos, newDataBlock);
 		d.write(iNodeBlockNum, vdb);
+		d.getBlockPool().release(vdb);
 	}
 	
 	/**
@@ -69,14 +93,15 @@ public class INodeManager {
 	 */
 	public static int getSizeFromINode(DiskUnit d, int iNodeIndex) {
 		
-		int blockSize = d.getBlockSize();
-		ArrayList<Integer> iNodeInfo = getINodePos(iNodeIndex, blockSize);
+		ArrayList<Integer> iNodeInfo = getINodePos(iNodeIndex, d.getBlockSize(), d.getINodeSize());
 		int iNodeBlockNum = iNodeInfo.get(0); // get blockNum of the iNode 
 		int iNodeBytePos = iNodeInfo.get(1);  // get iNode byte position
 		VirtualDiskBlock vdb = DiskUtils.copyBlockToVDB(d, iNodeBlockNum);
 		
 		// Get size in the next 4 bytes after the beginning of the i-node byte position
-		return DiskUtils.getIntFromBlock(vdb, iNodeBytePos+4);
+		int size = DiskUtils.getIntFromBlock(vdb, iNodeBytePos+4);
+		d.getBlockPool().release(vdb);
+		return size;
 		
 	}
 	/**
@@ -87,8 +112,7 @@ public class INodeManager {
 	 */
 	public static void setSizeIntoINode(DiskUnit d, int iNodeIndex, int sizeValue) {
 		
-		int blockSize = d.getBlockSize();
-		ArrayList<Integer> iNodeInfo = getINodePos(iNodeIndex, blockSize);
+		ArrayList<Integer> iNodeInfo = getINodePos(iNodeIndex, d.getBlockSize(), d.getINodeSize());
 		int iNodeBlockNum = iNodeInfo.get(0); // get blockNum of the iNode 
 		int iNodeBytePos = iNodeInfo.get(1);  // get iNode byte position
 		VirtualDiskBlock vdb = DiskUtils.copyBlockToVDB(d, iNodeBlockNum);
@@ -96,6 +120,96 @@ public class INodeManager {
 		// Set size in the next 4 bytes after the beginning of the i-node byte position
 		DiskUtils.copyIntToBlock(vdb, iNodeBytePos+4, sizeValue); 
 		d.write(iNodeBlockNum, vdb);  // Write block into disk
+		d.getBlockPool().release(vdb);
+	}
+	
+	/**
+	 * Gets the type of the file an i-node makes reference to.
+	 * @param d DiskUnit in use
+	 * @param iNodeIndex Index of the i-node
+	 * @return Returns DATA_FILE, DIRECTORY, COMPRESSED_FILE, EXTENT_FILE or INDEXED_FILE.
+	 */
+	public static byte getTypeFromINode(DiskUnit d, int iNodeIndex) {
+		
+		ArrayList<Integer> iNodeInfo = getINodePos(iNodeIndex, d.getBlockSize(), d.getINodeSize());
+		int iNodeBlockNum = iNodeInfo.get(0); // get blockNum of the iNode 
+		int iNodeBytePos = iNodeInfo.get(1);  // get iNode byte position
+		VirtualDiskBlock vdb = DiskUtils.copyBlockToVDB(d, iNodeBlockNum);
+		
+		// The type is the last byte of the i-node, after the first block and the size
+		byte type = vdb.getElement(iNodeBytePos+8);
+		d.getBlockPool().release(vdb);
+		return type;
+	}
+	/**
+	 * Sets the type of the file an i-node makes reference to.
+	 * @param d DiskUnit in use
+	 * @param iNodeIndex Index of the i-node to modify
+	 * @param type DATA_FILE, DIRECTORY, COMPRESSED_FILE, EXTENT_FILE or INDEXED_FILE
+	 */
+	public static void setTypeIntoINode(DiskUnit d, int iNodeIndex, byte type) {
+		
+		ArrayList<Integer> iNodeInfo = getINodePos(iNodeIndex, d.getBlockSize(), d.getINodeSize());
+		int iNodeBlockNum = iNodeInfo.get(0); // get blockNum of the iNode 
+		int iNodeBytePos = iNodeInfo.get(1);  // get iNode byte position
+		VirtualDiskBlock vdb = DiskUtils.copyBlockToVDB(d, iNodeBlockNum);
+		
+		if (vdb.getElement(iNodeBytePos+8) != type) {
+			vdb.setElement(iNodeBytePos+8, type);
+			d.write(iNodeBlockNum, vdb);  // Write block into disk
+		}
+		d.getBlockPool().release(vdb);
+	}
+	
+	/**
+	 * Gets the position of a block pointer inside an indexed i-node: the first
+	 * block is at its beginning, and the rest follow the size and the type.
+	 * @param k Index of the pointer, from 0 to POINTERS-1
+	 * @return Returns the byte position of the pointer in the i-node.
+	 */
+	private static int getPointerPos(int k) {
+		return (k == 0 ? 0 : 8 + 4*k);  // bytes 9 to 11 are unused
+	}
+	/**
+	 * Gets the block pointers of an i-node: the direct ones, starting with
+	 * the first block, followed by the single and the double indirect ones.
+	 * An i-node in CHAINED_FORMAT only has the first block.
+	 * @param d DiskUnit in use
+	 * @param iNodeIndex Index of the i-node
+	 * @return Returns POINTERS block numbers, or only the first block in CHAINED_FORMAT.
+	 */
+	public static int[] getBlockPointersFromINode(DiskUnit d, int iNodeIndex) {
+		
+		ArrayList<Integer> iNodeInfo = getINodePos(iNodeIndex, d.getBlockSize(), d.getINodeSize());
+		int iNodeBlockNum = iNodeInfo.get(0); // get blockNum of the iNode 
+		int iNodeBytePos = iNodeInfo.get(1);  // get iNode byte position
+		VirtualDiskBlock vdb = DiskUtils.copyBlockToVDB(d, iNodeBlockNum);
+		
+		int[] pointers = new int[d.getINodeFormat() == INDEXED_FORMAT ? POINTERS : 1];
+		for (int k=0; k < pointers.length; k++)
+			pointers[k] = DiskUtils.getIntFromBlock(vdb, iNodeBytePos + getPointerPos(k));
+		d.getBlockPool().release(vdb);
+		return pointers;
+	}
+	/**
+	 * Sets the block pointers of an i-node, with a single write. The pointers
+	 * not given are set to 0; an i-node in CHAINED_FORMAT only takes the first one.
+	 * @param d DiskUnit in use
+	 * @param iNodeIndex Index of the i-node to modify
+	 * @param pointers Block pointers, starting with the first block.
+	 */
+	public static void setBlockPointersIntoINode(DiskUnit d, int iNodeIndex, int[] pointers) {
+		
+		ArrayList<Integer> iNodeInfo = getINodePos(iNodeIndex, d.getBlockSize(), d.getINodeSize());
+		int iNodeBlockNum = iNodeInfo.get(0); // get blockNum of the iNode 
+		int iNodeBytePos = iNodeInfo.get(1);  // get iNode byte position
+		VirtualDiskBlock vdb = DiskUtils.copyBlockToVDB(d, iNodeBlockNum);
+		
+		int count = (d.getINodeFormat() == INDEXED_FORMAT ? POINTERS : 1);
+		for (int k=0; k < count; k++)
+			DiskUtils.copyIntToBlock(vdb, iNodeBytePos + getPointerPos(k), k < pointers.length ? pointers[k] : 0);
+		d.write(iNodeBlockNum, vdb);  // Write block into disk
+		d.getBlockPool().release(vdb);
 	}
 	
 	/**
@@ -107,6 +221,8 @@ public class INodeManager {
 		if (freeINodeIdx == 0)
 			throw new Exception("No more I-Nodes available");
 		int nextFreeINodeIdx = getDataBlockFromINode(d, freeINodeIdx); 
+		if (nextFreeINodeIdx == 0 && d.isThin() && freeINodeIdx+1 < d.getiNodeNum())
+			nextFreeINodeIdx = freeINodeIdx+1;   // the i-nodes of a thin disk are not linked; they are taken in order
 		d.setFirstFreeINode(nextFreeINodeIdx); // Set the reference to the next free i-node into the disk (like linked list)	
 		
 		return freeINodeIdx;
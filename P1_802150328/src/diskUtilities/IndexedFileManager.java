@@ -0,0 +1,223 @@
+package diskUtilities;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import diskUnitExceptions.FullDiskException;
+
+/**
+ * Class for managing the data files of a disk whose i-nodes are in
+ * INodeManager.INDEXED_FORMAT (type INDEXED_FILE in their i-node). The blocks
+ * of such a file hold blockSize bytes of content each, with no number of the
+ * next block; the i-node points at them. Its first DIRECT_POINTERS pointers
+ * give the first blocks of the file, the single indirect pointer gives a block
+ * of pointers to the blocks that follow, and the double indirect pointer gives
+ * a block of pointers to more blocks of pointers. A pointer block holds
+ * blockSize/4 block numbers. The blocks of a file are found with at most three
+ * reads besides the i-node, whatever its length: the pointer blocks below the
+ * double indirect one are read in a single batch.
+ * @author jahdiel
+ *
+ */
+public class IndexedFileManager {
+
+	private static final int DIRECT = INodeManager.DIRECT_POINTERS;
+	private static final int SINGLE = DIRECT;      // index of the single indirect pointer
+	private static final int DOUBLE = DIRECT + 1;  // index of the double indirect pointer
+
+	/**
+	 * Gets the number of blocks a file can have in an indexed i-node.
+	 * @param d DiskUnit in use
+	 * @return Returns the number of blocks the pointers of an i-node reach.
+	 */
+	public static long getMaxBlocks(DiskUnit d) {
+		long perBlock = d.getBlockSize() / 4;
+		return DIRECT + perBlock + perBlock * perBlock;
+	}
+
+	/**
+	 * Determines if a file fits in an indexed i-node of the disk.
+	 * @param d DiskUnit in use
+	 * @param size Size of the file in bytes
+	 * @return Returns true if the disk has indexed i-nodes that reach every block of the file.
+	 */
+	public static boolean canHold(DiskUnit d, long size) {
+		return d.getINodeFormat() == INodeManager.INDEXED_FORMAT &&
+				(size + d.getBlockSize() - 1) / d.getBlockSize() <= getMaxBlocks(d);
+	}
+
+	/**
+	 * Gets the number of pointer blocks a file needs.
+	 * @param blocks Blocks of the file
+	 * @param perBlock Pointers per block
+	 * @return Returns the number of blocks the indirect pointers need.
+	 */
+	private static int pointerBlocksFor(int blocks, int perBlock) {
+		if (blocks <= DIRECT)
+			return 0;
+		if (blocks <= DIRECT + perBlock)
+			return 1;
+		return 2 + (blocks - DIRECT - perBlock + perBlock - 1) / perBlock;
+	}
+
+	/**
+	 * Writes a file into blocks reached from an indexed i-node. The blocks of
+	 * the file and its pointer blocks are taken at once, so nothing is taken
+	 * if the disk doesn't have them all, and written in two batches.
+	 * @param d DiskUnit in use, with indexed i-nodes
+	 * @param vdbArray content of the file, blockSize bytes per block; it must fit, see canHold.
+	 * @return Returns the POINTERS block pointers of the file, to be set into its i-node.
+	 * @throws FullDiskException The disk doesn't have the blocks the file needs.
+	 */
+	public static int[] writeIndexedFile(DiskUnit d, ArrayList<VirtualDiskBlock> vdbArray) throws FullDiskException {
+		int blocks = vdbArray.size();
+		if (blocks > getMaxBlocks(d))
+			throw new IllegalArgumentException("A file of "+blocks+" blocks doesn't fit in an i-node.");
+		int perBlock = d.getBlockSize() / 4;
+		int[] taken;
+		try {
+			taken = FreeBlockManager.getFreeBNs(d, blocks + pointerBlocksFor(blocks, perBlock));
+		} catch (FullDiskException e) {
+			System.out.println(e.getMessage());
+			throw e;
+		}
+
+		int[] pointers = new int[INodeManager.POINTERS];
+		for (int k=0; k < Math.min(blocks, DIRECT); k++)
+			pointers[k] = taken[k];
+		int next = blocks;   // The pointer blocks follow the blocks of the file
+		ArrayList<VirtualDiskBlock> pointerBlocks = new ArrayList<>();
+		int[] pointerBlockNums = Arrays.copyOfRange(taken, blocks, taken.length);
+		if (blocks > DIRECT) {
+			pointers[SINGLE] = taken[next++];
+			pointerBlocks.add(pointerBlock(d, taken, DIRECT, Math.min(blocks, DIRECT + perBlock)));
+		}
+		if (blocks > DIRECT + perBlock) {
+			pointers[DOUBLE] = taken[next++];
+			VirtualDiskBlock doubleBlock = d.getBlockPool().acquire();
+			pointerBlocks.add(doubleBlock);
+			for (int first = DIRECT + perBlock, i = 0; first < blocks; first += perBlock, i++) {
+				DiskUtils.copyIntToBlock(doubleBlock, 4*i, taken[next++]);
+				pointerBlocks.add(pointerBlock(d, taken, first, Math.min(blocks, first + perBlock)));
+			}
+		}
+		if (blocks > 0)
+			d.writeBlocks(Arrays.copyOf(taken, blocks), vdbArray.toArray(new VirtualDiskBlock[blocks]));
+		if (!pointerBlocks.isEmpty())
+			d.writeBlocks(pointerBlockNums, pointerBlocks.toArray(new VirtualDiskBlock[pointerBlocks.size()]));
+		d.getBlockPool().releaseAll(pointerBlocks);
+		return pointers;
+	}
+
+	/**
+	 * Fills a pointer block with some of the block numbers taken for a file.
+	 * @param d DiskUnit in use
+	 * @param blockNums block numbers taken
+	 * @param from index of the first block number of the pointer block
+	 * @param to index after the last one
+	 * @return Returns the pointer block, taken from the block pool.
+	 */
+	private static VirtualDiskBlock pointerBlock(DiskUnit d, int[] blockNums, int from, int to) {
+		VirtualDiskBlock vdb = d.getBlockPool().acquire();
+		for (int i=from; i < to; i++)
+			DiskUtils.copyIntToBlock(vdb, 4*(i - from), blockNums[i]);
+		return vdb;
+	}
+
+	/**
+	 * Gets the numbers of the blocks of a file, in order.
+	 * @param d DiskUnit in use
+	 * @param pointers Block pointers of the i-node of the file
+	 * @param size Size of the file in bytes, from its i-node
+	 * @return Returns the numbers of the blocks holding the content of the file.
+	 */
+	public static int[] getBlockNums(DiskUnit d, int[] pointers, int size) {
+		return collectBlockNums(d, pointers, size, false);
+	}
+
+	/**
+	 * Gets the numbers of the blocks of a file and, if requested, those of
+	 * its pointer blocks after them.
+	 * @param d DiskUnit in use
+	 * @param pointers Block pointers of the i-node of the file
+	 * @param size Size of the file in bytes
+	 * @param withPointerBlocks true to add the pointer blocks
+	 * @return Returns the block numbers.
+	 */
+	private static int[] collectBlockNums(DiskUnit d, int[] pointers, int size, boolean withPointerBlocks) {
+		int blockSize = d.getBlockSize();
+		int perBlock = blockSize / 4;
+		int blocks = (int) (((long) size + blockSize - 1) / blockSize);
+		int[] blockNums = new int[blocks + (withPointerBlocks ? pointerBlocksFor(blocks, perBlock) : 0)];
+		int pos = blocks;   // where the next pointer block goes
+		System.arraycopy(pointers, 0, blockNums, 0, Math.min(blocks, DIRECT));
+		if (blocks > DIRECT) {
+			// Only read, so the pointer block is viewed instead of copied
+			VirtualDiskBlock single = d.viewBlock(pointers[SINGLE]);
+			for (int i=DIRECT; i < Math.min(blocks, DIRECT + perBlock); i++)
+				blockNums[i] = DiskUtils.getIntFromBlock(single, 4*(i - DIRECT));
+			if (withPointerBlocks)
+				blockNums[pos++] = pointers[SINGLE];
+		}
+		if (blocks > DIRECT + perBlock) {
+			int count = (blocks - DIRECT - perBlock + perBlock - 1) / perBlock;
+			int[] pointerBlockNums = new int[count];
+			VirtualDiskBlock doubleBlock = d.viewBlock(pointers[DOUBLE]);
+			for (int i=0; i < count; i++)
+				pointerBlockNums[i] = DiskUtils.getIntFromBlock(doubleBlock, 4*i);
+			VirtualDiskBlock[] pointerBlocks = new VirtualDiskBlock[count];
+			for (int i=0; i < count; i++)
+				pointerBlocks[i] = d.getBlockPool().acquire();
+			d.readBlocks(pointerBlockNums, pointerBlocks);   // All of them in a single batch
+			for (int i=0, first = DIRECT + perBlock; i < count; i++, first += perBlock) {
+				for (int j=first; j < Math.min(blocks, first + perBlock); j++)
+					blockNums[j] = DiskUtils.getIntFromBlock(pointerBlocks[i], 4*(j - first));
+				d.getBlockPool().release(pointerBlocks[i]);
+			}
+			if (withPointerBlocks) {
+				blockNums[pos++] = pointers[DOUBLE];
+				System.arraycopy(pointerBlockNums, 0, blockNums, pos, count);
+			}
+		}
+		return blockNums;
+	}
+
+	/**
+	 * Reads the content of a file reached from an indexed i-node, in a single
+	 * batch. The blocks are taken from the block pool of the disk, and should
+	 * be released to it once they are no longer needed.
+	 * @param d DiskUnit in use
+	 * @param pointers Block pointers of the i-node of the file
+	 * @param size Size of the file in bytes
+	 * @return the content of the file, blockSize bytes per block
+	 */
+	public static ArrayList<VirtualDiskBlock> readIndexedFile(DiskUnit d, int[] pointers, int size) {
+		int[] blockNums = getBlockNums(d, pointers, size);
+		VirtualDiskBlock[] blocks = new VirtualDiskBlock[blockNums.length];
+		for (int i=0; i < blocks.length; i++)
+			blocks[i] = d.getBlockPool().acquire();
+		if (blocks.length > 0)
+			d.readBlocks(blockNums, blocks);
+		return new ArrayList<>(Arrays.asList(blocks));
+	}
+
+	/**
+	 * Deletes a file reached from an indexed i-node: its blocks and its
+	 * pointer blocks are wiped and registered as free.
+	 * @param d DiskUnit in use
+	 * @param pointers Block pointers of the i-node of the file
+	 * @param size Size of the file in bytes
+	 */
+	public static void deleteIndexedFile(DiskUnit d, int[] pointers, int size) {
+		int[] blockNums = collectBlockNums(d, pointers, size, true);
+		if (blockNums.length == 0)
+			return;
+		VirtualDiskBlock[] zeroes = new VirtualDiskBlock[blockNums.length];
+		Arrays.fill(zeroes, d.getBlockPool().acquire());   // The same cleared block wipes every block
+		d.writeBlocks(blockNums, zeroes);
+		d.getBlockPool().release(zeroes[0]);
+		for (int blockNum : blockNums)
+			FreeBlockManager.registerFB(d, blockNum);
+	}
+
+}
@@ -0,0 +1,197 @@
+package diskUtilities;
+
+/**
+ * In-memory copy of the control data stored at the beginning of block 0
+ * of a disk unit. The first 24 bytes hold six integers; the settings of
+ * the disk follow them, one byte each, and bytes 28-31 hold the first unused
+ * block of a thin disk. In blocks larger than SIZE, byte 32 holds the format 
+ * of the i-nodes and byte 33 the allocator of the free blocks; they are 0 
+ * (INodeManager.CHAINED_FORMAT and FreeBlockManager.FIRST_FIT) in disks created
+ * before they existed, and in disks of 32-byte blocks.
+ * It is loaded once when the disk is mounted; changes are
+ * kept in memory and marked as dirty until the disk unit writes them back
+ * (on sync or shutdown).
+ * @author jahdiel
+ *
+ */
+public class SuperBlock {
+
+	public static final int SIZE = 32;  // bytes of block 0 used by the control data (the minimum block size)
+	public static final int FORMAT_POS = SIZE;  // byte of block 0 holding the i-node format, in blocks larger than SIZE
+	public static final int ALLOCATOR_POS = FORMAT_POS + 1;  // byte of block 0 holding the allocator of the free blocks
+
+	private int capacity;       // number of blocks of the disk
+	private int blockSize;      // size of each block of the disk
+	private int firstDataBlock; // index of the first free data block (the root of free block collection)
+	private int nextFreeBlock;  // index representing top 4 bytes position in block firstFLB
+	private int firstFreeINode; // index of first free i-node
+	private int iNodeNum;       // total number of i-nodes in the disk (free + taken)
+	private byte durability;    // DiskUnit durability policy of the disk (byte 24)
+	private int stripes;        // number of files the blocks are spread over; 0 if not striped (byte 25)
+	private byte checksums;     // BlockChecksums policy of the disk (byte 26)
+	private byte sharing;       // BlockRefs mode of the disk (byte 27)
+	private int firstUnusedBlock; // first block never handed out on a thin disk; 0 if the disk is not thin (bytes 28-31)
+	private int iNodeFormat;    // INodeManager format of the i-nodes, set when the disk is created (byte 32)
+	private int allocator;      // FreeBlockManager allocator of the free blocks, set when the disk is created (byte 33)
+
+	private boolean dirty;      // true if memory differs from what is stored in the disk
+
+	/**
+	 * Creates the superblock from the first bytes of block 0.
+	 * @param data array with at least SIZE bytes, as stored in the disk; the
+	 *  i-node format and the allocator are read if the array and the blocks hold them.
+	 */
+	public SuperBlock(byte[] data) {
+		capacity = DiskUtils.getIntFromBytesArray(data, 0);
+		blockSize = DiskUtils.getIntFromBytesArray(data, 4);
+		firstDataBlock = DiskUtils.getIntFromBytesArray(data, 8);
+		nextFreeBlock = DiskUtils.getIntFromBytesArray(data, 12);
+		firstFreeINode = DiskUtils.getIntFromBytesArray(data, 16);
+		iNodeNum = DiskUtils.getIntFromBytesArray(data, 20);
+		durability = data[24];
+		stripes = data[25] & 0xFF;
+		checksums = data[26];
+		sharing = data[27];
+		firstUnusedBlock = DiskUtils.getIntFromBytesArray(data, 28);
+		iNodeFormat = (blockSize > FORMAT_POS && data.length > FORMAT_POS ? data[FORMAT_POS] : 0);
+		allocator = (blockSize > ALLOCATOR_POS && data.length > ALLOCATOR_POS ? data[ALLOCATOR_POS] : 0);
+		dirty = false;
+	}
+
+	/**
+	 * Copies the control data into the first SIZE bytes of the array,
+	 * in the same format that it is stored in the disk. The i-node format 
+	 * and the allocator never change, so they are left as they are in the array.
+	 * @param data array where the control data is copied.
+	 */
+	public void copyToBytesArray(byte[] data) {
+		DiskUtils.copyIntToBytesArray(data, 0, capacity);
+		DiskUtils.copyIntToBytesArray(data, 4, blockSize);
+		DiskUtils.copyIntToBytesArray(data, 8, firstDataBlock);
+		DiskUtils.copyIntToBytesArray(data, 12, nextFreeBlock);
+		DiskUtils.copyIntToBytesArray(data, 16, firstFreeINode);
+		DiskUtils.copyIntToBytesArray(data, 20, iNodeNum);
+		data[24] = durability;
+		data[25] = (byte) stripes;
+		data[26] = checksums;
+		data[27] = sharing;
+		DiskUtils.copyIntToBytesArray(data, 28, firstUnusedBlock);
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	public int getFirstDataBlock() {
+		return firstDataBlock;
+	}
+
+	public void setFirstDataBlock(int firstDataBlock) {
+		if (this.firstDataBlock != firstDataBlock) {
+			this.firstDataBlock = firstDataBlock;
+			dirty = true;
+		}
+	}
+
+	public int getNextFreeBlock() {
+		return nextFreeBlock;
+	}
+
+	public void setNextFreeBlock(int nextFreeBlock) {
+		if (this.nextFreeBlock != nextFreeBlock) {
+			this.nextFreeBlock = nextFreeBlock;
+			dirty = true;
+		}
+	}
+
+	public int getFirstFreeINode() {
+		return firstFreeINode;
+	}
+
+	public void setFirstFreeINode(int firstFreeINode) {
+		if (this.firstFreeINode != firstFreeINode) {
+			this.firstFreeINode = firstFreeINode;
+			dirty = true;
+		}
+	}
+
+	public int getiNodeNum() {
+		return iNodeNum;
+	}
+
+	public int getDurability() {
+		return durability;
+	}
+
+	public void setDurability(int durability) {
+		if (this.durability != durability) {
+			this.durability = (byte) durability;
+			dirty = true;
+		}
+	}
+
+	public int getStripes() {
+		return stripes;
+	}
+
+	public int getChecksums() {
+		return checksums;
+	}
+
+	public void setChecksums(int checksums) {
+		if (this.checksums != checksums) {
+			this.checksums = (byte) checksums;
+			dirty = true;
+		}
+	}
+
+	public int getSharing() {
+		return sharing;
+	}
+
+	public void setSharing(int sharing) {
+		if (this.sharing != sharing) {
+			this.sharing = (byte) sharing;
+			dirty = true;
+		}
+	}
+
+	public int getINodeFormat() {
+		return iNodeFormat;
+	}
+
+	public int getAllocator() {
+		return allocator;
+	}
+
+	public int getFirstUnusedBlock() {
+		return firstUnusedBlock;
+	}
+
+	public void setFirstUnusedBlock(int firstUnusedBlock) {
+		if (this.firstUnusedBlock != firstUnusedBlock) {
+			this.firstUnusedBlock = firstUnusedBlock;
+			dirty = true;
+		}
+	}
+
+	/**
+	 * Determines if the control data changed since it was last stored.
+	 * @return Returns true if it needs to be written into the disk.
+	 */
+	public boolean isDirty() {
+		return dirty;
+	}
+
+	/**
+	 * Marks the control data as stored in the disk.
+	 */
+	public void clean() {
+		dirty = false;
+	}
+
+}
@@ -0,0 +1,168 @@
+package diskUtilities;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * File of a table kept next to a disk file, with one entry of a fixed size
+ * per block of the disk (see BlockChecksums and BlockRefs). The file starts
+ * with the header fields of the table, 4 bytes each, and its state, followed
+ * by the entries. Only the entries changed since the table was last stored
+ * are written again. The state is set to DIRTY on the first change after the
+ * table is stored and back to CLEAN when it is stored again, so a table left
+ * behind by a disk that wasn't unmounted is not loaded.
+ * @author jahdiel
+ *
+ */
+class TableFile {
+
+	// States of the file: it matches the disk file, or it may not
+	private static final int CLEAN = 0;
+	private static final int DIRTY = 1;
+
+	/**
+	 * Writes the entries of a range of blocks into a buffer.
+	 */
+	interface Entries {
+		/**
+		 * @param dst buffer of exactly the size of the entries, from its start
+		 * @param from first block
+		 * @param to last block
+		 */
+		void put(ByteBuffer dst, int from, int to);
+	}
+
+	private RandomAccessFile file;
+	private FileChannel channel;
+	private int headerSize;      // header fields and state
+	private int entrySize;       // bytes per block
+	private int entries;         // blocks of the disk
+	private int dirtyFrom = Integer.MAX_VALUE;  // range of entries changed since the table was stored
+	private int dirtyTo = -1;
+	private boolean markedDirty;  // true if the state in the file is DIRTY
+
+	/**
+	 * Opens the file of a table, creating it empty if it doesn't exist.
+	 * @param path the file
+	 * @param headerFields number of header fields, the state excluded
+	 * @param entrySize bytes of the entry of each block
+	 * @param entries number of blocks of the disk
+	 * @throws IOException if the file can't be opened
+	 */
+	TableFile(File path, int headerFields, int entrySize, int entries) throws IOException {
+		file = new RandomAccessFile(path, "rw");
+		channel = file.getChannel();
+		headerSize = 4 * (headerFields + 1);
+		this.entrySize = entrySize;
+		this.entries = entries;
+	}
+
+	/**
+	 * Reads the whole table.
+	 * @param header expected values of the header fields
+	 * @return the content of the file, positioned at the first entry; null if
+	 *  the file is missing, incomplete, of another header, or wasn't stored
+	 *  after its last changes.
+	 * @throws IOException if the file can't be read
+	 */
+	ByteBuffer load(int... header) throws IOException {
+		long expected = headerSize + (long) entrySize * entries;
+		if (file.length() != expected)
+			return null;
+		ByteBuffer table = ByteBuffer.allocate((int) expected);
+		while (table.hasRemaining())
+			if (channel.read(table, table.position()) < 0)
+				return null;
+		table.flip();
+		for (int field : header)
+			if (table.getInt() != field)
+				return null;
+		return (table.getInt() == CLEAN ? table : null);
+	}
+
+	/**
+	 * Sets the length of the file and writes its header, marked DIRTY
+	 * until the entries are stored.
+	 * @param header values of the header fields
+	 * @throws IOException if the file can't be written
+	 */
+	synchronized void create(int... header) throws IOException {
+		file.setLength(headerSize + (long) entrySize * entries);
+		ByteBuffer fields = ByteBuffer.allocate(headerSize);
+		for (int field : header)
+			fields.putInt(field);
+		fields.putInt(DIRTY);
+		fields.flip();
+		while (fields.hasRemaining())
+			channel.write(fields, fields.position());
+		markedDirty = true;
+	}
+
+	/**
+	 * Records a range of entries changed. On the first change since the
+	 * table was stored, the file is marked DIRTY.
+	 * @param from first block
+	 * @param to last block
+	 */
+	synchronized void markDirty(int from, int to) {
+		dirtyFrom = Math.min(dirtyFrom, from);
+		dirtyTo = Math.max(dirtyTo, to);
+		if (!markedDirty) {
+			try {
+				writeState(DIRTY);
+				markedDirty = true;
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private void writeState(int state) throws IOException {
+		ByteBuffer field = ByteBuffer.allocate(4).putInt(0, state);
+		while (field.hasRemaining())
+			channel.write(field, headerSize - 4 + field.position());
+	}
+
+	/**
+	 * Writes the entries changed since the table was last stored, and marks
+	 * the file CLEAN.
+	 * @param source writes the entries of the changed blocks
+	 * @throws IOException if the file can't be written
+	 */
+	synchronized void store(Entries source) throws IOException {
+		if (dirtyTo >= dirtyFrom) {
+			ByteBuffer changed = ByteBuffer.allocate(entrySize * (dirtyTo - dirtyFrom + 1));
+			source.put(changed, dirtyFrom, dirtyTo);
+			changed.clear();
+			long pos = headerSize + (long) entrySize * dirtyFrom;
+			while (changed.hasRemaining())
+				channel.write(changed, pos + changed.position());
+			dirtyFrom = Integer.MAX_VALUE;
+			dirtyTo = -1;
+		}
+		if (markedDirty) {
+			writeState(CLEAN);
+			markedDirty = false;
+		}
+	}
+
+	/**
+	 * Forces the file into the storage device.
+	 * @throws IOException if the file can't be forced
+	 */
+	void force() throws IOException {
+		channel.force(false);
+	}
+
+	/**
+	 * Closes the file. The table must not be used afterwards.
+	 * @throws IOException if the file can't be closed
+	 */
+	void close() throws IOException {
+		file.close();
+	}
+
+}
@@ -1,5 +1,8 @@
 package diskUtilities;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 import diskUnitExceptions.*;
 
 public class VirtualDiskBlock {
@@ -7,7 +10,8 @@ public class VirtualDiskBlock {
 	private static final int DEFAULT_BLOCK_SIZE = 256;
 	
 	private int capacity;
-	private byte[] elements;
+	private ByteBuffer elements;   // big-endian, as integers are stored in the disk
+	private boolean view;          // true if elements belong to a cache or mapping (read-only)
 	
 	/**
 	 * Creates a block of size equal to 256 bytes.
@@ -24,9 +28,20 @@ public class VirtualDiskBlock {
 		if (blockCapacity < 32)
 			blockCapacity = DEFAULT_BLOCK_SIZE;
 		
-		elements = new byte[blockCapacity];
+		elements = ByteBuffer.allocate(blockCapacity);
 		capacity = blockCapacity;
 	}
+	/**
+	 * Creates a read-only block sharing the content of the given buffer,
+	 * from its position to its limit. Used by the disk unit to expose
+	 * blocks without copying them.
+	 * @param content buffer holding the bytes of the block
+	 */
+	VirtualDiskBlock(ByteBuffer content) {
+		elements = content.slice().asReadOnlyBuffer();
+		capacity = elements.capacity();
+		view = true;
+	}
 	/**
 	 * Returns a positive integer value that corresponds to the capacity 
 	 * (number of character spaces or elements) of the current instance of block. 
@@ -44,11 +59,11 @@ public class VirtualDiskBlock {
 	 * @param nuevo new value to set in the index position
 	 */
 	public void setElement(int index, byte nuevo) throws InvalidVirtualDiskBlockIndexException {
-		if (index < 0 || index > elements.length) {
+		if (index < 0 || index >= capacity) {
 			throw new InvalidVirtualDiskBlockIndexException("The index "+index+" is out "
-					+ "of bounds. VirtualDiskBlock block capacity: "+elements.length);
+					+ "of bounds. VirtualDiskBlock block capacity: "+capacity);
 		}
-		elements[index] = nuevo;
+		elements.put(index, nuevo);
 	}
 	/**
 	 * Returns a copy of the character at the position index 
@@ -58,11 +73,100 @@ public class VirtualDiskBlock {
 	 * @return element in the position index
 	 */
 	public byte getElement(int index) throws InvalidVirtualDiskBlockIndexException {
-		if (index < 0 || index > elements.length) {
+		if (index < 0 || index >= capacity) {
+			throw new InvalidVirtualDiskBlockIndexException("The index "+index+" is out "
+					+ "of bounds. VirtualDiskBlock block capacity: "+capacity);
+		}
+		return elements.get(index);
+	}
+	/**
+	 * Returns the integer stored (big-endian) in the four bytes beginning
+	 * at position index of the current block instance.
+	 * @param index index of the most significant byte of the integer
+	 * @return integer in positions index to index+3
+	 */
+	public int getInt(int index) throws InvalidVirtualDiskBlockIndexException {
+		try {
+			return elements.getInt(index);
+		} catch (IndexOutOfBoundsException e) {
 			throw new InvalidVirtualDiskBlockIndexException("The index "+index+" is out "
-					+ "of bounds. VirtualDiskBlock block capacity: "+elements.length);
+					+ "of bounds. VirtualDiskBlock block capacity: "+capacity);
+		}
+	}
+	/**
+	 * Stores an integer (big-endian) in the four bytes beginning at 
+	 * position index of the current block instance.
+	 * @param index index of the most significant byte of the integer
+	 * @param value integer to store in positions index to index+3
+	 */
+	public void putInt(int index, int value) throws InvalidVirtualDiskBlockIndexException {
+		try {
+			elements.putInt(index, value);
+		} catch (IndexOutOfBoundsException e) {
+			throw new InvalidVirtualDiskBlockIndexException("The index "+index+" is out "
+					+ "of bounds. VirtualDiskBlock block capacity: "+capacity);
+		}
+	}
+	/**
+	 * Copies length bytes of the current block instance, beginning at
+	 * position index, into dst beginning at position offset.
+	 * @param index index of the first byte to copy from the block
+	 * @param dst array to copy the bytes into
+	 * @param offset index in dst of the first byte copied
+	 * @param length number of bytes to copy
+	 */
+	public void get(int index, byte[] dst, int offset, int length) throws InvalidVirtualDiskBlockIndexException {
+		checkRange(index, length);
+		if (view) {
+			ByteBuffer src = elements.duplicate();
+			src.position(index);
+			src.get(dst, offset, length);
+		} else {
+			System.arraycopy(elements.array(), index, dst, offset, length);
 		}
-		return elements[index];
+	}
+	/**
+	 * Copies length bytes of src, beginning at position offset, into the
+	 * current block instance beginning at position index.
+	 * @param index index in the block of the first byte copied
+	 * @param src array to copy the bytes from
+	 * @param offset index in src of the first byte to copy
+	 * @param length number of bytes to copy
+	 */
+	public void put(int index, byte[] src, int offset, int length) throws InvalidVirtualDiskBlockIndexException {
+		checkRange(index, length);
+		System.arraycopy(src, offset, elements.array(), index, length);
+	}
+	/**
+	 * Sets every byte of the current block instance to zero.
+	 */
+	public void clear() {
+		Arrays.fill(elements.array(), (byte) 0);
+	}
+	/**
+	 * Verifies that length bytes beginning at position index are inside the block.
+	 */
+	private void checkRange(int index, int length) throws InvalidVirtualDiskBlockIndexException {
+		if (index < 0 || length < 0 || index > capacity - length) {
+			throw new InvalidVirtualDiskBlockIndexException("The range "+index+" to "+(index+length-1)+" is out "
+					+ "of bounds. VirtualDiskBlock block capacity: "+capacity);
+		}
+	}
+	/**
+	 * Determines if the current block instance is a read-only view of
+	 * a block kept by the disk unit.
+	 * @return true if the block is a view
+	 */
+	boolean isView() {
+		return view;
+	}
+	/**
+	 * Returns the array backing the current block instance. Used by the
+	 * disk unit to move the whole block at once.
+	 * @return array of bytes of the block
+	 */
+	byte[] getElements() {
+		return elements.array();
 	}
 	
 }
@@ -2,6 +2,8 @@ package systemGeneralClasses;
 
 import java.util.ArrayList;
 
+import diskUnitExceptions.CorruptBlockException;
+
 import theSystem.IOCommandsProcessor;
 import theSystem.SystemCommandsProcessor;
 
@@ -68,7 +70,13 @@ public class SystemController {
 			
 			// initiate execution of command
 			SystemCommand matchingSC = cLine.getSc(); 
-			outputList = actualProcessor.executeCommand( matchingSC, cmd ); 
+			try { 
+				outputList = actualProcessor.executeCommand( matchingSC, cmd ); 
+			} catch (CorruptBlockException e) { 
+				// a damaged block ends the command, not the system
+				System.out.println(e.getMessage()); 
+				outputList = null; 
+			}
 			// show results...
 			if (outputList != null && !outputList.isEmpty()) { 
 				currentMode = OUTPUTMODE; 
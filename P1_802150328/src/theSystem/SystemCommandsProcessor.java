@@ -18,6 +18,8 @@ import systemGeneralClasses.VariableLengthCommand;
 import stack.IntStack;
 
 import diskUtilities.DiskManager;
+import diskUtilities.FreeBlockManager;
+import diskUtilities.INodeManager;
 
 
 /**
@@ -84,14 +86,38 @@ public class SystemCommandsProcessor extends CommandProcessor {
 		
 		// the following commands are treated as fixed length commands...
 		add(GENERALSTATE, SystemCommand.getFLSC("createdisk name int int", new CreateDiskProcessor())); 		
+		add(GENERALSTATE, SystemCommand.getFLSC("createstriped name int int int", new CreateStripedDiskProcessor()));
+		add(GENERALSTATE, SystemCommand.getFLSC("createthin name int int", new CreateThinDiskProcessor()));
+		add(GENERALSTATE, SystemCommand.getFLSC("createindexed name int int", new CreateIndexedDiskProcessor()));
+		add(GENERALSTATE, SystemCommand.getFLSC("createbuddy name int int", new CreateBuddyDiskProcessor()));
 		add(GENERALSTATE, SystemCommand.getFLSC("deletedisk name", new DeleteDiskProcessor()));
+		add(GENERALSTATE, SystemCommand.getFLSC("format name", new FormatDiskProcessor()));
 		add(GENERALSTATE, SystemCommand.getFLSC("mount name", new MountDiskProcessor()));
+		add(GENERALSTATE, SystemCommand.getFLSC("mountmode name name", new MountDiskModeProcessor()));
+		add(GENERALSTATE, SystemCommand.getFLSC("mountdurable name name", new MountDiskDurableProcessor()));
+		add(GENERALSTATE, SystemCommand.getFLSC("durability name", new DurabilityProcessor()));
 		add(GENERALSTATE, SystemCommand.getFLSC("unmount", new UnmountDiskProcessor()));
 		add(GENERALSTATE, SystemCommand.getFLSC("loadfile name name", new LoadFileProcessor()));
+		add(GENERALSTATE, SystemCommand.getFLSC("loadcompressed name name", new LoadCompressedFileProcessor()));
+		add(GENERALSTATE, SystemCommand.getFLSC("loadextents name name", new LoadExtentFileProcessor()));
 		add(GENERALSTATE, SystemCommand.getFLSC("cp name name", new CopyFileProcessor()));
+		add(GENERALSTATE, SystemCommand.getFLSC("reflink name name", new ReflinkFileProcessor()));
 		add(GENERALSTATE, SystemCommand.getFLSC("ls", new ListDirectoryProcessor()));
 		add(GENERALSTATE, SystemCommand.getFLSC("cat name", new DisplayInternalFileProcessor()));
+		add(GENERALSTATE, SystemCommand.getFLSC("catrange name int int", new DisplayFileRangeProcessor()));
+		add(GENERALSTATE, SystemCommand.getFLSC("readbench name", new ReadBenchmarkProcessor()));
 		add(GENERALSTATE, SystemCommand.getFLSC("showdisks", new ShowDisksProcessor())); 
+		add(GENERALSTATE, SystemCommand.getFLSC("cache int name", new CacheProcessor())); 
+		add(GENERALSTATE, SystemCommand.getFLSC("offheapcache int name", new OffHeapCacheProcessor())); 
+		add(GENERALSTATE, SystemCommand.getFLSC("flushpolicy int int", new FlushPolicyProcessor())); 
+		add(GENERALSTATE, SystemCommand.getFLSC("sync", new SyncProcessor())); 
+		add(GENERALSTATE, SystemCommand.getFLSC("readahead int", new ReadAheadProcessor())); 
+		add(GENERALSTATE, SystemCommand.getFLSC("checksums name", new ChecksumsProcessor())); 
+		add(GENERALSTATE, SystemCommand.getFLSC("dedup name", new DedupProcessor())); 
+		add(GENERALSTATE, SystemCommand.getFLSC("snapshot name name", new SnapshotProcessor())); 
+		add(GENERALSTATE, SystemCommand.getFLSC("rollback name", new RollbackProcessor())); 
+		add(GENERALSTATE, SystemCommand.getFLSC("deletesnapshot name", new DeleteSnapshotProcessor())); 
+		add(GENERALSTATE, SystemCommand.getFLSC("diskstats", new DiskStatsProcessor())); 
 		add(GENERALSTATE, SystemCommand.getFLSC("exit", new ShutDownProcessor())); 
 		add(GENERALSTATE, SystemCommand.getFLSC("help", new HelpProcessor())); 
 				
@@ -147,6 +173,91 @@ public class SystemCommandsProcessor extends CommandProcessor {
 		}
 	}
 	
+	private class CreateStripedDiskProcessor implements CommandActionHandler { 
+		public ArrayList<String> execute(Command c) { 
+
+			resultsList = new ArrayList<String>(); 
+			FixedLengthCommand fc = (FixedLengthCommand) c;
+			String name = fc.getOperand(1);
+			int nBlocks = Integer.parseInt(fc.getOperand(2));
+			int bSize = Integer.parseInt(fc.getOperand(3));
+			int stripes = Integer.parseInt(fc.getOperand(4));
+			
+			try {
+				DiskManager.createDiskUnit(name, nBlocks, bSize, stripes);
+				resultsList.add("DiskUnit "+name+" has been created, striped over "+stripes+" files.");
+			} catch (InvalidParameterException e) {
+				resultsList.add(e.getMessage());
+			} catch (ExistingDiskException e) {
+				System.out.println("Disk exist with that name already.");
+			}
+			return resultsList; 
+		}
+	}
+	
+	private class CreateThinDiskProcessor implements CommandActionHandler { 
+		public ArrayList<String> execute(Command c) { 
+
+			resultsList = new ArrayList<String>(); 
+			FixedLengthCommand fc = (FixedLengthCommand) c;
+			String name = fc.getOperand(1);
+			int nBlocks = Integer.parseInt(fc.getOperand(2));
+			int bSize = Integer.parseInt(fc.getOperand(3));
+			
+			try {
+				DiskManager.createDiskUnit(name, nBlocks, bSize, 1, true);
+				resultsList.add("DiskUnit "+name+" has been created, thin provisioned.");
+			} catch (InvalidParameterException e) {
+				resultsList.add(e.getMessage());
+			} catch (ExistingDiskException e) {
+				System.out.println("Disk exist with that name already.");
+			}
+			return resultsList; 
+		}
+	}
+	
+	private class CreateIndexedDiskProcessor implements CommandActionHandler { 
+		public ArrayList<String> execute(Command c) { 
+
+			resultsList = new ArrayList<String>(); 
+			FixedLengthCommand fc = (FixedLengthCommand) c;
+			String name = fc.getOperand(1);
+			int nBlocks = Integer.parseInt(fc.getOperand(2));
+			int bSize = Integer.parseInt(fc.getOperand(3));
+			
+			try {
+				DiskManager.createDiskUnit(name, nBlocks, bSize, 1, false, INodeManager.INDEXED_FORMAT);
+				resultsList.add("DiskUnit "+name+" has been created, with indexed i-nodes.");
+			} catch (InvalidParameterException e) {
+				resultsList.add(e.getMessage());
+			} catch (ExistingDiskException e) {
+				System.out.println("Disk exist with that name already.");
+			}
+			return resultsList; 
+		}
+	}
+	
+	private class CreateBuddyDiskProcessor implements CommandActionHandler { 
+		public ArrayList<String> execute(Command c) { 
+
+			resultsList = new ArrayList<String>(); 
+			FixedLengthCommand fc = (FixedLengthCommand) c;
+			String name = fc.getOperand(1);
+			int nBlocks = Integer.parseInt(fc.getOperand(2));
+			int bSize = Integer.parseInt(fc.getOperand(3));
+			
+			try {
+				DiskManager.createDiskUnit(name, nBlocks, bSize, 1, false, INodeManager.CHAINED_FORMAT, FreeBlockManager.BUDDY);
+				resultsList.add("DiskUnit "+name+" has been created, with the buddy allocator.");
+			} catch (InvalidParameterException e) {
+				resultsList.add(e.getMessage());
+			} catch (ExistingDiskException e) {
+				System.out.println("Disk exist with that name already.");
+			}
+			return resultsList; 
+		}
+	}
+	
 	private class DeleteDiskProcessor implements CommandActionHandler { 
 		public ArrayList<String> execute(Command c) { 
 
@@ -160,6 +271,19 @@ public class SystemCommandsProcessor extends CommandProcessor {
 		}
 	}
 	
+	private class FormatDiskProcessor implements CommandActionHandler { 
+		public ArrayList<String> execute(Command c) { 
+
+			resultsList = new ArrayList<String>(); 
+			FixedLengthCommand fc = (FixedLengthCommand) c;
+			String name = fc.getOperand(1);
+			
+			DiskManager.formatDisk(name);
+			
+			return resultsList; 
+		}
+	}
+	
 	private class ShowDisksProcessor implements CommandActionHandler { 
 		public ArrayList<String> execute(Command c) { 
 
@@ -182,6 +306,19 @@ public class SystemCommandsProcessor extends CommandProcessor {
 		}
 	}
 	
+	private class MountDiskModeProcessor implements CommandActionHandler { 
+		public ArrayList<String> execute(Command c) { 
+
+			resultsList = new ArrayList<String>();
+			FixedLengthCommand fc = (FixedLengthCommand) c;
+			String name = fc.getOperand(1);
+			String mode = fc.getOperand(2);
+			DiskManager.mountDisk(name, mode);
+			
+			return resultsList; 
+		}
+	}
+	
 	private class UnmountDiskProcessor implements CommandActionHandler { 
 		public ArrayList<String> execute(Command c) { 
 
@@ -205,6 +342,32 @@ public class SystemCommandsProcessor extends CommandProcessor {
 		}
 	}
 	
+	private class LoadCompressedFileProcessor implements CommandActionHandler { 
+		public ArrayList<String> execute(Command c) { 
+
+			resultsList = new ArrayList<String>();
+			FixedLengthCommand fc = (FixedLengthCommand) c;
+			String name1 = fc.getOperand(1);
+			String name2 = fc.getOperand(2);
+			DiskManager.loadFile(name1, name2, true);
+		
+			return resultsList; 
+		}
+	}
+	
+	private class LoadExtentFileProcessor implements CommandActionHandler { 
+		public ArrayList<String> execute(Command c) { 
+
+			resultsList = new ArrayList<String>();
+			FixedLengthCommand fc = (FixedLengthCommand) c;
+			String name1 = fc.getOperand(1);
+			String name2 = fc.getOperand(2);
+			DiskManager.loadFile(name1, name2, INodeManager.EXTENT_FILE);
+		
+			return resultsList; 
+		}
+	}
+	
 	private class CopyFileProcessor implements CommandActionHandler { 
 		public ArrayList<String> execute(Command c) { 
 
@@ -217,6 +380,18 @@ public class SystemCommandsProcessor extends CommandProcessor {
 		}
 	}
 	
+	private class ReflinkFileProcessor implements CommandActionHandler { 
+		public ArrayList<String> execute(Command c) { 
+
+			resultsList = new ArrayList<String>();
+			FixedLengthCommand fc = (FixedLengthCommand) c;
+			String inputFile = fc.getOperand(1);
+			String file = fc.getOperand(2);
+			DiskManager.copyFile(inputFile, file, true);
+			return resultsList; 
+		}
+	}
+	
 	private class ListDirectoryProcessor implements CommandActionHandler { 
 		public ArrayList<String> execute(Command c) { 
 
@@ -238,6 +413,189 @@ public class SystemCommandsProcessor extends CommandProcessor {
 		}
 	}
 	
+	private class DisplayFileRangeProcessor implements CommandActionHandler { 
+		public ArrayList<String> execute(Command c) { 
+
+			resultsList = new ArrayList<String>(); 
+			FixedLengthCommand fc = (FixedLengthCommand) c;
+			String filename = fc.getOperand(1);
+			int offset = Integer.parseInt(fc.getOperand(2));
+			int length = Integer.parseInt(fc.getOperand(3));
+			DiskManager.catRange(filename, offset, length);
+			
+			return resultsList; 
+		}
+	}
+	
+	private class ReadBenchmarkProcessor implements CommandActionHandler { 
+		public ArrayList<String> execute(Command c) { 
+
+			resultsList = new ArrayList<String>(); 
+			FixedLengthCommand fc = (FixedLengthCommand) c;
+			String filename = fc.getOperand(1);
+			DiskManager.readBenchmark(filename);
+			
+			return resultsList; 
+		}
+	}
+	
+	private class CacheProcessor implements CommandActionHandler { 
+		public ArrayList<String> execute(Command c) { 
+
+			resultsList = new ArrayList<String>(); 
+			FixedLengthCommand fc = (FixedLengthCommand) c;
+			int maxBlocks = Integer.parseInt(fc.getOperand(1));
+			String policy = fc.getOperand(2);
+			DiskManager.setCache(maxBlocks, policy);
+			
+			return resultsList; 
+		}
+	}
+	
+	private class OffHeapCacheProcessor implements CommandActionHandler { 
+		public ArrayList<String> execute(Command c) { 
+
+			resultsList = new ArrayList<String>(); 
+			FixedLengthCommand fc = (FixedLengthCommand) c;
+			int maxBlocks = Integer.parseInt(fc.getOperand(1));
+			String policy = fc.getOperand(2);
+			DiskManager.setCache(maxBlocks, policy, true);
+			
+			return resultsList; 
+		}
+	}
+	
+	private class MountDiskDurableProcessor implements CommandActionHandler { 
+		public ArrayList<String> execute(Command c) { 
+
+			resultsList = new ArrayList<String>(); 
+			FixedLengthCommand fc = (FixedLengthCommand) c;
+			String name = fc.getOperand(1);
+			String policy = fc.getOperand(2);
+			DiskManager.mountDiskDurable(name, policy);
+			
+			return resultsList; 
+		}
+	}
+	
+	private class DurabilityProcessor implements CommandActionHandler { 
+		public ArrayList<String> execute(Command c) { 
+
+			resultsList = new ArrayList<String>(); 
+			FixedLengthCommand fc = (FixedLengthCommand) c;
+			String policy = fc.getOperand(1);
+			DiskManager.setDurability(policy);
+			
+			return resultsList; 
+		}
+	}
+	
+	private class FlushPolicyProcessor implements CommandActionHandler { 
+		public ArrayList<String> execute(Command c) { 
+
+			resultsList = new ArrayList<String>(); 
+			FixedLengthCommand fc = (FixedLengthCommand) c;
+			int flushInterval = Integer.parseInt(fc.getOperand(1));
+			int dirtyThreshold = Integer.parseInt(fc.getOperand(2));
+			DiskManager.setFlushPolicy(flushInterval, dirtyThreshold);
+			
+			return resultsList; 
+		}
+	}
+	
+	private class ReadAheadProcessor implements CommandActionHandler { 
+		public ArrayList<String> execute(Command c) { 
+
+			resultsList = new ArrayList<String>(); 
+			FixedLengthCommand fc = (FixedLengthCommand) c;
+			int readAhead = Integer.parseInt(fc.getOperand(1));
+			DiskManager.setReadAhead(readAhead);
+			
+			return resultsList; 
+		}
+	}
+	
+	private class ChecksumsProcessor implements CommandActionHandler { 
+		public ArrayList<String> execute(Command c) { 
+
+			resultsList = new ArrayList<String>(); 
+			FixedLengthCommand fc = (FixedLengthCommand) c;
+			String policy = fc.getOperand(1);
+			DiskManager.setChecksums(policy);
+			
+			return resultsList; 
+		}
+	}
+	
+	private class DedupProcessor implements CommandActionHandler { 
+		public ArrayList<String> execute(Command c) { 
+
+			resultsList = new ArrayList<String>(); 
+			FixedLengthCommand fc = (FixedLengthCommand) c;
+			String setting = fc.getOperand(1);
+			DiskManager.setDedup(setting);
+			
+			return resultsList; 
+		}
+	}
+	
+	private class SnapshotProcessor implements CommandActionHandler { 
+		public ArrayList<String> execute(Command c) { 
+
+			resultsList = new ArrayList<String>(); 
+			FixedLengthCommand fc = (FixedLengthCommand) c;
+			String name = fc.getOperand(1);
+			String snapshotName = fc.getOperand(2);
+			DiskManager.createSnapshot(name, snapshotName);
+			
+			return resultsList; 
+		}
+	}
+	
+	private class RollbackProcessor implements CommandActionHandler { 
+		public ArrayList<String> execute(Command c) { 
+
+			resultsList = new ArrayList<String>(); 
+			FixedLengthCommand fc = (FixedLengthCommand) c;
+			String name = fc.getOperand(1);
+			DiskManager.rollbackSnapshot(name);
+			
+			return resultsList; 
+		}
+	}
+	
+	private class DeleteSnapshotProcessor implements CommandActionHandler { 
+		public ArrayList<String> execute(Command c) { 
+
+			resultsList = new ArrayList<String>(); 
+			FixedLengthCommand fc = (FixedLengthCommand) c;
+			String name = fc.getOperand(1);
+			DiskManager.deleteSnapshot(name);
+			
+			return resultsList; 
+		}
+	}
+	
+	private class SyncProcessor implements CommandActionHandler { 
+		public ArrayList<String> execute(Command c) { 
+
+			resultsList = new ArrayList<String>(); 
+			DiskManager.syncDisk();
+			
+			return resultsList; 
+		}
+	}
+	
+	private class DiskStatsProcessor implements CommandActionHandler { 
+		public ArrayList<String> execute(Command c) { 
+
+			resultsList = new ArrayList<String>(); 
+			DiskManager.showDiskStats();
+			
+			return resultsList; 
+		}
+	}
+	
 	private class ShutDownProcessor implements CommandActionHandler { 
 		public ArrayList<String> execute(Command c) { 
 